@@ -1,9 +1,7 @@
 package ml.classifiers;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Random;
 
 import ml.data.CrossValidationSet;
 import ml.data.DataSet;
@@ -16,14 +14,26 @@ import ml.data.Example;
  * @author Brisa Salazar and Kenny Gonzalez
  */
 
-public class AVAClassifier implements Classifier {
+public class AVAClassifier implements RandomizedClassifier {
 	private ClassifierFactory cFactory;
-	private HashMap<String, Classifier> clPairs = new HashMap<>();
+	// the classifier for each pair of label ids i < k (null for labels not in the data)
+	private Classifier[][] clPairs;
+	private double[] labels; // the label for each id
+	private Random seeds = null; // if seeded, where the seeds for the pair classifiers come from
 
 	public AVAClassifier(ClassifierFactory cFactory) {
 		this.cFactory = cFactory;
 	}
 
+	/**
+	 * Seed the pair classifiers (the ones that use randomness)
+	 * 
+	 * @param seed
+	 */
+	public void setSeed(long seed) {
+		seeds = new Random(seed);
+	}
+
 	/**
 	 * Train this classifier based on the data set
 	 * 
@@ -31,26 +41,37 @@ public class AVAClassifier implements Classifier {
 	 */
 	public void train(DataSet data) {
 		ArrayList<Example> dataArr = data.getData();
-		int numLabels = data.getLabels().size();
+		int[] labelIds = data.getLabelIds();
+		int[] labelCounts = data.getLabelCounts();
+		labels = data.getLabelDictionary().getLabels();
+		int numLabels = labels.length;
+		clPairs = new Classifier[numLabels][numLabels];
 		
 		for (int i = 0; i < numLabels; i++){
 			for (int k = i + 1; k < numLabels; k++){
+				if (labelCounts[i] == 0 || labelCounts[k] == 0) {
+					continue;
+				}
 				Classifier classifier = cFactory.getClassifier();
-				DataSet copy = new DataSet(data.getFeatureMap());
-				for (Example e : dataArr){
+				if (seeds != null && classifier instanceof RandomizedClassifier) {
+					((RandomizedClassifier) classifier).setSeed(seeds.nextLong());
+				}
+				DataSet copy = new DataSet(data.getFeatureMap(), data.getNumFeatures());
+				for (int j = 0; j < dataArr.size(); j++){
 					// check if same label as the one we are classifying on
-					Example eCopy = new Example(e);
-					if (e.getLabel() == i) {
+					if (labelIds[j] == i) {
+						Example eCopy = new Example(dataArr.get(j));
 						eCopy.setLabel(1.0);
 						copy.addData(eCopy);
-					} else if (e.getLabel() == k) {
+					} else if (labelIds[j] == k) {
+						Example eCopy = new Example(dataArr.get(j));
 						eCopy.setLabel(-1.0);
 						copy.addData(eCopy);
 					}
 				}
 				// storing the classifier and label pairs 
 				classifier.train(copy);
-				clPairs.put(i + "v" + k, classifier); // string is the label, classifier is the classifier
+				clPairs[i][k] = classifier;
 			}
 		}
 	}
@@ -62,26 +83,32 @@ public class AVAClassifier implements Classifier {
 	 * @return the class label predicted by the classifier for this example
 	 */
 	public double classify(Example example) {
-		HashMap<Double, Double> runningLabelHash =  new HashMap<>();
-		for (String label : this.clPairs.keySet()){
-			// split the label pair to get the individiual labels 
-			String[] labels = label.split("v");
-			Double i = Double.parseDouble(labels[0]); 
-			Double k = Double.parseDouble(labels[1]);
-	
-			Double prediction = clPairs.get(label).classify(example); // gets the classifier tied to that label, classifies using classifier 
-			Double confidence = clPairs.get(label).confidence(example); // gets the classifier tied to that label, gives us the confidence using classifier
-			Double weightedConfidence = prediction * confidence;
-			
-			// if the label i, k is in then returns that value in the hash. else if no value is there, sets to 0.0 as a default. 
-			Double iScore = runningLabelHash.getOrDefault(i, 0.0);
-			Double kScore = runningLabelHash.getOrDefault(k, 0.0);
-			
-			runningLabelHash.put(i,iScore + weightedConfidence);
-			runningLabelHash.put(k,kScore - weightedConfidence);
+		// the running score of each label id
+		double[] scores = new double[labels.length];
+		boolean[] scored = new boolean[labels.length];
+		for (int i = 0; i < labels.length; i++){
+			for (int k = i + 1; k < labels.length; k++){
+				if (clPairs[i][k] == null) {
+					continue;
+				}
+				double prediction = clPairs[i][k].classify(example); // gets the classifier tied to that label, classifies using classifier 
+				double confidence = clPairs[i][k].confidence(example); // gets the classifier tied to that label, gives us the confidence using classifier
+				double weightedConfidence = prediction * confidence;
+				
+				scores[i] += weightedConfidence;
+				scores[k] -= weightedConfidence;
+				scored[i] = true;
+				scored[k] = true;
 			}
+		}
 		// find the label with the greatest confidence
-		return Collections.max(runningLabelHash.entrySet(), Map.Entry.comparingByValue()).getKey();
+		int best = -1;
+		for (int i = 0; i < labels.length; i++){
+			if (scored[i] && (best == -1 || scores[i] > scores[best])){
+				best = i;
+			}
+		}
+		return labels[best];
 	}
 
 
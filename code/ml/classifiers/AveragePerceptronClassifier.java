@@ -1,12 +1,16 @@
 package ml.classifiers;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
+import ml.data.BlockShuffleIterator;
 import ml.data.DataSet;
 import ml.data.Example;
+import ml.utils.VectorMath;
 
 /**
  * Average perceptron classifier.  We'll utilize most of the code from the
@@ -16,59 +20,95 @@ import ml.data.Example;
  *
  */
 public class AveragePerceptronClassifier extends PerceptronClassifier {
+	// the running sums for the averaged weights while training
+	private double[] sumWeights;
+	private double sumB;
+	private int total;
+	private int lastUpdate;
 	
 	public void train(DataSet data) {
 		initializeWeights(data.getAllFeatureIndices());
+		initializeSums();
 		
 		ArrayList<Example> training = (ArrayList<Example>)data.getData().clone();
-
-		int total = 0;
-		int lastUpdate = 1;
-		
-		// initialize the weights
-		HashMap<Integer, Double> sumWeights = getZeroWeights(weights.keySet());
-		double sumB = 0;
 		
 		for( int it = 0; it < iterations; it++ ){
-			Collections.shuffle(training);
+			Collections.shuffle(training, rand);
 			
 			for( Example e: training ){
-				if( getPrediction(e) != e.getLabel() ){
-					double label = e.getLabel();
-
-					// update the weights
-					for( Integer featureIndex: weights.keySet() ){
-						double featureValue = e.getFeature(featureIndex);
-						double oldSumWeight = sumWeights.get(featureIndex);
-						double oldWeight = weights.get(featureIndex);
-
-						// update the aggregate weights
-						sumWeights.put(featureIndex, oldSumWeight + lastUpdate*oldWeight);
-
-						
-						// update the basic weights
-						weights.put(featureIndex, oldWeight + featureValue*label);						
-					}
-
-					// update sumB
-					sumB += lastUpdate*b;
-					
-					// update b
-					b += label;
-					
-					lastUpdate = 0;
-				}
-				
-				total++;
-				lastUpdate++;
+				trainExample(e);
+			}
+		}
+		
+		averageWeights();
+	}
+	
+	@Override
+	public void train(Iterable<Example> data) {
+		// features are added to the weights as they're seen
+		initializeWeights(new HashSet<Integer>());
+		initializeSums();
+		
+		for( int it = 0; it < iterations; it++ ){
+			Iterator<Example> training = new BlockShuffleIterator(data.iterator(), shuffleBlockSize, rand);
+			
+			while( training.hasNext() ){
+				trainExample(training.next());
 			}
 		}
 		
-		// normalize the weights and save back into the weights vector
-		for( Integer featureIndex: sumWeights.keySet() ){
-			weights.put(featureIndex, sumWeights.get(featureIndex)/total);
+		averageWeights();
+	}
+	
+	private void initializeSums(){
+		total = 0;
+		lastUpdate = 1;
+		
+		// initialize the weights
+		sumWeights = new double[weights.length];
+		sumB = 0;
+	}
+	
+	@Override
+	protected void trainExample(Example e){
+		if( getPrediction(e) != e.getLabel() ){
+			double label = e.getLabel();
+			
+			// features seen for the first time have had weight 0 so far
+			weights = growWeights(weights, e);
+			numFeatures = countFeatures(numFeatures, e);
+			
+			if( sumWeights.length < weights.length ){
+				sumWeights = Arrays.copyOf(sumWeights, weights.length);
+			}
+
+			// update the aggregate weights
+			VectorMath.axpy(lastUpdate, weights, sumWeights);
+			
+			// update the basic weights
+			e.addTo(weights, label);
+
+			// update sumB
+			sumB += lastUpdate*b;
+			
+			// update b
+			b += label;
+			
+			lastUpdate = 0;
 		}
 		
+		total++;
+		lastUpdate++;
+	}
+	
+	/**
+	 * Normalize the weights and save back into the weights vector
+	 */
+	private void averageWeights(){
+		weights = sumWeights;
+		VectorMath.scale(1.0/total, weights, 0, weights.length);
+		
 		b = sumB/total;
+		sumWeights = null;
 	}
 }
@@ -0,0 +1,103 @@
+package ml.classifiers;
+
+import ml.data.DenseMatrix;
+import ml.utils.VectorMath;
+
+/**
+ * An exact ball tree over dense training data.  Each node is bounded by a
+ * ball (the mean of its examples and the distance to the farthest one), and a
+ * search skips any node whose ball is farther than the kth closest neighbor
+ * found so far.  Unlike the planes of a KDTree, the balls stay tight when
+ * there are many features, so this is used for higher dimensional data.
+ */
+class BallTree extends DenseTreeIndex {
+	// allowance for rounding in the distances, relative to their size, so a
+	// node is never skipped because of it
+	private static final double ROUNDING_SLACK = 1e-10;
+
+	private double[] centers;
+	private double[] radii;
+
+	/**
+	 * @param matrix the training data
+	 * @param rows the rows of matrix in the training data (see
+	 * DataSet.getMatrixRows)
+	 */
+	public BallTree(DenseMatrix matrix, int[] rows){
+		super(matrix, rows);
+		centers = new double[getMaxNodes()*numColumns];
+		radii = new double[getMaxNodes()];
+		buildTree();
+	}
+
+	@Override
+	protected void describe(int node, int start, int end){
+		int centerStart = node*numColumns;
+
+		for( int i = start; i < end; i++ ){
+			for( int c = 0; c < numColumns; c++ ){
+				centers[centerStart + c] += getCoordinate(i, c);
+			}
+		}
+
+		VectorMath.scale(1.0/(end - start), centers, centerStart, numColumns);
+
+		double radius = 0.0;
+
+		for( int i = start; i < end; i++ ){
+			double dist = 0.0;
+
+			for( int c = 0; c < numColumns; c++ ){
+				double diff = getCoordinate(i, c) - centers[centerStart + c];
+				dist += diff*diff;
+			}
+
+			radius = Math.max(radius, Math.sqrt(dist));
+		}
+
+		radii[node] = radius;
+	}
+
+	@Override
+	protected void split(int node, int dimension, double value){
+		// the balls of the children are all that's needed
+	}
+
+	@Override
+	protected void search(int node, double[] query, NeighborHeap heap){
+		if( lefts[node] == -1 ){
+			scanLeaf(node, query, heap);
+			return;
+		}
+
+		double leftBound = getLowerBound(lefts[node], query);
+		double rightBound = getLowerBound(rights[node], query);
+		int near = leftBound <= rightBound ? lefts[node] : rights[node];
+		int far = leftBound <= rightBound ? rights[node] : lefts[node];
+
+		if( !canSkip(Math.min(leftBound, rightBound), heap) ){
+			search(near, query, heap);
+		}
+
+		if( !canSkip(Math.max(leftBound, rightBound), heap) ){
+			search(far, query, heap);
+		}
+	}
+
+	/**
+	 * @return a lower bound on the distance from query to the examples of
+	 * node (not squared)
+	 */
+	private double getLowerBound(int node, double[] query){
+		double toCenter = Math.sqrt(VectorMath.squaredDistance(query, 0, centers, node*numColumns, numColumns));
+		return toCenter - radii[node] - ROUNDING_SLACK*(toCenter + radii[node]);
+	}
+
+	/**
+	 * @return whether every example of a node with the lower bound is
+	 * farther than the kth closest neighbor so far
+	 */
+	private boolean canSkip(double lowerBound, NeighborHeap heap){
+		return lowerBound > 0 && lowerBound*lowerBound > heap.getWorstDistance();
+	}
+}
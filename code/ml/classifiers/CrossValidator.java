@@ -0,0 +1,343 @@
+package ml.classifiers;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import ml.data.CrossValidationSet;
+import ml.data.DataSet;
+import ml.data.DataSetSplit;
+import ml.data.Example;
+import ml.data.PreprocessingPipeline;
+
+/**
+ * Runs cross validation, training and testing a new classifier from a factory
+ * on each fold.  The folds are run concurrently on a fixed number of threads.
+ *
+ * Each fold's classifier (if it uses randomness) gets its own seed, generated
+ * from one overall seed, so a run can be repeated exactly.
+ *
+ * Each fold can also be preprocessed (e.g. normalized) with its own
+ * PreprocessingPipeline, fit to the fold's training data and then applied to
+ * its training and test data.  The pipeline works on copies, which matters
+ * because the folds share the examples of the original data set.  For the
+ * same reason, the classifiers must not change the examples they're trained
+ * on.
+ *
+ * For example, 10-fold cross validation of depth 5 decision trees on
+ * normalized data:
+ *
+ *   CrossValidator validator = new CrossValidator(new ClassifierFactory(ClassifierFactory.DECISION_TREE, 5), folds);
+ *   validator.setPreprocessing(() -> new PreprocessingPipeline(new FeatureNormalizer(), new ExampleNormalizer()));
+ *   System.out.println(validator.run());
+ */
+public class CrossValidator {
+	private ClassifierFactory factory;
+	private CrossValidationSet folds;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private long seed = System.nanoTime();
+	private Supplier<PreprocessingPipeline> preprocessing = null; // a new pipeline for each fold
+
+	/**
+	 * @param factory generates the classifier for each fold
+	 * @param folds
+	 */
+	public CrossValidator(ClassifierFactory factory, CrossValidationSet folds){
+		this.factory = factory;
+		this.folds = folds;
+	}
+
+	/**
+	 * Set the maximum number of folds to run at once (defaults to the number
+	 * of processors)
+	 *
+	 * @param numThreads
+	 */
+	public void setNumThreads(int numThreads){
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Set the seed the per-fold seeds are generated from
+	 *
+	 * @param seed
+	 */
+	public void setSeed(long seed){
+		this.seed = seed;
+	}
+
+	/**
+	 * Preprocess each fold with a new pipeline from preprocessing, fit to the
+	 * fold's training data (null, the default, for no preprocessing)
+	 *
+	 * @param preprocessing
+	 */
+	public void setPreprocessing(Supplier<PreprocessingPipeline> preprocessing){
+		this.preprocessing = preprocessing;
+	}
+
+	/**
+	 * Train and test on every fold
+	 *
+	 * @return the results
+	 */
+	public Results run(){
+		int numFolds = folds.getNumSplits();
+		Random seeds = new Random(seed);
+		ArrayList<Future<FoldResult>> futures = new ArrayList<Future<FoldResult>>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, numFolds)));
+		long start = System.currentTimeMillis();
+
+		try{
+			for( int i = 0; i < numFolds; i++ ){
+				// create the splits here so only the training and testing is concurrent
+				futures.add(executor.submit(new FoldRunner(i, folds.getValidationSet(i), seeds.nextLong())));
+			}
+
+			ArrayList<FoldResult> results = new ArrayList<FoldResult>();
+
+			for( Future<FoldResult> future: futures ){
+				results.add(future.get());
+			}
+
+			return new Results(results, System.currentTimeMillis() - start);
+		}catch( InterruptedException e ){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted during cross validation", e);
+		}catch( ExecutionException e ){
+			throw new RuntimeException("Cross validation fold failed", e.getCause());
+		}finally{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Task that trains and tests a classifier on one fold
+	 */
+	private class FoldRunner implements Callable<FoldResult>{
+		private int fold;
+		private DataSetSplit split;
+		private long foldSeed;
+
+		public FoldRunner(int fold, DataSetSplit split, long foldSeed){
+			this.fold = fold;
+			this.split = split;
+			this.foldSeed = foldSeed;
+		}
+
+		@Override
+		public FoldResult call(){
+			Classifier classifier = factory.getClassifier();
+
+			if( classifier instanceof RandomizedClassifier ){
+				((RandomizedClassifier)classifier).setSeed(foldSeed);
+			}
+
+			// preprocessing the data counts towards the training and testing times
+			long start = System.currentTimeMillis();
+			DataSet train = split.getTrain();
+			PreprocessingPipeline pipeline = null;
+
+			if( preprocessing != null ){
+				pipeline = preprocessing.get();
+				pipeline.fit(train);
+				train = pipeline.transform(train);
+			}
+
+			classifier.train(train);
+			long trainTime = System.currentTimeMillis() - start;
+
+			start = System.currentTimeMillis();
+			DataSet test = pipeline == null ? split.getTest() : pipeline.transform(split.getTest());
+			int correct = 0;
+
+			for( Example e: test.getData() ){
+				if( classifier.classify(e) == e.getLabel() ){
+					correct++;
+				}
+			}
+
+			long testTime = System.currentTimeMillis() - start;
+			int testSize = test.getData().size();
+
+			return new FoldResult(fold, foldSeed, train.getData().size(), testSize,
+					testSize == 0 ? 0 : correct/(double)testSize, trainTime, testTime);
+		}
+	}
+
+	/**
+	 * The results of one fold
+	 */
+	public static class FoldResult{
+		private int fold;
+		private long seed;
+		private int trainSize;
+		private int testSize;
+		private double accuracy;
+		private long trainTime;
+		private long testTime;
+
+		public FoldResult(int fold, long seed, int trainSize, int testSize, double accuracy, long trainTime, long testTime){
+			this.fold = fold;
+			this.seed = seed;
+			this.trainSize = trainSize;
+			this.testSize = testSize;
+			this.accuracy = accuracy;
+			this.trainTime = trainTime;
+			this.testTime = testTime;
+		}
+
+		/**
+		 * @return the fold number
+		 */
+		public int getFold(){
+			return fold;
+		}
+
+		/**
+		 * @return the seed the fold's classifier was given
+		 */
+		public long getSeed(){
+			return seed;
+		}
+
+		/**
+		 * @return the number of training examples
+		 */
+		public int getTrainSize(){
+			return trainSize;
+		}
+
+		/**
+		 * @return the number of test examples
+		 */
+		public int getTestSize(){
+			return testSize;
+		}
+
+		/**
+		 * @return the accuracy on the test examples
+		 */
+		public double getAccuracy(){
+			return accuracy;
+		}
+
+		/**
+		 * @return the training time in milliseconds
+		 */
+		public long getTrainTime(){
+			return trainTime;
+		}
+
+		/**
+		 * @return the time to classify the test examples in milliseconds
+		 */
+		public long getTestTime(){
+			return testTime;
+		}
+
+		public String toString(){
+			return "Fold " + fold + ": accuracy " + accuracy + " (train " + trainSize + " in " + trainTime +
+					"ms, test " + testSize + " in " + testTime + "ms)";
+		}
+	}
+
+	/**
+	 * The results of every fold and the overall results
+	 */
+	public static class Results{
+		private ArrayList<FoldResult> folds;
+		private long wallTime;
+
+		public Results(ArrayList<FoldResult> folds, long wallTime){
+			this.folds = folds;
+			this.wallTime = wallTime;
+		}
+
+		/**
+		 * @return the results of each fold, in fold order
+		 */
+		public ArrayList<FoldResult> getFolds(){
+			return folds;
+		}
+
+		/**
+		 * @return the average accuracy over the folds
+		 */
+		public double getMeanAccuracy(){
+			double sum = 0.0;
+
+			for( FoldResult fold: folds ){
+				sum += fold.getAccuracy();
+			}
+
+			return sum/folds.size();
+		}
+
+		/**
+		 * @return the standard deviation of the fold accuracies
+		 */
+		public double getAccuracyStandardDeviation(){
+			double mean = getMeanAccuracy();
+			double sumSquaredDiff = 0.0;
+
+			for( FoldResult fold: folds ){
+				sumSquaredDiff += (fold.getAccuracy() - mean)*(fold.getAccuracy() - mean);
+			}
+
+			return Math.sqrt(sumSquaredDiff/folds.size());
+		}
+
+		/**
+		 * @return the total training time of all of the folds in milliseconds
+		 */
+		public long getTotalTrainTime(){
+			long sum = 0;
+
+			for( FoldResult fold: folds ){
+				sum += fold.getTrainTime();
+			}
+
+			return sum;
+		}
+
+		/**
+		 * @return the total testing time of all of the folds in milliseconds
+		 */
+		public long getTotalTestTime(){
+			long sum = 0;
+
+			for( FoldResult fold: folds ){
+				sum += fold.getTestTime();
+			}
+
+			return sum;
+		}
+
+		/**
+		 * @return how long the whole cross validation took in milliseconds
+		 */
+		public long getWallTime(){
+			return wallTime;
+		}
+
+		public String toString(){
+			StringBuffer buffer = new StringBuffer();
+
+			for( FoldResult fold: folds ){
+				buffer.append(fold + "\n");
+			}
+
+			buffer.append("Accuracy: " + getMeanAccuracy() + " +/- " + getAccuracyStandardDeviation() + "\n");
+			buffer.append("Total train time: " + getTotalTrainTime() + "ms, total test time: " + getTotalTestTime() +
+					"ms, wall time: " + wallTime + "ms");
+
+			return buffer.toString();
+		}
+	}
+}
@@ -1,17 +1,19 @@
 package ml.classifiers;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
 import ml.data.CrossValidationSet;
 import ml.data.DataSet;
-import ml.data.DataSetSplit;
 import ml.data.Example;
 import ml.data.ExampleNormalizer;
 import ml.data.FeatureNormalizer;
-import ml.utils.HashMapCounter;
+import ml.data.PreprocessingPipeline;
+import ml.data.SparseMatrix;
 
 /**
  * Decision tree classifier that supports multiclass classification.
@@ -29,6 +31,22 @@ public class DecisionTreeClassifier implements Classifier{
 	private DecisionTreeNode decisionTree;
 	private int depthMax = Integer.MAX_VALUE;
 	
+	// the training examples.  While building the tree, subsets of the data are
+	// represented by their row numbers in this list.  With a sparse matrix these
+	// are the matrix rows (and the list has null for rows not in the data).
+	private ArrayList<Example> examples;
+	
+	// the label id (see DataSet.getLabelIds) of each row and the label for each id
+	private int[] rowLabels;
+	private double[] labels;
+	private int numLabels;
+	
+	// only used when the training data has a sparse matrix: the matrix and a
+	// marker for the rows at the current node
+	private SparseMatrix sparseData;
+	private int[] rowMarks;
+	private int currentMark;
+	
 	public void train(DataSet data) {
 		if( data.getData().size() == 0 ){
 			throw new RuntimeException("Tried to train without any data");
@@ -36,7 +54,57 @@ public class DecisionTreeClassifier implements Classifier{
 		
 		featureMap = data.getFeatureMap();
 		featureIndices = data.getAllFeatureIndices();
-		decisionTree = buildTree(data.getData(), new HashSet<Integer>(), depthMax);
+		int[] rows = initializeRows(data);
+		
+		decisionTree = buildTree(rows, new HashSet<Integer>(), depthMax);
+		
+		// don't hold on to the training data
+		examples = null;
+		sparseData = null;
+		rowLabels = null;
+		labels = null;
+		rowMarks = null;
+	}
+	
+	/**
+	 * Set up the examples and, if the data has a sparse matrix, what we need to
+	 * score the features using its columns.
+	 * 
+	 * @param data
+	 * @return the rows of all of the data
+	 */
+	private int[] initializeRows(DataSet data){
+		sparseData = data.getSparseData();
+		int[] labelIds = data.getLabelIds();
+		labels = data.getLabelDictionary().getLabels();
+		numLabels = labels.length;
+		
+		if( sparseData == null ){
+			examples = data.getData();
+			rowLabels = labelIds;
+			int[] rows = new int[examples.size()];
+			
+			for( int i = 0; i < rows.length; i++ ){
+				rows[i] = i;
+			}
+			
+			return rows;
+		}
+		
+		// work with the matrix rows, since those are what the columns contain
+		int[] rows = data.getMatrixRows().clone();
+		examples = new ArrayList<Example>(Collections.nCopies(sparseData.getNumRows(), (Example)null));
+		rowLabels = new int[sparseData.getNumRows()];
+		
+		for( int i = 0; i < rows.length; i++ ){
+			examples.set(rows[i], data.getData().get(i));
+			rowLabels[rows[i]] = labelIds[i];
+		}
+		
+		rowMarks = new int[sparseData.getNumRows()];
+		currentMark = 0;
+		
+		return rows;
 	}
 	
 	/**
@@ -51,18 +119,18 @@ public class DecisionTreeClassifier implements Classifier{
 	/**
 	 * Helper method for building the decision tree.
 	 * 
-	 * @param currentData the data (non-empty) to build the tree over
+	 * @param currentData the rows of the data (non-empty) to build the tree over
 	 * @param usedFeatures the features that have been used already
 	 * @param depthLimit the maximum depth we can build this tree
 	 * @return the learned decision tree
 	 */
-	private DecisionTreeNode buildTree(ArrayList<Example> currentData, HashSet<Integer> usedFeatures, int depthLimit){
+	private DecisionTreeNode buildTree(int[] currentData, HashSet<Integer> usedFeatures, int depthLimit){
 		DataMajority majority = getMajorityLabel(currentData);
 				
 		// base cases:
 		// 1. they're all the same label
 		// 2. we're out of features to examine
-		if( majority.majorityCount == currentData.size() ||
+		if( majority.majorityCount == currentData.length ||
 			usedFeatures.size() == featureIndices.size() ||
 			depthLimit == 0){
 			return new DecisionTreeNode(majority.majorityLabel, majority.confidence);
@@ -74,7 +142,7 @@ public class DecisionTreeClassifier implements Classifier{
 			
 			// bestFeature != -1
 			// split on the best feature
-			ArrayList<Example>[] splits = splitData(currentData, bestFeature);
+			int[][] splits = splitData(currentData, bestFeature);
 			
 			// create a new decision tree node
 			DecisionTreeNode node = new DecisionTreeNode(bestFeature);
@@ -83,14 +151,14 @@ public class DecisionTreeClassifier implements Classifier{
 			featureCopy.add(bestFeature);
 			
 			// left branch
-			if( splits[0].size() == 0 ){
+			if( splits[0].length == 0 ){
 				node.setLeft(new DecisionTreeNode(majority.majorityLabel, majority.confidence));
 			}else{
 				node.setLeft(buildTree(splits[0],featureCopy, depthLimit-1));
 			}
 			
 			// right branch
-			if( splits[1].size() == 0 ){
+			if( splits[1].length == 0 ){
 				node.setRight(new DecisionTreeNode(majority.majorityLabel, majority.confidence));
 			}else{
 				node.setRight(buildTree(splits[1], featureCopy, depthLimit-1));
@@ -103,17 +171,20 @@ public class DecisionTreeClassifier implements Classifier{
 	/**
 	 * Get the best feature to split on based on training error.
 	 * 
-	 * @param currentData the current set of examples
+	 * @param currentData the rows of the current set of examples
 	 * @param usedFeatures which features have been used already and are NOT eligible for splitting on
 	 * @return the index of the best feature
 	 */
-	private int getBestFeatureIndex(ArrayList<Example> currentData, HashSet<Integer> usedFeatures){
+	private int getBestFeatureIndex(int[] currentData, HashSet<Integer> usedFeatures){
+		double[] sparseErrors = sparseData != null ? sparseTrainingErrors(currentData) : null;
+		
 		int bestFeature = -1;
 		double bestFeatureScore = 1.0; // lower is better for now
 		
 		for( int featureIndex: featureIndices){
 			if( !usedFeatures.contains(featureIndex) ){
-				double error = averageTrainingError(currentData, featureIndex);
+				double error = sparseErrors != null ? sparseErrors[featureIndex] :
+													  averageTrainingError(currentData, featureIndex);
 									
 				if( error < bestFeatureScore ||
 					(error == bestFeatureScore && featureIndex < bestFeature )){
@@ -129,43 +200,124 @@ public class DecisionTreeClassifier implements Classifier{
 	/**
 	 * Get the average training error on this data set if we split on featureIndex
 	 * 
-	 * @param data the current data
+	 * @param data the rows of the current data
 	 * @param featureIndex the feature we're considering splitting on
 	 * @return the error
 	 */
-	private double averageTrainingError(ArrayList<Example> data, int featureIndex){		
-		ArrayList<Example>[] splits = splitData(data, featureIndex);
+	private double averageTrainingError(int[] data, int featureIndex){		
+		// count the labels on each side of the split without building the splits
+		int[] leftCounts = new int[numLabels];
+		int[] rightCounts = new int[numLabels];
 		
-		int leftCount = splits[0].size() > 0 ? getMajorityLabel(splits[0]).majorityCount : 0;
-		int rightCount = splits[1].size() > 0 ? getMajorityLabel(splits[1]).majorityCount : 0;
+		for( int row: data ){
+			if( examples.get(row).getFeature(featureIndex) == DecisionTreeNode.LEFT_BRANCH ){
+				leftCounts[rowLabels[row]]++;
+			}else{
+				rightCounts[rowLabels[row]]++;
+			}
+		}
+		
+		int leftCount = getMaxCount(leftCounts);
+		int rightCount = getMaxCount(rightCounts);
 		
-		double accuracy = (leftCount+rightCount)/(double)data.size();
+		double accuracy = (leftCount+rightCount)/(double)data.length;
 		return 1-accuracy;
 	}
 	
+	/**
+	 * Get the average training error for splitting on every feature at once using
+	 * the columns of the sparse matrix.  Only the stored entries of each column are
+	 * visited: examples without an entry for a feature go down the left branch, so
+	 * the left counts are the counts for all of the data minus the right counts.
+	 * 
+	 * @param data the rows of the current data
+	 * @return the error for each feature index
+	 */
+	private double[] sparseTrainingErrors(int[] data){
+		int[] columnPointers = sparseData.getColumnPointers();
+		int[] rowIndices = sparseData.getRowIndices();
+		int[] valuePositions = sparseData.getValuePositions();
+		double[] values = sparseData.getValues();
+		
+		// mark the rows that are part of the current data and count their labels
+		currentMark++;
+		int[] totalCounts = new int[numLabels];
+		
+		for( int row: data ){
+			rowMarks[row] = currentMark;
+			totalCounts[rowLabels[row]]++;
+		}
+		
+		double[] errors = new double[sparseData.getNumColumns()];
+		int[] rightCounts = new int[numLabels];
+		
+		for( int c = 0; c < errors.length; c++ ){
+			Arrays.fill(rightCounts, 0);
+			
+			for( int k = columnPointers[c]; k < columnPointers[c+1]; k++ ){
+				int row = rowIndices[k];
+				
+				if( rowMarks[row] == currentMark && values[valuePositions[k]] != DecisionTreeNode.LEFT_BRANCH ){
+					rightCounts[rowLabels[row]]++;
+				}
+			}
+			
+			int leftCount = 0;
+			int rightCount = 0;
+			
+			for( int label = 0; label < numLabels; label++ ){
+				leftCount = Math.max(leftCount, totalCounts[label] - rightCounts[label]);
+				rightCount = Math.max(rightCount, rightCounts[label]);
+			}
+			
+			double accuracy = (leftCount+rightCount)/(double)data.length;
+			errors[c] = 1-accuracy;
+		}
+		
+		return errors;
+	}
+	
+	/**
+	 * @param counts the count for each label id
+	 * @return the largest count
+	 */
+	private int getMaxCount(int[] counts){
+		int maxCount = 0;
+		
+		for( int count: counts ){
+			maxCount = Math.max(maxCount, count);
+		}
+		
+		return maxCount;
+	}
+	
 	/**
 	 * Split the data based on featureIndex
 	 * 
-	 * @param data the data to be split
+	 * @param data the rows of the data to be split
 	 * @param featureIndex the feature to split on
-	 * @return the split of the data.  Entry 0 is the left branch data and entry 1 the right branch data.
+	 * @return the split of the data.  Entry 0 is the left branch rows and entry 1 the right branch rows.
 	 */
-	private ArrayList<Example>[] splitData(ArrayList<Example> data, int featureIndex){
+	private int[][] splitData(int[] data, int featureIndex){
 		// split the data based on this feature
-		ArrayList<Example>[] splits = new ArrayList[2];
-		splits[0] = new ArrayList<Example>();
-		splits[1] = new ArrayList<Example>();
+		int[] left = new int[data.length];
+		int[] right = new int[data.length];
+		int numLeft = 0;
+		int numRight = 0;
 				
-		for( Example d: data){
-			double value = d.getFeature(featureIndex);
+		for( int row: data){
+			double value = examples.get(row).getFeature(featureIndex);
 			
 			if( value == DecisionTreeNode.LEFT_BRANCH ){
-				splits[0].add(d);
+				left[numLeft++] = row;
 			}else{
-				splits[1].add(d);
+				right[numRight++] = row;
 			}
 		}
 		
+		int[][] splits = new int[2][];
+		splits[0] = Arrays.copyOf(left, numLeft);
+		splits[1] = Arrays.copyOf(right, numRight);
 		return splits;
 	}
 	
@@ -176,27 +328,25 @@ public class DecisionTreeClassifier implements Classifier{
 	/**
 	 * given the data, calculate the majority label and how many times it occurs in the data
 	 * 
-	 * @param data
+	 * @param data the rows of the data
 	 * @return majority information from the data
 	 */
-	private DataMajority getMajorityLabel(ArrayList<Example> data){
-		HashMapCounter<Double> counter = new HashMapCounter<Double>();
+	private DataMajority getMajorityLabel(int[] data){
+		int[] counts = new int[numLabels];
 		
-		for( Example d: data ){
-			counter.increment(d.getLabel());
+		for( int row: data ){
+			counts[rowLabels[row]]++;
 		}
 		
-		double maxLabel = 0.0;
-		int maxCount = -1;
+		int maxLabel = 0;
 		
-		for( Double key: counter.keySet() ){
-			if( counter.get(key) > maxCount ){
-				maxCount = counter.get(key);
-				maxLabel = key;
+		for( int label = 1; label < numLabels; label++ ){
+			if( counts[label] > counts[maxLabel] ){
+				maxLabel = label;
 			}
 		}
 		
-		return new DataMajority(maxLabel, maxCount, ((double)maxCount)/data.size());
+		return new DataMajority(labels[maxLabel], counts[maxLabel], ((double)counts[maxLabel])/data.length);
 	}
 		
 	@Override
@@ -254,44 +404,13 @@ public class DecisionTreeClassifier implements Classifier{
 	public static void main(String[] args) {
 		DataSet someData = new DataSet("data/diabetesDecimalLabel.csv", 0); 
 		CrossValidationSet crossValidation = new CrossValidationSet(someData, 10, true);
-		DecisionTreeClassifier dTree= new DecisionTreeClassifier();
-		dTree.setDepthLimit(5);
-       
-		// run for the number of splits 
-		ArrayList<Double> splitAvgs = new ArrayList<Double>();
-		for (int i = 0; i < crossValidation.getNumSplits(); i++){
-			DataSetSplit dataSplit = crossValidation.getValidationSet(i);
-			FeatureNormalizer featureNormalizer = new FeatureNormalizer();
-			ExampleNormalizer exampleNormalizer = new ExampleNormalizer();
-			featureNormalizer.preprocessTrain(dataSplit.getTrain());
-			exampleNormalizer.preprocessTrain(dataSplit.getTrain());
-			dTree.train(dataSplit.getTrain()); // training data
-			double allAccuracy = 0.0;
-			// runs classifier 100 times to find accuracy 
-			for (int j = 0; j < 100; j++) {
-				double correctCount = 0.0;
-				for (Example e : dataSplit.getTrain().getData()) {
-					//System.out.println("example: " + e);
-					double prediction =dTree.classify(e);
-					if (prediction == e.getLabel()) {
-						//System.out.println("in here");
-						correctCount += 1;
-					}
-				}
-				double currentAccuracy = correctCount / dataSplit.getTrain().getData().size();
-				allAccuracy += currentAccuracy;
-			}
-			double avg = allAccuracy / 100;
-			splitAvgs.add(avg); // will hold the avg accuragy from thr ith split 
-			break;
-		}
-		System.out.println("splitAvgs: " + splitAvgs);
-		// // uncode this when you have more than one fold
-        // double sumAvgs = 0.0;
-        // for (int i = 0; i < splitAvgs.size(); i++) {
-        //     sumAvgs += splitAvgs.get(i);
-        // }
-        // System.out.println(sumAvgs / crossValidation.getNumSplits());
+
+		// a depth 5 tree for each fold, trained and tested on the fold's data
+		// normalized by the statistics of its training data
+		CrossValidator validator = new CrossValidator(new ClassifierFactory(ClassifierFactory.DECISION_TREE, 5),
+				crossValidation);
+		validator.setPreprocessing(() -> new PreprocessingPipeline(new FeatureNormalizer(), new ExampleNormalizer()));
+		System.out.println(validator.run());
 	}
 }
 
@@ -0,0 +1,238 @@
+package ml.classifiers;
+
+import ml.data.DenseMatrix;
+import ml.data.Example;
+import ml.utils.VectorMath;
+
+/**
+ * The parts shared by the exact tree indexes over dense training data
+ * (KDTree and BallTree).
+ *
+ * The examples are split recursively in half at the median of the feature
+ * with the largest spread until at most LEAF_SIZE are left.  The rows are
+ * then copied in tree order, so the examples of every node are contiguous
+ * and a leaf is scanned straight through memory.  Subclasses record the
+ * bounds of each node and decide which nodes can be skipped during a search.
+ *
+ * Distances are squared euclidean distances; ties are broken by position in
+ * the training data (see NeighborHeap), so the neighbors found are exactly
+ * the ones a full scan would find.
+ */
+abstract class DenseTreeIndex implements NeighborIndex {
+	protected static final int LEAF_SIZE = 16;
+
+	protected int numColumns;
+	protected int numPoints;
+
+	// the rows in tree order and the training position of each
+	protected double[] points;
+	protected int[] positions;
+
+	// the tree: each node covers positions start to end-1; leaves have no
+	// children (-1)
+	protected int numNodes = 0;
+	protected int[] starts;
+	protected int[] ends;
+	protected int[] lefts;
+	protected int[] rights;
+
+	// the training matrix, only while the tree is being built
+	private double[] source;
+	private int[] rows;
+
+	/**
+	 * @param matrix the training data
+	 * @param rows the rows of matrix in the training data (see
+	 * DataSet.getMatrixRows)
+	 */
+	protected DenseTreeIndex(DenseMatrix matrix, int[] rows){
+		this.numColumns = matrix.getNumColumns();
+		this.numPoints = rows.length;
+		this.source = matrix.getRowMajorData();
+		this.rows = rows;
+
+		positions = new int[numPoints];
+
+		for( int i = 0; i < numPoints; i++ ){
+			positions[i] = i;
+		}
+
+		// every split leaves at least LEAF_SIZE/2 examples on each side
+		int maxNodes = 2*(numPoints/(LEAF_SIZE/2)) + 1;
+		starts = new int[maxNodes];
+		ends = new int[maxNodes];
+		lefts = new int[maxNodes];
+		rights = new int[maxNodes];
+	}
+
+	/**
+	 * Build the tree.  Called by the subclass constructors once they have
+	 * allocated space for their bounds.
+	 */
+	protected void buildTree(){
+		if( numPoints > 0 ){
+			build(0, numPoints);
+		}
+
+		points = new double[numPoints*numColumns];
+
+		for( int i = 0; i < numPoints; i++ ){
+			System.arraycopy(source, rows[positions[i]]*numColumns, points, i*numColumns, numColumns);
+		}
+
+		source = null;
+		rows = null;
+	}
+
+	/**
+	 * @return the maximum number of nodes the tree can have
+	 */
+	protected int getMaxNodes(){
+		return starts.length;
+	}
+
+	/**
+	 * Record the bounds of a new node covering positions start to end-1
+	 */
+	protected abstract void describe(int node, int start, int end);
+
+	/**
+	 * Record that node was split in two at value of dimension
+	 */
+	protected abstract void split(int node, int dimension, double value);
+
+	/**
+	 * Add the neighbors of query under node to heap
+	 */
+	protected abstract void search(int node, double[] query, NeighborHeap heap);
+
+	@Override
+	public int[] search(Example query, int k){
+		double[] q = new double[numColumns];
+
+		for( int c = 0; c < numColumns; c++ ){
+			q[c] = query.getFeature(c);
+		}
+
+		NeighborHeap heap = new NeighborHeap(k);
+
+		if( numNodes > 0 ){
+			search(0, q, heap);
+		}
+
+		return heap.removeAll();
+	}
+
+	/**
+	 * Compare query to every example of a leaf
+	 */
+	protected void scanLeaf(int node, double[] query, NeighborHeap heap){
+		for( int i = starts[node]; i < ends[node]; i++ ){
+			heap.offer(positions[i], VectorMath.squaredDistance(query, 0, points, i*numColumns, numColumns));
+		}
+	}
+
+	/**
+	 * While building, the value of dimension for the example at position i
+	 */
+	protected double getCoordinate(int i, int dimension){
+		return source[rows[positions[i]]*numColumns + dimension];
+	}
+
+	private int build(int start, int end){
+		int node = numNodes++;
+		starts[node] = start;
+		ends[node] = end;
+		lefts[node] = -1;
+		rights[node] = -1;
+		describe(node, start, end);
+
+		if( end - start <= LEAF_SIZE ){
+			return node;
+		}
+
+		int dimension = getWidestDimension(start, end);
+		int mid = (start + end) >>> 1;
+		select(start, end, mid, dimension);
+		split(node, dimension, getCoordinate(mid, dimension));
+
+		lefts[node] = build(start, mid);
+		rights[node] = build(mid, end);
+		return node;
+	}
+
+	/**
+	 * @return the dimension with the largest range of values between start
+	 * and end-1
+	 */
+	private int getWidestDimension(int start, int end){
+		double[] min = new double[numColumns];
+		double[] max = new double[numColumns];
+
+		for( int c = 0; c < numColumns; c++ ){
+			min[c] = Double.POSITIVE_INFINITY;
+			max[c] = Double.NEGATIVE_INFINITY;
+		}
+
+		for( int i = start; i < end; i++ ){
+			int rowStart = rows[positions[i]]*numColumns;
+
+			for( int c = 0; c < numColumns; c++ ){
+				min[c] = Math.min(min[c], source[rowStart + c]);
+				max[c] = Math.max(max[c], source[rowStart + c]);
+			}
+		}
+
+		int widest = 0;
+
+		for( int c = 1; c < numColumns; c++ ){
+			if( max[c] - min[c] > max[widest] - min[widest] ){
+				widest = c;
+			}
+		}
+
+		return widest;
+	}
+
+	/**
+	 * Reorder positions start to end-1 so that the example at position nth
+	 * has the value of dimension it would have if they were sorted by it,
+	 * with the smaller values before it and larger ones after (quickselect)
+	 */
+	private void select(int start, int end, int nth, int dimension){
+		int low = start;
+		int high = end - 1;
+
+		while( low < high ){
+			double pivot = getCoordinate((low + high) >>> 1, dimension);
+			int i = low;
+			int j = high;
+
+			while( i <= j ){
+				while( getCoordinate(i, dimension) < pivot ){
+					i++;
+				}
+
+				while( getCoordinate(j, dimension) > pivot ){
+					j--;
+				}
+
+				if( i <= j ){
+					int temp = positions[i];
+					positions[i] = positions[j];
+					positions[j] = temp;
+					i++;
+					j--;
+				}
+			}
+
+			if( nth <= j ){
+				high = j;
+			}else if( nth >= i ){
+				low = i;
+			}else{
+				return;
+			}
+		}
+	}
+}
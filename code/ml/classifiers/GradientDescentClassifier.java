@@ -5,12 +5,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.Random;
 
+import ml.data.BlockShuffleIterator;
 import ml.data.CrossValidationSet;
 import ml.data.DataSet;
 import ml.data.DataSetSplit;
@@ -25,7 +26,7 @@ import ml.data.FeatureNormalizer;
  * @author dkauchak and Brisa Salazar and Kenneth Gonzalez and Collins Kariuki
  *
  */
-public class GradientDescentClassifier implements Classifier {
+public class GradientDescentClassifier implements OnlineClassifier, RandomizedClassifier {
 	// constants for the different surrogate loss functions
 	public static final int EXPONENTIAL_LOSS = 0;
 	public static final int HINGE_LOSS = 1;
@@ -35,10 +36,13 @@ public class GradientDescentClassifier implements Classifier {
 	public static final int L1_REGULARIZATION = 1;
 	public static final int L2_REGULARIZATION = 2;
 
-	protected HashMap<Integer, Double> weights; // the feature weights
+	protected double[] weights; // the feature weights, indexed by feature
+	protected int numFeatures = 0; // weights past the features seen are room to grow
 	protected double b = 0; // the intersect weight
 
 	protected int iterations = 10;
+	protected int shuffleBlockSize = 10000; // when training from a stream
+	protected Random rand = new Random(); // for shuffling the training data
 
 	private double lamda = 0.01;;
 	private double eta = 0.01;
@@ -101,19 +105,20 @@ public class GradientDescentClassifier implements Classifier {
 
 	/**
 	 * Get a weight vector over the set of features with each weight
-	 * set to 0
+	 * set to 0.  Weights are indexed by feature, so the vector covers every
+	 * index up to the largest feature.
 	 * 
 	 * @param features the set of features to learn over
 	 * @return
 	 */
-	protected HashMap<Integer, Double> getZeroWeights(Set<Integer> features) {
-		HashMap<Integer, Double> temp = new HashMap<Integer, Double>();
+	protected double[] getZeroWeights(Set<Integer> features) {
+		int numFeatures = 0;
 
 		for (Integer f : features) {
-			temp.put(f, 0.0);
+			numFeatures = Math.max(numFeatures, f + 1);
 		}
 
-		return temp;
+		return new double[numFeatures];
 	}
 
 	/**
@@ -123,6 +128,7 @@ public class GradientDescentClassifier implements Classifier {
 	 */
 	protected void initializeWeights(Set<Integer> features) {
 		weights = getZeroWeights(features);
+		numFeatures = weights.length;
 		b = 0;
 	}
 
@@ -173,38 +179,75 @@ public class GradientDescentClassifier implements Classifier {
 		this.iterations = iterations;
 	}
 
+	@Override
+	public void setShuffleBlockSize(int blockSize) {
+		this.shuffleBlockSize = blockSize;
+	}
+
+	@Override
+	public void setSeed(long seed) {
+		rand = new Random(seed);
+	}
+
 	public void train(DataSet data) {
 		initializeWeights(data.getAllFeatureIndices());
 
 		ArrayList<Example> training = (ArrayList<Example>) data.getData().clone();
 
 		for (int it = 0; it < iterations; it++) {
-			Collections.shuffle(training);
-			double lossSum = 0.0;
+			Collections.shuffle(training, rand);
 
 			for (Example e : training) {
+				trainExample(e);
+			}
+		}
+	}
 
-				// System.out.println("the features in the eaxmpele after removing one: " +
-				// e.getFeatureSet());
-				// System.out.println("the example after removing feature: " + e);
-				double label = e.getLabel();
-				double prediction = getDistanceFromHyperplane(e, weights, b);
-				lossSum += calcLoss(this.chosenLoss, e.getLabel(), prediction);
-
-				for (Integer featureIndex : e.getFeatureSet()) {
-					double oldWeight = weights.get(featureIndex);
-					double featureValue = e.getFeature(featureIndex);
-					double newWeight = oldWeight
-							+ this.eta * ((label * featureValue * lossFunc(this.chosenLoss, label, prediction))
-									- (lamda * regularize(this.chosenRegularization, oldWeight)));
-					weights.put(featureIndex, newWeight);
-				}
-				b += this.eta * ((label * 1 * lossFunc(this.chosenLoss, label, prediction))
-						- (this.lamda * regularize(this.chosenRegularization, b)));
+	@Override
+	public void train(Iterable<Example> data) {
+		// features are added to the weights as they're seen
+		initializeWeights(new HashSet<Integer>());
+
+		for (int it = 0; it < iterations; it++) {
+			Iterator<Example> training = new BlockShuffleIterator(data.iterator(), shuffleBlockSize, rand);
 
+			while (training.hasNext()) {
+				trainExample(training.next());
 			}
+		}
+	}
 
+	/**
+	 * Take a gradient step based on one example
+	 * 
+	 * @param e
+	 */
+	protected void trainExample(Example e) {
+		// System.out.println("the features in the eaxmpele after removing one: " +
+		// e.getFeatureSet());
+		// System.out.println("the example after removing feature: " + e);
+		double label = e.getLabel();
+		double prediction = getDistanceFromHyperplane(e, weights, b);
+		double loss = lossFunc(this.chosenLoss, label, prediction);
+
+		// features seen for the first time have had weight 0 so far
+		weights = PerceptronClassifier.growWeights(weights, e);
+		numFeatures = PerceptronClassifier.countFeatures(numFeatures, e);
+
+		if (chosenRegularization == NO_REGULARIZATION) {
+			// no regularization term, so the step is a scaled copy of the example
+			e.addTo(weights, this.eta * label * loss);
+		} else {
+			for (int i = 0; i < e.getFeatureCount(); i++) {
+				int featureIndex = e.getFeatureIndexAt(i);
+				double oldWeight = weights[featureIndex];
+				double featureValue = e.getFeatureValueAt(i);
+				weights[featureIndex] = oldWeight + this.eta * ((label * featureValue * loss)
+						- (lamda * regularize(this.chosenRegularization, oldWeight)));
+			}
 		}
+		b += this.eta * ((label * 1 * lossFunc(this.chosenLoss, label, prediction))
+				- (this.lamda * regularize(this.chosenRegularization, b)));
 	}
 
 	@Override
@@ -235,7 +278,7 @@ public class GradientDescentClassifier implements Classifier {
 	 * @param inputB the b value to use
 	 * @return the prediction
 	 */
-	protected static double getPrediction(Example e, HashMap<Integer, Double> w, double inputB) {
+	protected static double getPrediction(Example e, double[] w, double inputB) {
 		double sum = getDistanceFromHyperplane(e, w, inputB);
 
 		if (sum > 0) {
@@ -247,14 +290,9 @@ public class GradientDescentClassifier implements Classifier {
 		}
 	}
 
-	protected static double getDistanceFromHyperplane(Example e, HashMap<Integer, Double> w, double inputB) {
-		double sum = inputB;
-
-		for (Integer featureIndex : e.getFeatureSet()) {
-			sum += w.get(featureIndex) * e.getFeature(featureIndex);
-		}
-
-		return sum;
+	protected static double getDistanceFromHyperplane(Example e, double[] w, double inputB) {
+		// features that weren't seen during training have weight 0
+		return inputB + e.dot(w);
 	}
 
 	/***
@@ -279,11 +317,8 @@ public class GradientDescentClassifier implements Classifier {
 	public String toString() {
 		StringBuffer buffer = new StringBuffer();
 
-		ArrayList<Integer> temp = new ArrayList<Integer>(weights.keySet());
-		Collections.sort(temp);
-
-		for (Integer index : temp) {
-			buffer.append(index + ":" + weights.get(index) + " ");
+		for (int index = 0; index < numFeatures; index++) {
+			buffer.append(index + ":" + weights[index] + " ");
 		}
 
 		return buffer.substring(0, buffer.length() - 1);
@@ -0,0 +1,546 @@
+package ml.classifiers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ml.data.DenseMatrix;
+import ml.data.Example;
+import ml.utils.VectorMath;
+
+/**
+ * An approximate index over dense training data: a hierarchical navigable
+ * small world graph (HNSW, Malkov and Yashunin).  Every example is a node
+ * linked to nearby examples; a random few are also on higher levels, with
+ * exponentially fewer nodes and longer links per level.  A search walks
+ * greedily down from the top level and then does a best-first search of the
+ * bottom level keeping the efSearch closest nodes found, so a query compares
+ * against a few hundred or thousand examples however many there are.  The
+ * neighbors found are usually, but not always, the exact nearest neighbors;
+ * larger efSearch (and M and efConstruction) trade speed for recall.
+ *
+ * The examples are inserted by several threads at once, each node's links
+ * guarded by its own lock, so with more than one thread the graph (and so
+ * the neighbors found) can differ from build to build.  With one thread it
+ * only depends on the seed.
+ *
+ * Each thread searching the index gets its own buffers (just as each thread
+ * inserting does), so an index can be searched from several threads at once.
+ */
+class HNSWIndex implements NeighborIndex {
+	private int numColumns;
+	private int numPoints;
+	private double[] points; // the rows in training order
+
+	private int m; // the links each node gets per level when inserted
+	private int efConstruction;
+	private int efSearch;
+
+	private int[] levels; // the top level of each node
+
+	// links[node][level] holds the number of links followed by the linked
+	// nodes.  A node has up to m links on the higher levels and 2m on level 0.
+	private int[][][] links;
+
+	// the node searches start from, which is on the top level
+	private int entryPoint = -1;
+	private int maxLevel = -1;
+	private final ReentrantLock entryLock = new ReentrantLock();
+
+	// the buffers of the thread searching
+	private ThreadLocal<Search> querySearches = ThreadLocal.withInitial(() -> new Search());
+
+	/**
+	 * @param matrix the training data
+	 * @param rows the rows of matrix in the training data (see
+	 * DataSet.getMatrixRows)
+	 * @param m the number of links per node and level (at least 2)
+	 * @param efConstruction the number of candidate neighbors considered when
+	 * inserting a node
+	 * @param efSearch the number of candidate neighbors considered by a search
+	 * (at least k are always considered)
+	 * @param seed for choosing the levels of the nodes
+	 * @param numThreads the number of threads to insert the nodes with
+	 */
+	public HNSWIndex(DenseMatrix matrix, int[] rows, int m, int efConstruction, int efSearch, long seed, int numThreads){
+		if( m < 2 ){
+			throw new IllegalArgumentException("M must be at least 2: " + m);
+		}
+
+		this.numColumns = matrix.getNumColumns();
+		this.numPoints = rows.length;
+		this.m = m;
+		this.efConstruction = Math.max(efConstruction, m);
+		this.efSearch = efSearch;
+
+		double[] source = matrix.getRowMajorData();
+		points = new double[numPoints*numColumns];
+
+		for( int i = 0; i < numPoints; i++ ){
+			System.arraycopy(source, rows[i]*numColumns, points, i*numColumns, numColumns);
+		}
+
+		// the chance of being on a level is 1/m of being on the one below
+		Random random = new Random(seed);
+		double levelMultiplier = 1/Math.log(m);
+		levels = new int[numPoints];
+		links = new int[numPoints][][];
+
+		for( int i = 0; i < numPoints; i++ ){
+			levels[i] = (int)(-Math.log(1 - random.nextDouble()) * levelMultiplier);
+			links[i] = new int[levels[i]+1][];
+
+			for( int level = 0; level <= levels[i]; level++ ){
+				links[i][level] = new int[1 + getMaxLinks(level)];
+			}
+		}
+
+		build(numThreads);
+	}
+
+	/**
+	 * Set the number of candidate neighbors considered by a search
+	 *
+	 * @param efSearch
+	 */
+	public void setEfSearch(int efSearch){
+		this.efSearch = efSearch;
+	}
+
+	@Override
+	public int[] search(Example query, int k){
+		if( numPoints == 0 || k <= 0 ){
+			return new int[0];
+		}
+
+		double[] q = new double[numColumns];
+
+		for( int i = 0; i < query.getFeatureCount() && query.getFeatureIndexAt(i) < numColumns; i++ ){
+			q[query.getFeatureIndexAt(i)] = query.getFeatureValueAt(i);
+		}
+
+		Search querySearch = querySearches.get();
+		int node = entryPoint;
+
+		for( int level = maxLevel; level > 0; level-- ){
+			node = searchGreedy(querySearch, q, 0, node, level);
+		}
+
+		querySearch.found[0] = node;
+		int count = searchLevel(querySearch, q, 0, 1, Math.max(efSearch, k), 0);
+
+		int[] neighbors = new int[Math.min(k, count)];
+		System.arraycopy(querySearch.found, 0, neighbors, 0, neighbors.length);
+		return neighbors;
+	}
+
+	/**
+	 * Insert all of the nodes, the first on its own and the rest from
+	 * numThreads threads
+	 */
+	private void build(int numThreads){
+		if( numPoints == 0 ){
+			return;
+		}
+
+		insert(0, new Search());
+
+		final AtomicInteger next = new AtomicInteger(1);
+		int threads = Math.max(1, Math.min(numThreads, numPoints-1));
+
+		if( threads == 1 ){
+			Search search = new Search();
+
+			for( int node = 1; node < numPoints; node++ ){
+				insert(node, search);
+			}
+
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try{
+			ArrayList<Future<?>> workers = new ArrayList<Future<?>>();
+
+			for( int t = 0; t < threads; t++ ){
+				workers.add(executor.submit(() -> {
+					Search search = new Search();
+
+					for( int node = next.getAndIncrement(); node < numPoints; node = next.getAndIncrement() ){
+						insert(node, search);
+					}
+				}));
+			}
+
+			for( Future<?> worker: workers ){
+				worker.get();
+			}
+		}catch( InterruptedException e ){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while building the HNSW index", e);
+		}catch( ExecutionException e ){
+			throw new RuntimeException("Building the HNSW index failed", e.getCause());
+		}finally{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Link node into the graph
+	 */
+	private void insert(int node, Search search){
+		int level = levels[node];
+		int offset = node*numColumns;
+
+		// a node that will become the new entry point holds the lock until it's
+		// linked, so no other node gets the new top levels to itself
+		entryLock.lock();
+		boolean locked = true;
+
+		try{
+			int entry = entryPoint;
+			int top = maxLevel;
+
+			if( entry == -1 ){
+				entryPoint = node;
+				maxLevel = level;
+				return;
+			}
+
+			if( level <= top ){
+				entryLock.unlock();
+				locked = false;
+			}
+
+			for( int l = top; l > level; l-- ){
+				entry = searchGreedy(search, points, offset, entry, l);
+			}
+
+			search.found[0] = entry;
+			int numEntries = 1;
+
+			for( int l = Math.min(level, top); l >= 0; l-- ){
+				int count = searchLevel(search, points, offset, numEntries, efConstruction, l);
+				int numLinks = selectNeighbors(search.found, search.foundDistances, count, m, search.selected);
+
+				// other threads may already have linked their nodes to this one,
+				// so add to its links rather than replacing them
+				for( int i = 0; i < numLinks; i++ ){
+					link(node, search.selected[i], l, search);
+					link(search.selected[i], node, l, search);
+				}
+
+				// the closest found are where to start on the next level down
+				numEntries = count;
+			}
+
+			if( level > top ){
+				entryPoint = node;
+				maxLevel = level;
+			}
+		}finally{
+			if( locked ){
+				entryLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Add a link from node to newNode on level, dropping links (see
+	 * selectNeighbors) if node already has as many as it can
+	 */
+	private void link(int node, int newNode, int level, Search search){
+		synchronized( links[node] ){
+			int[] nodeLinks = links[node][level];
+			int count = nodeLinks[0];
+
+			if( count < nodeLinks.length-1 ){
+				nodeLinks[count+1] = newNode;
+				nodeLinks[0] = count+1;
+				return;
+			}
+
+			int[] candidates = search.linkCandidates;
+			double[] distances = search.linkDistances;
+
+			for( int i = 0; i < count; i++ ){
+				candidates[i] = nodeLinks[i+1];
+				distances[i] = getDistance(node, candidates[i]);
+			}
+
+			candidates[count] = newNode;
+			distances[count] = getDistance(node, newNode);
+			sortByDistance(candidates, distances, count+1);
+
+			nodeLinks[0] = selectNeighbors(candidates, distances, count+1, count, search.linkSelected);
+			System.arraycopy(search.linkSelected, 0, nodeLinks, 1, nodeLinks[0]);
+		}
+	}
+
+	/**
+	 * Pick up to max neighbors from candidates, keeping a candidate only if it's
+	 * closer to the node than to any neighbor already picked.  This spreads
+	 * the links out in different directions rather than all into the nearest
+	 * cluster.
+	 *
+	 * @param candidates the candidates, closest first
+	 * @param distances the distance from the node to each candidate
+	 * @param count the number of candidates
+	 * @param max the most neighbors to pick
+	 * @param selected filled with the neighbors picked
+	 * @return the number of neighbors picked
+	 */
+	private int selectNeighbors(int[] candidates, double[] distances, int count, int max, int[] selected){
+		int numSelected = 0;
+
+		for( int i = 0; i < count && numSelected < max; i++ ){
+			boolean keep = true;
+
+			for( int j = 0; j < numSelected && keep; j++ ){
+				keep = getDistance(candidates[i], selected[j]) >= distances[i];
+			}
+
+			if( keep ){
+				selected[numSelected++] = candidates[i];
+			}
+		}
+
+		return numSelected;
+	}
+
+	/**
+	 * Walk from node to whichever linked node is closest to the query until
+	 * none are closer
+	 *
+	 * @param data holds the query
+	 * @param offset where the query starts in data
+	 * @return the closest node found
+	 */
+	private int searchGreedy(Search search, double[] data, int offset, int node, int level){
+		double distance = getDistance(data, offset, node);
+		boolean changed = true;
+
+		while( changed ){
+			changed = false;
+			int count = search.copyLinks(node, level);
+
+			for( int i = 0; i < count; i++ ){
+				double d = getDistance(data, offset, search.neighbors[i]);
+
+				if( d < distance ){
+					distance = d;
+					node = search.neighbors[i];
+					changed = true;
+				}
+			}
+		}
+
+		return node;
+	}
+
+	/**
+	 * Best-first search of one level, starting from the first numEntries nodes
+	 * of search.found
+	 *
+	 * @param data holds the query
+	 * @param offset where the query starts in data
+	 * @param ef the number of closest nodes to keep
+	 * @return the number of nodes found; the nodes (closest first) and their
+	 * distances are in search.found and search.foundDistances
+	 */
+	private int searchLevel(Search search, double[] data, int offset, int numEntries, int ef, int level){
+		search.startVisit();
+		NeighborHeap results = search.getResults(ef);
+
+		for( int i = 0; i < numEntries; i++ ){
+			int node = search.found[i];
+
+			if( search.visit(node) ){
+				double d = getDistance(data, offset, node);
+				search.pushCandidate(node, d);
+				results.offer(node, d);
+			}
+		}
+
+		while( search.numCandidates > 0 ){
+			int node = search.candidates[0];
+			double distance = search.candidateDistances[0];
+			search.popCandidate();
+
+			// the closest candidate left can't improve the results
+			if( distance > results.getWorstDistance() ){
+				break;
+			}
+
+			int count = search.copyLinks(node, level);
+
+			for( int i = 0; i < count; i++ ){
+				int neighbor = search.neighbors[i];
+
+				if( search.visit(neighbor) ){
+					double d = getDistance(data, offset, neighbor);
+
+					if( d <= results.getWorstDistance() ){
+						search.pushCandidate(neighbor, d);
+						results.offer(neighbor, d);
+					}
+				}
+			}
+		}
+
+		return results.removeAll(search.found, search.foundDistances);
+	}
+
+	private double getDistance(double[] data, int offset, int node){
+		return VectorMath.squaredDistance(data, offset, points, node*numColumns, numColumns);
+	}
+
+	private double getDistance(int node1, int node2){
+		return getDistance(points, node1*numColumns, node2);
+	}
+
+	private int getMaxLinks(int level){
+		return level == 0 ? 2*m : m;
+	}
+
+	/**
+	 * Sort the first count candidates by distance (there are only ever a few,
+	 * so an insertion sort)
+	 */
+	private static void sortByDistance(int[] candidates, double[] distances, int count){
+		for( int i = 1; i < count; i++ ){
+			int candidate = candidates[i];
+			double distance = distances[i];
+			int j = i - 1;
+
+			while( j >= 0 && distances[j] > distance ){
+				candidates[j+1] = candidates[j];
+				distances[j+1] = distances[j];
+				j--;
+			}
+
+			candidates[j+1] = candidate;
+			distances[j+1] = distance;
+		}
+	}
+
+	/**
+	 * The buffers used by one thread's searches
+	 */
+	private class Search {
+		// visited[node] == visitMark if node has been seen by the current search
+		private int[] visited = new int[numPoints];
+		private int visitMark = 0;
+
+		// a min-heap of the nodes still to expand
+		private int[] candidates = new int[64];
+		private double[] candidateDistances = new double[64];
+		private int numCandidates = 0;
+
+		private NeighborHeap results;
+		private int resultsSize = -1;
+		private int[] found = new int[Math.max(efConstruction, 1)];
+		private double[] foundDistances = new double[found.length];
+
+		private int[] neighbors = new int[2*m];
+		private int[] selected = new int[m];
+		private int[] linkSelected = new int[2*m];
+		private int[] linkCandidates = new int[2*m + 1];
+		private double[] linkDistances = new double[2*m + 1];
+
+		private void startVisit(){
+			visitMark++;
+			numCandidates = 0;
+		}
+
+		/**
+		 * @return whether node hadn't been visited yet
+		 */
+		private boolean visit(int node){
+			if( visited[node] == visitMark ){
+				return false;
+			}
+
+			visited[node] = visitMark;
+			return true;
+		}
+
+		private NeighborHeap getResults(int size){
+			if( size != resultsSize ){
+				results = new NeighborHeap(size);
+				resultsSize = size;
+			}
+
+			if( size > found.length ){
+				found = Arrays.copyOf(found, size);
+				foundDistances = new double[size];
+			}
+
+			return results;
+		}
+
+		/**
+		 * Copy the links of node on level into neighbors
+		 *
+		 * @return the number of links
+		 */
+		private int copyLinks(int node, int level){
+			synchronized( links[node] ){
+				int[] nodeLinks = links[node][level];
+				System.arraycopy(nodeLinks, 1, neighbors, 0, nodeLinks[0]);
+				return nodeLinks[0];
+			}
+		}
+
+		private void pushCandidate(int node, double distance){
+			if( numCandidates == candidates.length ){
+				candidates = Arrays.copyOf(candidates, 2*numCandidates);
+				candidateDistances = Arrays.copyOf(candidateDistances, 2*numCandidates);
+			}
+
+			int i = numCandidates++;
+
+			while( i > 0 && candidateDistances[(i-1)/2] > distance ){
+				candidates[i] = candidates[(i-1)/2];
+				candidateDistances[i] = candidateDistances[(i-1)/2];
+				i = (i-1)/2;
+			}
+
+			candidates[i] = node;
+			candidateDistances[i] = distance;
+		}
+
+		private void popCandidate(){
+			numCandidates--;
+			int node = candidates[numCandidates];
+			double distance = candidateDistances[numCandidates];
+			int i = 0;
+
+			while( 2*i + 1 < numCandidates ){
+				int child = 2*i + 1;
+
+				if( child + 1 < numCandidates && candidateDistances[child+1] < candidateDistances[child] ){
+					child++;
+				}
+
+				if( candidateDistances[child] >= distance ){
+					break;
+				}
+
+				candidates[i] = candidates[child];
+				candidateDistances[i] = candidateDistances[child];
+				i = child;
+			}
+
+			candidates[i] = node;
+			candidateDistances[i] = distance;
+		}
+	}
+}
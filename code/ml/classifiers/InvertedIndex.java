@@ -0,0 +1,195 @@
+package ml.classifiers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import ml.data.Example;
+
+/**
+ * An exact index over sparse training data (e.g. word counts) that finds the
+ * nearest neighbors using ||a||^2 + ||b||^2 - 2a.b.  For each feature it keeps
+ * a posting list of the training examples where the feature isn't zero, so
+ * the dot products with a query are added up from the postings of the query's
+ * features only, and training examples that share no features with the query
+ * are never visited one at a time.
+ *
+ * The distance to an example with no features in common is just the sum of
+ * the squared norms, so those examples are considered in order of their norm
+ * and the search stops as soon as the next one is farther than the kth
+ * closest neighbor found so far.  A query therefore takes time proportional
+ * to the length of the posting lists it touches rather than to the number of
+ * training examples.
+ *
+ * Each thread searching the index gets its own buffers, which it reuses
+ * between its queries, so an index can be searched from several threads at
+ * once.
+ */
+class InvertedIndex implements NeighborIndex {
+	private int numPoints;
+	private int numFeatures;
+
+	// the postings of feature f are at postingStarts[f] to postingStarts[f+1]-1,
+	// in order of training position
+	private int[] postingStarts;
+	private int[] postingRows;
+	private double[] postingValues;
+
+	private double[] norms; // the squared norm of each training example
+	private int[] byNorm; // the training positions ordered by norm (then position)
+
+	// the buffers of the thread searching
+	private ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(() -> new Buffers());
+
+	/**
+	 * @param examples the training examples
+	 */
+	public InvertedIndex(ArrayList<Example> examples){
+		numPoints = examples.size();
+		norms = new double[numPoints];
+		int numPostings = 0;
+
+		for( int i = 0; i < numPoints; i++ ){
+			Example e = examples.get(i);
+			norms[i] = e.getSquaredNorm();
+			numPostings += e.getFeatureCount();
+
+			if( e.getFeatureCount() > 0 ){
+				numFeatures = Math.max(numFeatures, e.getFeatureIndexAt(e.getFeatureCount()-1) + 1);
+			}
+		}
+
+		// count the postings of each feature, then fill them in
+		postingStarts = new int[numFeatures+1];
+
+		for( Example e: examples ){
+			for( int j = 0; j < e.getFeatureCount(); j++ ){
+				postingStarts[e.getFeatureIndexAt(j)+1]++;
+			}
+		}
+
+		for( int f = 0; f < numFeatures; f++ ){
+			postingStarts[f+1] += postingStarts[f];
+		}
+
+		int[] next = Arrays.copyOf(postingStarts, numFeatures);
+		postingRows = new int[numPostings];
+		postingValues = new double[numPostings];
+
+		for( int i = 0; i < numPoints; i++ ){
+			Example e = examples.get(i);
+
+			for( int j = 0; j < e.getFeatureCount(); j++ ){
+				int posting = next[e.getFeatureIndexAt(j)]++;
+				postingRows[posting] = i;
+				postingValues[posting] = e.getFeatureValueAt(j);
+			}
+		}
+
+		Integer[] order = new Integer[numPoints];
+
+		for( int i = 0; i < numPoints; i++ ){
+			order[i] = i;
+		}
+
+		Arrays.sort(order, new Comparator<Integer>(){
+			public int compare(Integer i1, Integer i2){
+				int result = Double.compare(norms[i1], norms[i2]);
+				return result != 0 ? result : Integer.compare(i1, i2);
+			}
+		});
+
+		byNorm = new int[numPoints];
+
+		for( int i = 0; i < numPoints; i++ ){
+			byNorm[i] = order[i];
+		}
+	}
+
+	@Override
+	public int[] search(Example query, int k){
+		Buffers b = buffers.get();
+		double[] dots = b.dots;
+		boolean[] touched = b.touched;
+		int[] touchedRows = b.touchedRows;
+		NeighborHeap heap = b.getHeap(k);
+
+		// add up the dot products with every example that shares a feature
+		int numTouched = 0;
+
+		for( int i = 0; i < query.getFeatureCount() && query.getFeatureIndexAt(i) < numFeatures; i++ ){
+			int feature = query.getFeatureIndexAt(i);
+			double value = query.getFeatureValueAt(i);
+
+			for( int posting = postingStarts[feature]; posting < postingStarts[feature+1]; posting++ ){
+				int row = postingRows[posting];
+
+				if( !touched[row] ){
+					touched[row] = true;
+					touchedRows[numTouched++] = row;
+				}
+
+				dots[row] += value*postingValues[posting];
+			}
+		}
+
+		// features the training data doesn't have still count towards the
+		// query's norm
+		double queryNorm = query.getSquaredNorm();
+
+		for( int i = 0; i < numTouched; i++ ){
+			int row = touchedRows[i];
+
+			// rounding can make the distance to an identical example slightly negative
+			heap.offer(row, Math.max(0.0, queryNorm + norms[row] - 2*dots[row]));
+		}
+
+		// the rest are only as close as their norms allow
+		for( int i = 0; i < numPoints; i++ ){
+			int row = byNorm[i];
+
+			if( touched[row] ){
+				continue;
+			}
+
+			double dist = queryNorm + norms[row];
+
+			// the examples after this one are at least as far
+			if( heap.isFull() && dist > heap.getWorstDistance() ){
+				break;
+			}
+
+			heap.offer(row, dist);
+		}
+
+		for( int i = 0; i < numTouched; i++ ){
+			dots[touchedRows[i]] = 0.0;
+			touched[touchedRows[i]] = false;
+		}
+
+		return heap.removeAll();
+	}
+
+	/**
+	 * The buffers one thread reuses between its queries
+	 */
+	private class Buffers {
+		private double[] dots = new double[numPoints]; // the dot product with each example
+		private boolean[] touched = new boolean[numPoints]; // whether an example shares a feature
+		private int[] touchedRows = new int[numPoints];
+		private NeighborHeap heap;
+		private int heapK = -1;
+
+		/**
+		 * @return an empty heap for k neighbors
+		 */
+		private NeighborHeap getHeap(int k){
+			if( heapK != k ){
+				heap = new NeighborHeap(k);
+				heapK = k;
+			}
+
+			return heap;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package ml.classifiers;
+
+import ml.data.DenseMatrix;
+
+/**
+ * An exact k-d tree over dense training data.  Each node splits its examples
+ * with an axis-aligned plane, and a search only looks on the far side of a
+ * plane if the plane is closer than the kth closest neighbor found so far.
+ * This prunes most of the tree when there are few features (the usual rule
+ * of thumb is many more examples than 2^features), so queries take roughly
+ * logarithmic rather than linear time.
+ */
+class KDTree extends DenseTreeIndex {
+	// KNNClassifier uses a BallTree for data with more features than this
+	public static final int MAX_DIMENSIONS = 16;
+
+	private int[] splitDimensions;
+	private double[] splitValues;
+
+	/**
+	 * @param matrix the training data
+	 * @param rows the rows of matrix in the training data (see
+	 * DataSet.getMatrixRows)
+	 */
+	public KDTree(DenseMatrix matrix, int[] rows){
+		super(matrix, rows);
+		splitDimensions = new int[getMaxNodes()];
+		splitValues = new double[getMaxNodes()];
+		buildTree();
+	}
+
+	@Override
+	protected void describe(int node, int start, int end){
+		// the splits are all that's needed
+	}
+
+	@Override
+	protected void split(int node, int dimension, double value){
+		splitDimensions[node] = dimension;
+		splitValues[node] = value;
+	}
+
+	@Override
+	protected void search(int node, double[] query, NeighborHeap heap){
+		if( lefts[node] == -1 ){
+			scanLeaf(node, query, heap);
+			return;
+		}
+
+		// the left side has values <= the split value and the right >=
+		double diff = query[splitDimensions[node]] - splitValues[node];
+		int near = diff <= 0 ? lefts[node] : rights[node];
+		int far = diff <= 0 ? rights[node] : lefts[node];
+
+		search(near, query, heap);
+
+		// examples at the same distance as the kth closest can still win the
+		// tie, so only skip planes that are strictly farther
+		if( diff*diff <= heap.getWorstDistance() ){
+			search(far, query, heap);
+		}
+	}
+}
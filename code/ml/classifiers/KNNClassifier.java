@@ -1,27 +1,95 @@
 package ml.classifiers;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.PriorityQueue;
+import java.util.Arrays;
 
 import ml.data.DataSet;
+import ml.data.DenseMatrix;
 import ml.data.Example;
-import ml.utils.HashMapCounter;
+import ml.data.LabelDictionary;
 
 /**
  * k-NN classifier based on euclidean distance.
  * 
+ * For dense training data, train builds an index of the examples (a KDTree
+ * for up to KDTree.MAX_DIMENSIONS features and a BallTree for more) that finds
+ * the exact k nearest neighbors without comparing to every training example.
+ * 
+ * For sparse training data (e.g. word counts), it builds an InvertedIndex
+ * instead, which only visits the training examples that share features with
+ * the query.
+ * 
+ * Training only reads the data set, and classifying doesn't change a trained
+ * classifier (each thread keeps its own search buffers), so a trained
+ * classifier can classify from several threads at once (though not while
+ * examples are being added).
+ * 
+ * Two approximate indexes, which find most (but not necessarily all) of the
+ * nearest neighbors much faster on large data sets, can be chosen with
+ * setIndex:
+ * 
+ * - HNSW_INDEX builds an HNSWIndex over dense training data.  M,
+ *   efConstruction and efSearch trade speed for recall (see KNNTimer for
+ *   comparing settings).  Sparse training data uses the exact InvertedIndex.
+ * - LSH_INDEX builds an LSHIndex, meant for text normalized with
+ *   ExampleNormalizer.  The number of tables and bits per table trade speed
+ *   for recall.  Unlike the others, examples can be added to it with add
+ *   after training.
+ * 
  * @author dkauchak
  *
  */
-public class KNNClassifier implements Classifier {
-	private DataSet train;
+public class KNNClassifier implements RandomizedClassifier {
+	// constants for the different neighbor indexes
+	public static final int EXACT_INDEX = 0;
+	public static final int HNSW_INDEX = 1;
+	public static final int LSH_INDEX = 2;
+	
 	private int k = 5;
 	
+	// the label id (see DataSet.getLabelIds) of each training example and the
+	// label for each id.  trainLabels can have room for examples to be added.
+	private int[] trainLabels;
+	private double[] labels;
+	private LabelDictionary labelDictionary; // only once examples are added
+	
+	private int indexType = EXACT_INDEX;
+	private NeighborIndex index;
+	
+	// the HNSW index settings
+	private int m = 16;
+	private int efConstruction = 200;
+	private int efSearch = 50;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	
+	// the LSH index settings
+	private int numTables = 16;
+	private int numBits = 8;
+	
+	private long seed = System.nanoTime();
+	
 	@Override
 	public void train(DataSet data) {
-		train = data;
-		// done!
+		trainLabels = data.getLabelIds().clone();
+		labels = data.getLabelDictionary().getLabels();
+		labelDictionary = null;
+		
+		// the indexes other than the LSH index keep their own copy of the examples
+		if( indexType == LSH_INDEX ){
+			index = new LSHIndex(data.getData(), numTables, numBits, seed);
+		}else if( data.isDense() ){
+			DenseMatrix matrix = data.getDenseData();
+			
+			if( indexType == HNSW_INDEX ){
+				index = new HNSWIndex(matrix, data.getMatrixRows(), m, efConstruction, efSearch, seed, numThreads);
+			}else if( matrix.getNumColumns() <= KDTree.MAX_DIMENSIONS ){
+				index = new KDTree(matrix, data.getMatrixRows());
+			}else{
+				index = new BallTree(matrix, data.getMatrixRows());
+			}
+		}else{
+			index = new InvertedIndex(data.getData());
+		}
 	}
 
 	@Override
@@ -44,52 +112,39 @@ public class KNNClassifier implements Classifier {
 	 *  and the second is the proportion of closest examples that were that label
 	 */
 	private double[] getLabel(Example example){
-		ArrayList<ScoredExample> distances = new ArrayList<ScoredExample>();
+		int[] neighbors = getNeighbors(example);
 		
-		for( Example e: train.getData() ){
-			distances.add(new ScoredExample(e, getDistance(example, e)));
+		if( neighbors.length == 0 ){
+			throw new IllegalStateException("There are no training examples to classify with");
 		}
 		
-		Collections.sort(distances);
-		
-		HashMapCounter<Double> counter = new HashMapCounter<Double>();
+		int[] counts = new int[labels.length];
 		
-		for( int i = 0; i < k; i++ ){
-			counter.increment(distances.get(i).e.getLabel());
+		for( int neighbor: neighbors ){
+			counts[trainLabels[neighbor]]++;
 		}
 		
-		double maxCount = -1;
-		double maxPrediction = 0.0;
+		int maxLabel = 0;
 		
-		for( Double d: counter.keySet() ){
-			int count = counter.get(d);
-			
-			if( count > maxCount ){
-				maxCount = count;
-				maxPrediction = d;
+		for( int label = 1; label < counts.length; label++ ){
+			if( counts[label] > counts[maxLabel] ){
+				maxLabel = label;
 			}
 		}
 		
 		double[] temp = new double[2];
-		temp[0] = maxPrediction;
-		temp[1] = maxCount/(double)k;
+		temp[0] = labels[maxLabel];
+		temp[1] = counts[maxLabel]/(double)neighbors.length;
 		return temp;
 	}
 	
 	/**
-	 * @param e1
-	 * @param e2
-	 * @return the distance between the two examples
+	 * @param example
+	 * @return the positions in the training data of the k nearest neighbors of
+	 * example, closest first
 	 */
-	private double getDistance(Example e1, Example e2){
-		double dist = 0.0;
-		
-		for( Integer featureNum: train.getAllFeatureIndices() ){
-			double diff = e1.getFeature(featureNum) - e2.getFeature(featureNum);
-			dist += diff*diff;
-		}
-		
-		return Math.sqrt(dist);
+	int[] getNeighbors(Example example){
+		return index.search(example, k);
 	}
 	
 	/**
@@ -100,32 +155,134 @@ public class KNNClassifier implements Classifier {
 	public void setK(int k){
 		this.k = k;
 	}
-
+	
 	/**
-	 * Comparable class for sorting examples in increasing order
+	 * Add an example to the training data without training again.  Only
+	 * possible with the LSH index; if the classifier hasn't been trained, this
+	 * starts with no training data.
+	 * 
+	 * @param example
 	 */
-	private class ScoredExample implements Comparable<ScoredExample>{
-		public double distance;
-		public Example e;
+	public void add(Example example){
+		if( index == null && indexType == LSH_INDEX ){
+			index = new LSHIndex(new ArrayList<Example>(), numTables, numBits, seed);
+			trainLabels = new int[0];
+			labels = new double[0];
+		}
 		
-		public ScoredExample(Example e, double distance){
-			this.e = e;
-			this.distance = distance;
+		if( !(index instanceof LSHIndex) ){
+			throw new IllegalStateException("Examples can only be added to an LSH index");
 		}
-
-		@Override
-		public int compareTo(ScoredExample o) {
-			// we want smallest first (i.e. closest distances)
-			return Double.compare(distance, o.distance);
+		
+		if( labelDictionary == null ){
+			// the same ids as the training data
+			labelDictionary = new LabelDictionary();
+			
+			for( double label: labels ){
+				labelDictionary.addLabel(label);
+			}
+		}
+		
+		LSHIndex lsh = (LSHIndex)index;
+		int position = lsh.size();
+		
+		if( position == trainLabels.length ){
+			trainLabels = Arrays.copyOf(trainLabels, Math.max(16, 2*position));
+		}
+		
+		trainLabels[position] = labelDictionary.addLabel(example.getLabel());
+		
+		if( trainLabels[position] == labels.length ){
+			labels = labelDictionary.getLabels();
+		}
+		
+		lsh.add(example);
+	}
+	
+	/**
+	 * Choose the index used to find the neighbors: EXACT_INDEX (the default),
+	 * HNSW_INDEX or LSH_INDEX.  Takes effect the next time the classifier is
+	 * trained.
+	 * 
+	 * @param indexType
+	 */
+	public void setIndex(int indexType){
+		if( indexType == HNSW_INDEX || indexType == LSH_INDEX ){
+			this.indexType = indexType;
+		}else{
+			this.indexType = EXACT_INDEX;
 		}
 	}
+	
+	/**
+	 * Set the number of links per example in the HNSW index (defaults
+	 * to 16).  More links give better recall but take longer to build and
+	 * search.
+	 * 
+	 * @param m
+	 */
+	public void setM(int m){
+		this.m = m;
+	}
+	
+	/**
+	 * Set the number of candidate neighbors considered when adding an example
+	 * to the HNSW index (defaults to 200)
+	 * 
+	 * @param efConstruction
+	 */
+	public void setEfConstruction(int efConstruction){
+		this.efConstruction = efConstruction;
+	}
+	
+	/**
+	 * Set the number of candidate neighbors the HNSW index considers
+	 * for each query (defaults to 50, at least k are always considered).  This
+	 * can be changed after training.
+	 * 
+	 * @param efSearch
+	 */
+	public void setEfSearch(int efSearch){
+		this.efSearch = efSearch;
+		
+		if( index instanceof HNSWIndex ){
+			((HNSWIndex)index).setEfSearch(efSearch);
+		}
+	}
+	
+	/**
+	 * Set the number of threads used to build the HNSW index (defaults
+	 * to the number of processors)
+	 * 
+	 * @param numThreads
+	 */
+	public void setNumThreads(int numThreads){
+		this.numThreads = numThreads;
+	}
+	
+	/**
+	 * Set the number of hash tables in the LSH index (defaults to 16).  More
+	 * tables find more of the neighbors but give more candidates to check.
+	 * 
+	 * @param numTables
+	 */
+	public void setNumTables(int numTables){
+		this.numTables = numTables;
+	}
+	
+	/**
+	 * Set the number of hyperplanes per hash table in the LSH index (defaults
+	 * to 8, at most 30).  More bits make the buckets smaller, so there are
+	 * fewer candidates to check but fewer of the neighbors are found.
+	 * 
+	 * @param numBits
+	 */
+	public void setNumBits(int numBits){
+		this.numBits = numBits;
+	}
+	
+	@Override
+	public void setSeed(long seed){
+		this.seed = seed;
+	}
 }
-
-
-
-
-
-
-
-
-
@@ -0,0 +1,180 @@
+package ml.classifiers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import ml.data.DataSet;
+import ml.data.DataSetSplit;
+import ml.data.Example;
+
+/**
+ * Compares the approximate (HNSW) KNNClassifier with the exact one: for each
+ * efSearch, the fraction of the exact k nearest neighbors it finds (recall),
+ * how often its label agrees with the exact classifier's, and the average
+ * time per query.
+ *
+ * Without arguments the examples are random clusters (written to a temporary
+ * CSV file so the data set is dense); otherwise the first argument is a CSV
+ * file.
+ */
+public class KNNTimer {
+	/**
+	 * Time finding the neighbors of each example, averaged over the examples
+	 *
+	 * @param classifier a trained classifier
+	 * @param examples
+	 * @param neighbors filled with the neighbors of each example
+	 * @return the average time in microseconds
+	 */
+	public static double timeQueries(KNNClassifier classifier, ArrayList<Example> examples, int[][] neighbors){
+		long start = System.nanoTime();
+
+		for( int i = 0; i < examples.size(); i++ ){
+			neighbors[i] = classifier.getNeighbors(examples.get(i));
+		}
+
+		return (System.nanoTime() - start)/1e3/examples.size();
+	}
+
+	/**
+	 * @param exact
+	 * @param approximate
+	 * @return the fraction of the neighbors in exact that are in approximate
+	 */
+	private static double recall(int[][] exact, int[][] approximate){
+		long found = 0;
+		long total = 0;
+
+		for( int i = 0; i < exact.length; i++ ){
+			HashSet<Integer> neighbors = new HashSet<Integer>();
+
+			for( int neighbor: approximate[i] ){
+				neighbors.add(neighbor);
+			}
+
+			for( int neighbor: exact[i] ){
+				if( neighbors.contains(neighbor) ){
+					found++;
+				}
+			}
+
+			total += exact[i].length;
+		}
+
+		return ((double)found)/total;
+	}
+
+	/**
+	 * @return the fraction of examples the two classifiers give the same label
+	 */
+	private static double agreement(KNNClassifier exact, KNNClassifier approximate, ArrayList<Example> examples){
+		int same = 0;
+
+		for( Example e: examples ){
+			if( exact.classify(e) == approximate.classify(e) ){
+				same++;
+			}
+		}
+
+		return ((double)same)/examples.size();
+	}
+
+	/**
+	 * Write numExamples random examples around numClusters centers to a CSV
+	 * file, labeled by their cluster
+	 *
+	 * @return the file
+	 */
+	private static File writeClusters(int numExamples, int numFeatures, int numClusters, long seed) throws IOException{
+		Random random = new Random(seed);
+		double[][] centers = new double[numClusters][numFeatures];
+
+		for( double[] center: centers ){
+			for( int f = 0; f < numFeatures; f++ ){
+				center[f] = random.nextGaussian()*3;
+			}
+		}
+
+		File file = File.createTempFile("knn", ".csv");
+		file.deleteOnExit();
+		PrintWriter out = new PrintWriter(file);
+
+		for( int f = 0; f < numFeatures; f++ ){
+			out.print("f" + f + ",");
+		}
+
+		out.println("label");
+
+		for( int i = 0; i < numExamples; i++ ){
+			int cluster = random.nextInt(numClusters);
+			StringBuilder line = new StringBuilder();
+
+			for( int f = 0; f < numFeatures; f++ ){
+				line.append((float)(centers[cluster][f] + random.nextGaussian())).append(",");
+			}
+
+			out.println(line.append(cluster % 2));
+		}
+
+		out.close();
+		return file;
+	}
+
+	public static void main(String[] args) throws IOException{
+		String file;
+
+		if( args.length > 0 ){
+			file = args[0];
+		}else{
+			file = writeClusters(200000, 32, 100, 0).getPath();
+		}
+
+		int k = 10;
+		int numQueries = 1000;
+		int[] efSearches = {10, 20, 40, 80, 160, 320};
+
+		DataSet dataset = new DataSet(file, DataSet.CSVFILE);
+		DataSetSplit split = dataset.split(1 - ((double)numQueries)/dataset.getData().size());
+		ArrayList<Example> queries = split.getTest().getData();
+
+		KNNClassifier exact = new KNNClassifier();
+		exact.setK(k);
+		long start = System.currentTimeMillis();
+		exact.train(split.getTrain());
+		long exactTrainTime = System.currentTimeMillis() - start;
+
+		KNNClassifier approximate = new KNNClassifier();
+		approximate.setK(k);
+		approximate.setIndex(KNNClassifier.HNSW_INDEX);
+		approximate.setSeed(0);
+		start = System.currentTimeMillis();
+		approximate.train(split.getTrain());
+		long approximateTrainTime = System.currentTimeMillis() - start;
+
+		int[][] exactNeighbors = new int[queries.size()][];
+		int[][] approximateNeighbors = new int[queries.size()][];
+
+		// warm up
+		timeQueries(exact, queries, exactNeighbors);
+		timeQueries(approximate, queries, approximateNeighbors);
+
+		System.out.println(split.getTrain().getData().size() + " examples, " + queries.size() + " queries, k = " + k);
+		System.out.println("exact: built in " + exactTrainTime/1000.0 + "s, " +
+				timeQueries(exact, queries, exactNeighbors) + "us per query");
+		System.out.println("HNSW: built in " + approximateTrainTime/1000.0 + "s");
+		System.out.println("efSearch\trecall\tagreement\tus per query");
+
+		for( int efSearch: efSearches ){
+			approximate.setEfSearch(efSearch);
+			timeQueries(approximate, queries, approximateNeighbors);
+			double time = timeQueries(approximate, queries, approximateNeighbors);
+
+			System.out.println(efSearch + "\t" + recall(exactNeighbors, approximateNeighbors) + "\t" +
+					agreement(exact, approximate, queries) + "\t" + time);
+		}
+	}
+}
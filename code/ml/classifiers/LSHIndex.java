@@ -0,0 +1,347 @@
+package ml.classifiers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import ml.data.Example;
+import ml.utils.VectorMath;
+
+/**
+ * An approximate index using locality sensitive hashing with random
+ * hyperplanes (signed random projections, Charikar).  Each of numTables hash
+ * tables gets numBits random hyperplanes, and an example's bucket in a table
+ * is which side of each hyperplane it's on.  Two examples land on the same
+ * side of a random hyperplane with probability 1 - angle/pi, so examples
+ * with a small angle between them (a high cosine similarity) tend to share
+ * buckets.  The examples in the query's buckets are the candidates, which
+ * are then ranked by their exact distance to the query; if that gives fewer
+ * than k, the buckets that differ from the query's in one bit are tried too,
+ * and if there are still fewer than k, all of the examples are.
+ *
+ * The ranking is by euclidean distance like the other indexes, which for
+ * examples of length one (see ExampleNormalizer) is the same as ranking by
+ * cosine similarity.
+ *
+ * Unlike the other indexes, examples can be added after the index is built,
+ * at the cost of hashing just the new example.  The hyperplanes are
+ * generated from the seed one feature at a time as features are added, so
+ * new examples can have features the original ones didn't.  Searching
+ * doesn't change the index: query features that no example has are left out
+ * of the query's hash, since every example is 0 there.
+ *
+ * The index keeps its own copy of each example, like the exact indexes, so
+ * changing an example after adding it doesn't affect the index.  Each thread
+ * searching the index gets its own buffers, so an index can be searched from
+ * several threads at once, but not while an example is being added.
+ */
+class LSHIndex implements NeighborIndex {
+	private int numTables;
+	private int numBits;
+	private long seed;
+
+	private ArrayList<Example> examples = new ArrayList<Example>();
+	private double[] norms = new double[16]; // the squared norm of each example
+	private int numFeatures = 0; // one more than the largest feature index of any example
+
+	// the positions of the examples in each bucket of each table, by signature
+	private ArrayList<HashMap<Integer, Bucket>> tables = new ArrayList<HashMap<Integer, Bucket>>();
+
+	// planes[f] holds the value of feature f for all of the hyperplanes, table
+	// by table (null until an example with feature f has been added)
+	private double[][] planes = new double[0][];
+
+	// the buffers of the thread searching (or adding)
+	private ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(() -> new Buffers());
+
+	/**
+	 * @param examples the training examples
+	 * @param numTables the number of hash tables
+	 * @param numBits the number of hyperplanes (bits of the signature) per
+	 * table, at most 30
+	 * @param seed for generating the hyperplanes
+	 */
+	public LSHIndex(ArrayList<Example> examples, int numTables, int numBits, long seed){
+		if( numTables < 1 ){
+			throw new IllegalArgumentException("There must be at least one table: " + numTables);
+		}
+
+		if( numBits < 1 || numBits > 30 ){
+			throw new IllegalArgumentException("The number of bits must be between 1 and 30: " + numBits);
+		}
+
+		this.numTables = numTables;
+		this.numBits = numBits;
+		this.seed = seed;
+
+		for( int t = 0; t < numTables; t++ ){
+			tables.add(new HashMap<Integer, Bucket>());
+		}
+
+		for( Example e: examples ){
+			add(e);
+		}
+	}
+
+	/**
+	 * Add a copy of an example to the index.  Its position is the number of
+	 * examples added before it.
+	 *
+	 * @param example
+	 */
+	public void add(Example example){
+		example = new Example(example);
+		int position = examples.size();
+		examples.add(example);
+
+		if( position == norms.length ){
+			norms = Arrays.copyOf(norms, 2*position);
+		}
+
+		norms[position] = example.getSquaredNorm();
+		int[] signatures = hash(example, true, buffers.get());
+
+		for( int t = 0; t < numTables; t++ ){
+			Bucket bucket = tables.get(t).get(signatures[t]);
+
+			if( bucket == null ){
+				bucket = new Bucket();
+				tables.get(t).put(signatures[t], bucket);
+			}
+
+			bucket.add(position);
+		}
+
+		if( example.getFeatureCount() > 0 ){
+			numFeatures = Math.max(numFeatures, example.getFeatureIndexAt(example.getFeatureCount()-1) + 1);
+		}
+	}
+
+	/**
+	 * @return the number of examples in the index
+	 */
+	public int size(){
+		return examples.size();
+	}
+
+	@Override
+	public int[] search(Example example, int k){
+		Buffers b = buffers.get();
+		NeighborHeap heap = b.getHeap(k);
+		double[] query = b.getQuery();
+		b.startVisit();
+		int[] signatures = hash(example, false, b);
+		int numCandidates = 0;
+
+		for( int t = 0; t < numTables; t++ ){
+			numCandidates = b.addCandidates(t, signatures[t], numCandidates);
+		}
+
+		// too few, so try the buckets next door
+		for( int bit = 0; bit < numBits && numCandidates < k; bit++ ){
+			for( int t = 0; t < numTables; t++ ){
+				numCandidates = b.addCandidates(t, signatures[t] ^ (1 << bit), numCandidates);
+			}
+		}
+
+		// still too few, so fall back to all of the examples
+		if( numCandidates < k ){
+			for( int position = 0; position < examples.size(); position++ ){
+				numCandidates = b.addCandidate(position, numCandidates);
+			}
+		}
+
+		for( int i = 0; i < example.getFeatureCount() && example.getFeatureIndexAt(i) < query.length; i++ ){
+			query[example.getFeatureIndexAt(i)] = example.getFeatureValueAt(i);
+		}
+
+		double queryNorm = example.getSquaredNorm();
+
+		for( int i = 0; i < numCandidates; i++ ){
+			int candidate = b.candidates[i];
+
+			// rounding can make the distance to an identical example slightly negative
+			double dist = queryNorm + norms[candidate] - 2*examples.get(candidate).dot(query);
+			heap.offer(candidate, Math.max(0.0, dist));
+		}
+
+		for( int i = 0; i < example.getFeatureCount() && example.getFeatureIndexAt(i) < query.length; i++ ){
+			query[example.getFeatureIndexAt(i)] = 0.0;
+		}
+
+		return heap.removeAll();
+	}
+
+	/**
+	 * Calculate the signature of example in each table
+	 *
+	 * @param example
+	 * @param add whether example is being added, in which case hyperplane
+	 * values are generated for its new features; otherwise they're skipped
+	 * @param b the buffers of the calling thread
+	 * @return the signatures (in b, so only until the next call)
+	 */
+	private int[] hash(Example example, boolean add, Buffers b){
+		double[] projections = b.projections;
+		int[] signatures = b.signatures;
+		Arrays.fill(projections, 0.0);
+
+		for( int i = 0; i < example.getFeatureCount(); i++ ){
+			int feature = example.getFeatureIndexAt(i);
+			double[] featurePlanes = add ? getPlanes(feature) : findPlanes(feature);
+
+			if( featurePlanes != null ){
+				VectorMath.axpy(example.getFeatureValueAt(i), featurePlanes, projections);
+			}
+		}
+
+		for( int t = 0; t < numTables; t++ ){
+			int signature = 0;
+
+			for( int bit = 0; bit < numBits; bit++ ){
+				if( projections[t*numBits + bit] > 0 ){
+					signature |= 1 << bit;
+				}
+			}
+
+			signatures[t] = signature;
+		}
+
+		return signatures;
+	}
+
+	/**
+	 * @return the value of feature for each of the hyperplanes, or null if no
+	 * example added so far has the feature
+	 */
+	private double[] findPlanes(int feature){
+		return feature < planes.length ? planes[feature] : null;
+	}
+
+	/**
+	 * @return the value of feature for each of the hyperplanes, generated the
+	 * first time the feature is added
+	 */
+	private double[] getPlanes(int feature){
+		if( feature >= planes.length ){
+			planes = Arrays.copyOf(planes, Math.max(feature+1, 2*planes.length));
+		}
+
+		if( planes[feature] == null ){
+			// the same for a feature however many other features have been seen
+			Random random = new Random(seed ^ (feature * 0x9E3779B97F4A7C15L));
+			planes[feature] = new double[numTables*numBits];
+
+			for( int i = 0; i < planes[feature].length; i++ ){
+				planes[feature][i] = random.nextGaussian();
+			}
+		}
+
+		return planes[feature];
+	}
+
+	/**
+	 * The buffers one thread reuses between its searches
+	 */
+	private class Buffers {
+		private double[] projections = new double[numTables*numBits];
+		private int[] signatures = new int[numTables];
+		private double[] query = new double[0]; // the query spread out by feature index, otherwise 0
+		private int[] visited = new int[16]; // visited[i] == visitMark if example i is a candidate
+		private int visitMark = 0;
+		private int[] candidates = new int[16];
+		private NeighborHeap heap;
+		private int heapK = -1;
+
+		/**
+		 * @return an empty heap for k neighbors
+		 */
+		private NeighborHeap getHeap(int k){
+			if( heapK != k ){
+				heap = new NeighborHeap(k);
+				heapK = k;
+			}
+
+			return heap;
+		}
+
+		/**
+		 * @return a buffer of zeros with room for every feature in the index
+		 */
+		private double[] getQuery(){
+			if( query.length < numFeatures ){
+				query = new double[Math.max(numFeatures, 2*query.length)];
+			}
+
+			return query;
+		}
+
+		/**
+		 * Start a new search with no candidates
+		 */
+		private void startVisit(){
+			if( visited.length < examples.size() ){
+				visited = new int[Math.max(examples.size(), 2*visited.length)];
+				visitMark = 0;
+			}
+
+			visitMark++;
+		}
+
+		/**
+		 * Add the examples in the bucket with signature in table that aren't
+		 * candidates yet to candidates
+		 *
+		 * @return the new number of candidates
+		 */
+		private int addCandidates(int table, int signature, int numCandidates){
+			Bucket bucket = tables.get(table).get(signature);
+
+			if( bucket == null ){
+				return numCandidates;
+			}
+
+			for( int i = 0; i < bucket.size; i++ ){
+				numCandidates = addCandidate(bucket.positions[i], numCandidates);
+			}
+
+			return numCandidates;
+		}
+
+		/**
+		 * Add the example at position to candidates if it isn't a candidate yet
+		 *
+		 * @return the new number of candidates
+		 */
+		private int addCandidate(int position, int numCandidates){
+			if( visited[position] != visitMark ){
+				visited[position] = visitMark;
+
+				if( numCandidates == candidates.length ){
+					candidates = Arrays.copyOf(candidates, 2*numCandidates);
+				}
+
+				candidates[numCandidates++] = position;
+			}
+
+			return numCandidates;
+		}
+	}
+
+	/**
+	 * The positions of the examples in one bucket
+	 */
+	private static class Bucket {
+		private int[] positions = new int[4];
+		private int size = 0;
+
+		private void add(int position){
+			if( size == positions.length ){
+				positions = Arrays.copyOf(positions, 2*size);
+			}
+
+			positions[size++] = position;
+		}
+	}
+}
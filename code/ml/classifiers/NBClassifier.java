@@ -3,7 +3,7 @@ package ml.classifiers;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Collections;
 import ml.data.CrossValidationSet;
@@ -12,6 +12,8 @@ import ml.data.DataSetSplit;
 import ml.data.Example;
 import ml.data.ExampleNormalizer;
 import ml.data.FeatureNormalizer;
+import ml.data.LabelDictionary;
+import ml.utils.IntIntCounter;
 
 /**
  * A classifier that implements the Naive Bayes machine learning algorithm.
@@ -23,10 +25,12 @@ import ml.data.FeatureNormalizer;
 public class NBClassifier implements Classifier {
     // lambda for smoothing
     private double lambda;
-    // the key is the label, the value is a hashmap of feature and count
-    private HashMap<Double, HashMap<Integer, Integer>> labelFeaturesCount = new HashMap<>();
-    // the key is the label, the value is the count of that label
-    private HashMap<Double, Integer> labelCount = new HashMap<>();
+    // the class ids of the labels (see DataSet.getLabelIds)
+    private LabelDictionary labels;
+    // indexed by label id, the count of each feature
+    private IntIntCounter[] labelFeaturesCount;
+    // indexed by label id, the count of that label
+    private int[] labelCount;
     // if true, should only use positive features
     private boolean usePosFeatures = false;
     private DataSet data;
@@ -66,8 +70,9 @@ public class NBClassifier implements Classifier {
     public void train(DataSet data) {
         // get all the examples from the data
         ArrayList<Example> examples = data.getData();
+        int[] labelIds = data.getLabelIds();
         this.data = data;
-        Collections.shuffle(examples);
+        this.labels = data.getLabelDictionary();
         ArrayList<Integer> numbers = new ArrayList<>();
         numbers.add(3);
         numbers.add(13);
@@ -77,50 +82,40 @@ public class NBClassifier implements Classifier {
         numbers.add(19);
         numbers.add(20);
 
-        // for all labels, create a 2 hashmaps, the count and feature count
-        for (Double label : data.getLabels()) {
-            // we want to add the label to label count and set the value to 0 for all labels
-            this.labelCount.put(label, 0);
-            // we want to add all the labels to the label features count
-            this.labelFeaturesCount.put(label, new HashMap<>());
+        // for all labels, create the count and feature count
+        this.labelCount = new int[labels.size()];
+        this.labelFeaturesCount = new IntIntCounter[labels.size()];
+
+        for (int label = 0; label < labels.size(); label++) {
+            this.labelFeaturesCount[label] = new IntIntCounter();
         }
 
         // for all examples, we want to update the label count and label features count
-        for (Example example : examples) {
+        for (int i = 0; i < examples.size(); i++) {
+            Example example = examples.get(i);
             // udpate label's counts
-            double currLabel = example.getLabel();
-            int currCount = this.labelCount.get(currLabel);
-            currCount += 1;
-            this.labelCount.put(currLabel, currCount);
+            int currLabel = labelIds[i];
+            this.labelCount[currLabel]++;
 
             // save features that appear with that label in that example
-            for (Integer feature : example.getFeatureSet()) {
-                HashMap<Integer, Integer> featureCount = this.labelFeaturesCount.get(currLabel);
-                // if feature is not in the hashmap
+            for (int j = 0; j < example.getFeatureCount(); j++) {
+                int feature = example.getFeatureIndexAt(j);
+                IntIntCounter featureCount = this.labelFeaturesCount[currLabel];
+                // skip the excluded features
                 if (!numbers.contains(feature)) {
-                    if (example.getFeature(feature) > 0) {
-                        if (!featureCount.containsKey(feature)) {
-                            featureCount.put(feature, 1);
-                        }
-
-                        // if feature is in the hashmap
-                        else {
-                            // if the value is not 0 for those features
+                    if (example.getFeatureValueAt(j) > 0) {
+                        // if the feature was already counted for this label
+                        if (featureCount.increment(feature) > 1) {
                             System.out.println("some count");
-                            int count = featureCount.get(feature);
-                            count += 1;
-                            featureCount.put(feature, count);
                         }
                     }
 
                 }
 
-                // update the hashmap of that label
-                this.labelFeaturesCount.put(currLabel, featureCount);
             }
         }
-        System.out.println("here is label count: " + labelCount);
-        System.out.println("here is label feature count: " + labelFeaturesCount);
+        System.out.println("here is label count: " + Arrays.toString(labelCount));
+        System.out.println("here is label feature count: " + Arrays.toString(labelFeaturesCount));
     }
 
     /**
@@ -132,12 +127,24 @@ public class NBClassifier implements Classifier {
      * @return
      */
     public double getLogProb(Example ex, double label) {
+        return getLogProbForId(ex, labels.getId(label));
+    }
+
+    /**
+     * Return the log base probabilty of the example with the label id under
+     * the current trained model
+     * 
+     * @param ex
+     * @param label the label id
+     * @return
+     */
+    private double getLogProbForId(Example ex, int label) {
         double labelProb;
         double logProb;
         double sum = 0.0;
 
         // how many times we see that label
-        double numerator = this.labelCount.get(label);
+        double numerator = this.labelCount[label];
 
         // how many examples we're working with
         float denominator = this.data.getData().size();
@@ -151,7 +158,7 @@ public class NBClassifier implements Classifier {
                 // if the feature is in the example
                 if (ex.getFeature(featureIndex) > 0) {
                     System.out.println("feature index: " + featureIndex);
-                    sum += Math.log10(getFeatureProb(featureIndex, label));
+                    sum += Math.log10(getFeatureProbForId(featureIndex, label));
                 }
             }
             System.out.println("Sum (for positive features only mode): " + sum);
@@ -163,12 +170,12 @@ public class NBClassifier implements Classifier {
 
                 // if the feature is in the example
                 if (ex.getFeatureSet().contains(featureIndex) && ex.getFeature(featureIndex) > 0) {
-                    sum += Math.log10(getFeatureProb(featureIndex, label));
+                    sum += Math.log10(getFeatureProbForId(featureIndex, label));
                 }
 
                 // if feature not in example
                 else {
-                    sum += Math.log10(1 - getFeatureProb(featureIndex, label));
+                    sum += Math.log10(1 - getFeatureProbForId(featureIndex, label));
                 }
             }
             logProb = Math.log10(labelProb) + sum;
@@ -184,17 +191,23 @@ public class NBClassifier implements Classifier {
      * @return
      */
     public double getFeatureProb(int featureIndex, double label) {
-        // obtain the hashmap of that label which contains the feature and count
-        HashMap<Integer, Integer> features = labelFeaturesCount.get(label);
-        double numeratorBeforeSmoothing = 0.0;
+        return getFeatureProbForId(featureIndex, labels.getId(label));
+    }
 
-        // if the feature is in the hashmap, get the count
-        if (features.containsKey(featureIndex)) {
-            numeratorBeforeSmoothing = features.get(featureIndex);
-        }
+    /**
+     * p(xi|y) for the label id
+     * 
+     * @param featureIndex
+     * @param label the label id
+     * @return
+     */
+    private double getFeatureProbForId(int featureIndex, int label) {
+        // obtain the counts of the features for that label (0 if the feature
+        // wasn't seen)
+        double numeratorBeforeSmoothing = labelFeaturesCount[label].get(featureIndex);
 
         // get the count of that label
-        double denominatorBeforeSmoothing = this.labelCount.get(label);
+        double denominatorBeforeSmoothing = this.labelCount[label];
 
         // smoothed probability
         return (numeratorBeforeSmoothing + this.lambda) / (denominatorBeforeSmoothing + (2 * this.lambda));
@@ -211,13 +224,18 @@ public class NBClassifier implements Classifier {
         double prediction = 0.0;
 
         // for all of the possible labels, we find probability for that example
-        for (Double label : data.getLabels()) {
-            double logProb = getLogProb(example, label);
+        for (int label = 0; label < labelCount.length; label++) {
+            // skip labels the dictionary has that weren't in the training data
+            if (labelCount[label] == 0) {
+                continue;
+            }
+
+            double logProb = getLogProbForId(example, label);
             // System.out.println("current label" + label + "current log prob: " + logProb);
             // keep track of max probability and label for that
             if (logProb > maxProb) {
                 maxProb = logProb;
-                prediction = label;
+                prediction = labels.getLabel(label);
             }
         }
 
@@ -0,0 +1,155 @@
+package ml.classifiers;
+
+/**
+ * Keeps the k closest neighbors offered so far: a max-heap on distance, so
+ * the current kth closest is at the root and a closer neighbor replaces it in
+ * O(log k).  Neighbors at the same distance are ordered by their position in
+ * the training data, which makes the result the same as stably sorting all of
+ * the training examples by distance and taking the first k.
+ */
+class NeighborHeap {
+	private int k;
+	private int size = 0;
+	private int[] indices;
+	private double[] distances;
+
+	/**
+	 * @param k the number of neighbors to keep
+	 */
+	public NeighborHeap(int k){
+		this.k = k;
+		indices = new int[k];
+		distances = new double[k];
+	}
+
+	/**
+	 * Offer a neighbor
+	 *
+	 * @param index the position of the neighbor in the training data
+	 * @param distance its distance (any measure where smaller is closer)
+	 */
+	public void offer(int index, double distance){
+		if( size < k ){
+			indices[size] = index;
+			distances[size] = distance;
+			siftUp(size++);
+		}else if( k > 0 && isCloser(index, distance, 0) ){
+			indices[0] = index;
+			distances[0] = distance;
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * @return whether k neighbors have been offered
+	 */
+	public boolean isFull(){
+		return size == k;
+	}
+
+	/**
+	 * @return the distance of the kth closest neighbor so far (infinite until
+	 * the heap is full), i.e. the distance a neighbor has to be within to be
+	 * kept
+	 */
+	public double getWorstDistance(){
+		return size < k || k == 0 ? Double.POSITIVE_INFINITY : distances[0];
+	}
+
+	/**
+	 * @return the number of neighbors kept
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Empty the heap and get the neighbors
+	 *
+	 * @return the positions of the neighbors, closest first
+	 */
+	public int[] removeAll(){
+		int[] result = new int[size];
+		removeAll(result, new double[size]);
+		return result;
+	}
+
+	/**
+	 * Empty the heap into the given arrays, which must have room for size()
+	 * neighbors
+	 *
+	 * @param resultIndices filled with the positions of the neighbors, closest
+	 * first
+	 * @param resultDistances filled with their distances
+	 * @return the number of neighbors
+	 */
+	public int removeAll(int[] resultIndices, double[] resultDistances){
+		int count = size;
+
+		while( size > 0 ){
+			resultIndices[size-1] = indices[0];
+			resultDistances[size-1] = distances[0];
+			size--;
+			indices[0] = indices[size];
+			distances[0] = distances[size];
+			siftDown(0);
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return whether the neighbor is closer than the one at position i of the
+	 * heap
+	 */
+	private boolean isCloser(int index, double distance, int i){
+		return distance < distances[i] || (distance == distances[i] && index < indices[i]);
+	}
+
+	private void siftUp(int i){
+		while( i > 0 ){
+			int parent = (i-1)/2;
+
+			// the farthest is at the root
+			if( !isCloser(indices[parent], distances[parent], i) ){
+				return;
+			}
+
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i){
+		while( true ){
+			int farthest = i;
+			int left = 2*i + 1;
+			int right = left + 1;
+
+			if( left < size && isCloser(indices[farthest], distances[farthest], left) ){
+				farthest = left;
+			}
+
+			if( right < size && isCloser(indices[farthest], distances[farthest], right) ){
+				farthest = right;
+			}
+
+			if( farthest == i ){
+				return;
+			}
+
+			swap(i, farthest);
+			i = farthest;
+		}
+	}
+
+	private void swap(int i, int j){
+		int index = indices[i];
+		indices[i] = indices[j];
+		indices[j] = index;
+
+		double distance = distances[i];
+		distances[i] = distances[j];
+		distances[j] = distance;
+	}
+}
@@ -0,0 +1,19 @@
+package ml.classifiers;
+
+import ml.data.Example;
+
+/**
+ * An index over the training examples of a KNNClassifier that finds the
+ * examples closest to a query without comparing it to all of them.
+ */
+interface NeighborIndex {
+	/**
+	 * Find the k training examples closest to query
+	 *
+	 * @param query
+	 * @param k
+	 * @return the positions of the neighbors in the training data, closest
+	 * first (fewer than k if there aren't k training examples)
+	 */
+	public int[] search(Example query, int k);
+}
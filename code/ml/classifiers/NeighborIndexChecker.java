@@ -0,0 +1,200 @@
+package ml.classifiers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import ml.data.DenseMatrix;
+import ml.data.Example;
+
+/**
+ * Checks that the exact neighbor indexes (KDTree, BallTree and InvertedIndex)
+ * find the same neighbors, in the same order, as stably sorting all of the
+ * training examples by distance and taking the first k.
+ *
+ * The feature values are small whole numbers, so every distance is computed
+ * exactly however it's added up and there are plenty of ties to break.
+ *
+ * Arguments (optional): the number of random data sets to try and the seed.
+ */
+public class NeighborIndexChecker {
+	private static final int QUERIES_PER_DATA_SET = 20;
+	private static final int MAX_EXAMPLES = 300;
+	private static final int MAX_FEATURES = 24; // some above KDTree.MAX_DIMENSIONS
+	private static final int MAX_K = 10;
+	private static final int MAX_REPORTED = 10;
+
+	private int numQueries = 0;
+	private int numMismatches = 0;
+
+	/**
+	 * The squared euclidean distance between two examples
+	 *
+	 * @param e1
+	 * @param e2
+	 * @param numFeatures one more than the largest feature index of either
+	 * @return the distance
+	 */
+	private static double distance(Example e1, Example e2, int numFeatures){
+		double sum = 0;
+
+		for( int f = 0; f < numFeatures; f++ ){
+			double diff = e1.getFeature(f) - e2.getFeature(f);
+			sum += diff*diff;
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Find the neighbors by sorting every training example by distance
+	 *
+	 * @param examples the training examples
+	 * @param query
+	 * @param k
+	 * @param numFeatures one more than the largest feature index
+	 * @return the positions of the (at most) k nearest examples, closest first
+	 */
+	private static int[] bruteForce(ArrayList<Example> examples, Example query, int k, int numFeatures){
+		final double[] distances = new double[examples.size()];
+		Integer[] order = new Integer[examples.size()];
+
+		for( int i = 0; i < order.length; i++ ){
+			distances[i] = distance(examples.get(i), query, numFeatures);
+			order[i] = i;
+		}
+
+		// a stable sort, so ties stay in training order
+		Arrays.sort(order, new Comparator<Integer>(){
+			public int compare(Integer i1, Integer i2){
+				return Double.compare(distances[i1], distances[i2]);
+			}
+		});
+
+		int[] neighbors = new int[Math.min(k, order.length)];
+
+		for( int i = 0; i < neighbors.length; i++ ){
+			neighbors[i] = order[i];
+		}
+
+		return neighbors;
+	}
+
+	/**
+	 * @param random
+	 * @param numFeatures
+	 * @param density the chance of each feature being set
+	 * @return an example with values from -2 to 2
+	 */
+	private static Example randomExample(Random random, int numFeatures, double density){
+		Example e = new Example();
+
+		for( int f = 0; f < numFeatures; f++ ){
+			if( random.nextDouble() < density ){
+				e.setFeature(f, random.nextInt(5) - 2);
+			}
+		}
+
+		return e;
+	}
+
+	/**
+	 * Compare the neighbors index finds for each query with a brute force search
+	 */
+	private void check(String name, NeighborIndex index, ArrayList<Example> examples, ArrayList<Example> queries,
+			int numFeatures, Random random){
+		for( Example query: queries ){
+			int k = 1 + random.nextInt(MAX_K);
+			int[] expected = bruteForce(examples, query, k, numFeatures);
+			int[] found = index.search(query, k);
+			numQueries++;
+
+			if( !Arrays.equals(expected, found) ){
+				numMismatches++;
+
+				if( numMismatches <= MAX_REPORTED ){
+					System.out.println(name + " (" + examples.size() + " examples, k = " + k + "): expected " +
+							Arrays.toString(expected) + ", found " + Arrays.toString(found));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param random
+	 * @param examples
+	 * @param numFeatures
+	 * @param density
+	 * @return random queries and some of the training examples themselves
+	 */
+	private static ArrayList<Example> getQueries(Random random, ArrayList<Example> examples, int numFeatures,
+			double density){
+		ArrayList<Example> queries = new ArrayList<Example>();
+
+		for( int q = 0; q < QUERIES_PER_DATA_SET; q++ ){
+			if( q % 4 == 0 && examples.size() > 0 ){
+				queries.add(examples.get(random.nextInt(examples.size())));
+			}else{
+				queries.add(randomExample(random, numFeatures, density));
+			}
+		}
+
+		return queries;
+	}
+
+	/**
+	 * Check the tree indexes on a random dense data set
+	 */
+	private void checkDense(Random random){
+		int numExamples = random.nextInt(MAX_EXAMPLES + 1);
+		int numFeatures = 1 + random.nextInt(MAX_FEATURES);
+		ArrayList<Example> examples = new ArrayList<Example>();
+
+		for( int i = 0; i < numExamples; i++ ){
+			examples.add(randomExample(random, numFeatures, 1.0));
+		}
+
+		DenseMatrix matrix = new DenseMatrix(examples, numFeatures);
+		int[] rows = new int[numExamples];
+
+		for( int i = 0; i < numExamples; i++ ){
+			rows[i] = i;
+		}
+
+		ArrayList<Example> queries = getQueries(random, examples, numFeatures, 1.0);
+		check("KDTree", new KDTree(matrix, rows), examples, queries, numFeatures, random);
+		check("BallTree", new BallTree(matrix, rows), examples, queries, numFeatures, random);
+	}
+
+	/**
+	 * Check the inverted index on a random sparse data set.  The queries can
+	 * have features that none of the training examples have.
+	 */
+	private void checkSparse(Random random){
+		int numExamples = random.nextInt(MAX_EXAMPLES + 1);
+		int numFeatures = 1 + random.nextInt(MAX_FEATURES);
+		double density = 0.05 + 0.3*random.nextDouble();
+		ArrayList<Example> examples = new ArrayList<Example>();
+
+		for( int i = 0; i < numExamples; i++ ){
+			examples.add(randomExample(random, numFeatures, density));
+		}
+
+		ArrayList<Example> queries = getQueries(random, examples, numFeatures + 3, density);
+		check("InvertedIndex", new InvertedIndex(examples), examples, queries, numFeatures + 3, random);
+	}
+
+	public static void main(String[] args){
+		int numDataSets = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		Random random = new Random(args.length > 1 ? Long.parseLong(args[1]) : 0);
+		NeighborIndexChecker checker = new NeighborIndexChecker();
+
+		for( int i = 0; i < numDataSets; i++ ){
+			checker.checkDense(random);
+			checker.checkSparse(random);
+		}
+
+		System.out.println(checker.numQueries + " queries, " + checker.numMismatches + " different from brute force");
+	}
+}
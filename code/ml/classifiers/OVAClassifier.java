@@ -1,7 +1,6 @@
 package ml.classifiers;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Set;
+import java.util.Random;
 import ml.data.CrossValidationSet;
 import ml.data.DataSet;
 import ml.data.DataSetSplit;
@@ -13,15 +12,27 @@ import ml.data.Example;
  * @authors Brisa Salazar and Kenny Gonzalez
  */
 
-public class OVAClassifier implements Classifier {
+public class OVAClassifier implements RandomizedClassifier {
 	private ClassifierFactory cFactory;
 
-	private HashMap<Double, Classifier> classifierMap = new HashMap<>();; // to store the mini classifier in train
+	// to store the mini classifier in train, indexed by label id (null for labels not in the data)
+	private Classifier[] classifiers;
+	private double[] labels; // the label for each id
+	private Random seeds = null; // if seeded, where the seeds for the mini classifiers come from
 
 	public OVAClassifier(ClassifierFactory cFactory) {
 		this.cFactory = cFactory;
 	}
 
+	/**
+	 * Seed the mini classifiers (the ones that use randomness)
+	 * 
+	 * @param seed
+	 */
+	public void setSeed(long seed) {
+		seeds = new Random(seed);
+	}
+
 	/**
 	 * Train this classifier based on the data set
 	 * 
@@ -29,15 +40,21 @@ public class OVAClassifier implements Classifier {
 	 */
 	public void train(DataSet data) {
 		ArrayList<Example> dataArr = data.getData();
-		Set<Double> labelSet = data.getLabels();
+		int[] labelIds = data.getLabelIds();
+		int[] labelCounts = data.getLabelCounts();
+		labels = data.getLabelDictionary().getLabels();
+		classifiers = new Classifier[labels.length];
 		// we do one versus all for each label
-		for (Double label : labelSet) {
-			DataSet copy = new DataSet(data.getFeatureMap()); // creates a new dataset with the redefined labels
+		for (int label = 0; label < labels.length; label++) {
+			if (labelCounts[label] == 0) {
+				continue;
+			}
+			DataSet copy = new DataSet(data.getFeatureMap(), data.getNumFeatures()); // creates a new dataset with the redefined labels
 			// we filter the data sets and examples
-			for (Example e : dataArr) {
+			for (int i = 0; i < dataArr.size(); i++) {
 				// check if same label as the one we are classifying on
-				Example eCopy = new Example(e);
-				if (e.getLabel() == label) {
+				Example eCopy = new Example(dataArr.get(i));
+				if (labelIds[i] == label) {
 					eCopy.setLabel(1.0);
 				} else {
 					eCopy.setLabel(-1.0);
@@ -45,8 +62,11 @@ public class OVAClassifier implements Classifier {
 				copy.addData(eCopy);
 			}
 			Classifier classifier = cFactory.getClassifier();
+			if (seeds != null && classifier instanceof RandomizedClassifier) {
+				((RandomizedClassifier) classifier).setSeed(seeds.nextLong());
+			}
 			classifier.train(copy);
-			this.classifierMap.put(label, classifier);// stores the classifier we've worked with
+			classifiers[label] = classifier;// stores the classifier we've worked with
 		}
 	}
 
@@ -57,25 +77,28 @@ public class OVAClassifier implements Classifier {
 	 * @return the class label predicted by the classifier for this example
 	 */
 	public double classify(Example example) {
-		Double binaryPrediction = 0.0;
-		Double minConfidence = null;
-		Double maxConfidence = null;
-		Double minConfidentLabel = null;
-		Double maxConfidentLabel = null;
+		double binaryPrediction = 0.0;
+		double minConfidence = 0.0;
+		double maxConfidence = 0.0;
+		int minConfidentLabel = -1;
+		int maxConfidentLabel = -1;
 		boolean posPrediction = false;
 
-		for (Double label : this.classifierMap.keySet()) {
-			Double currConfidence = this.classifierMap.get(label).confidence(example);
-			binaryPrediction = this.classifierMap.get(label).classify(example);
+		for (int label = 0; label < classifiers.length; label++) {
+			if (classifiers[label] == null) {
+				continue;
+			}
+			double currConfidence = classifiers[label].confidence(example);
+			binaryPrediction = classifiers[label].classify(example);
 			if (binaryPrediction > 0){ // if positive want to return the most confident positive
-				if (maxConfidence == null || currConfidence > maxConfidence){
+				if (maxConfidentLabel == -1 || currConfidence > maxConfidence){
 					posPrediction = true;
 					maxConfidence = currConfidence;
 					maxConfidentLabel = label;
 				}
 			}
 			else { // negative so want to return least confident negative 
-				if (minConfidence == null || currConfidence < minConfidence){
+				if (minConfidentLabel == -1 || currConfidence < minConfidence){
 					minConfidence = currConfidence;
 					minConfidentLabel = label;
 				}
@@ -83,10 +106,10 @@ public class OVAClassifier implements Classifier {
 		}
 		// return most confident positive or least confident negative
 		if (posPrediction){
-			return maxConfidentLabel;
+			return labels[maxConfidentLabel];
 		}
 		else {
-			return minConfidentLabel;
+			return labels[minConfidentLabel];
 		}
 	}
 
@@ -0,0 +1,31 @@
+package ml.classifiers;
+
+import ml.data.Example;
+
+/**
+ * A classifier that learns from one example at a time and so can be trained
+ * from a stream of examples (e.g. a TextDataReader or CSVDataReader) without
+ * loading them all into a DataSet.
+ */
+public interface OnlineClassifier extends Classifier {
+	/**
+	 * Train this classifier from the examples in data.  data.iterator() is
+	 * called once per pass over the data, so it should start again from the
+	 * beginning each time, e.g.
+	 *
+	 *   classifier.train(() -> new TextDataReader("train.txt"));
+	 *
+	 * The examples are shuffled a block at a time as they are read so only a
+	 * block is held in memory at once.
+	 *
+	 * @param data
+	 */
+	public void train(Iterable<Example> data);
+
+	/**
+	 * Set how many examples are shuffled together when training from a stream
+	 *
+	 * @param blockSize
+	 */
+	public void setShuffleBlockSize(int blockSize);
+}
@@ -1,11 +1,14 @@
 package ml.classifiers;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.Random;
 
+import ml.data.BlockShuffleIterator;
 import ml.data.CrossValidationSet;
 import ml.data.DataSet;
 import ml.data.DataSetSplit;
@@ -19,27 +22,31 @@ import ml.data.FeatureNormalizer;
  * @author dkauchak
  *
  */
-public class PerceptronClassifier implements Classifier {
-	protected HashMap<Integer, Double> weights; // the feature weights
+public class PerceptronClassifier implements OnlineClassifier, RandomizedClassifier {
+	protected double[] weights; // the feature weights, indexed by feature
+	protected int numFeatures = 0; // weights past the features seen are room to grow
 	protected double b = 0; // the intersect weight
 	
 	protected int iterations = 10;
+	protected int shuffleBlockSize = 10000; // when training from a stream
+	protected Random rand = new Random(); // for shuffling the training data
 		
 	/**
 	 * Get a weight vector over the set of features with each weight
-	 * set to 0
+	 * set to 0.  Weights are indexed by feature, so the vector covers every
+	 * index up to the largest feature.
 	 * 
 	 * @param features the set of features to learn over
 	 * @return
 	 */
-	protected HashMap<Integer, Double> getZeroWeights(Set<Integer> features){
-		HashMap<Integer, Double> temp = new HashMap<Integer, Double>();
+	protected double[] getZeroWeights(Set<Integer> features){
+		int numFeatures = 0;
 		
-		for( Integer f: features){
-			temp.put(f, 0.0);
+		for( Integer f: features ){
+			numFeatures = Math.max(numFeatures, f+1);
 		}
 		
-		return temp;
+		return new double[numFeatures];
 	}
 	
 	/**
@@ -49,9 +56,46 @@ public class PerceptronClassifier implements Classifier {
 	 */
 	protected void initializeWeights(Set<Integer> features){
 		weights = getZeroWeights(features);
+		numFeatures = weights.length;
 		b = 0;
 	}
 	
+	/**
+	 * Make sure weights has a weight for every feature of e, adding weights
+	 * of 0 for features seen for the first time (when training from a stream)
+	 * 
+	 * @param weights
+	 * @param e
+	 * @return weights or, if it was too short, a longer copy
+	 */
+	protected static double[] growWeights(double[] weights, Example e){
+		int count = e.getFeatureCount();
+		
+		if( count == 0 || e.getFeatureIndexAt(count-1) < weights.length ){
+			return weights;
+		}
+		
+		return Arrays.copyOf(weights, Math.max(e.getFeatureIndexAt(count-1)+1, 2*weights.length));
+	}
+	
+	/**
+	 * Since growWeights leaves room to grow, the weights can be longer than
+	 * the number of features seen.
+	 * 
+	 * @param numFeatures the number of features seen before e
+	 * @param e
+	 * @return the number of features seen including e's
+	 */
+	protected static int countFeatures(int numFeatures, Example e){
+		int count = e.getFeatureCount();
+		
+		if( count == 0 ){
+			return numFeatures;
+		}
+		
+		return Math.max(numFeatures, e.getFeatureIndexAt(count-1)+1);
+	}
+	
 	/**
 	 * Set the number of iterations the perceptron should run during training
 	 * 
@@ -61,35 +105,64 @@ public class PerceptronClassifier implements Classifier {
 		this.iterations = iterations;
 	}
 	
+	@Override
+	public void setShuffleBlockSize(int blockSize){
+		this.shuffleBlockSize = blockSize;
+	}
+	
+	@Override
+	public void setSeed(long seed){
+		rand = new Random(seed);
+	}
+	
 	public void train(DataSet data) {
 		initializeWeights(data.getAllFeatureIndices());
 		
 		ArrayList<Example> training = (ArrayList<Example>)data.getData().clone();
 		
 		for( int it = 0; it < iterations; it++ ){
-			Collections.shuffle(training);
+			Collections.shuffle(training, rand);
 			
 			for( Example e: training ){
-				if( getPrediction(e) != e.getLabel() ){
-					double label = e.getLabel();
-					
-					// update the weights
-					//for( Integer featureIndex: weights.keySet() ){
-					for( Integer featureIndex: e.getFeatureSet() ){
-						double oldWeight = weights.get(featureIndex);
-						double featureValue = e.getFeature(featureIndex);
-						
-						weights.put(featureIndex, oldWeight + featureValue*label);
-					}
-					
-					// update b
-					b += label;					
-				}
+				trainExample(e);
 			}
 		}
 		// System.out.println("the weights are: " + weights);
 		// System.out.println("the bias is: " + b);
 	}
+	
+	@Override
+	public void train(Iterable<Example> data) {
+		// features are added to the weights as they're seen
+		initializeWeights(new HashSet<Integer>());
+		
+		for( int it = 0; it < iterations; it++ ){
+			Iterator<Example> training = new BlockShuffleIterator(data.iterator(), shuffleBlockSize, rand);
+			
+			while( training.hasNext() ){
+				trainExample(training.next());
+			}
+		}
+	}
+	
+	/**
+	 * Update the weights (if necessary) based on one example
+	 * 
+	 * @param e
+	 */
+	protected void trainExample(Example e){
+		if( getPrediction(e) != e.getLabel() ){
+			double label = e.getLabel();
+			
+			// update the weights
+			weights = growWeights(weights, e);
+			numFeatures = countFeatures(numFeatures, e);
+			e.addTo(weights, label);
+			
+			// update b
+			b += label;					
+		}
+	}
 
 	@Override
 	public double classify(Example example) {
@@ -120,7 +193,7 @@ public class PerceptronClassifier implements Classifier {
 	 * @param inputB the b value to use
 	 * @return the prediction
 	 */
-	protected static double getPrediction(Example e, HashMap<Integer, Double> w, double inputB){
+	protected static double getPrediction(Example e, double[] w, double inputB){
 		double sum = getDistanceFromHyperplane(e,w,inputB);
 
 		if( sum > 0 ){
@@ -132,26 +205,16 @@ public class PerceptronClassifier implements Classifier {
 		}
 	}
 	
-	protected static double getDistanceFromHyperplane(Example e, HashMap<Integer, Double> w, double inputB){
-		double sum = inputB;
-		
-		//for(Integer featureIndex: w.keySet()){
-		// only need to iterate over non-zero features
-		for( Integer featureIndex: e.getFeatureSet()){
-			sum += w.get(featureIndex) * e.getFeature(featureIndex);
-		}
-		
-		return sum;
+	protected static double getDistanceFromHyperplane(Example e, double[] w, double inputB){
+		// features that weren't seen during training have weight 0
+		return inputB + e.dot(w);
 	}
 	
 	public String toString(){
 		StringBuffer buffer = new StringBuffer();
 		
-		ArrayList<Integer> temp = new ArrayList<Integer>(weights.keySet());
-		Collections.sort(temp);
-		
-		for(Integer index: temp){
-			buffer.append(index + ":" + weights.get(index) + " ");
+		for( int index = 0; index < numFeatures; index++ ){
+			buffer.append(index + ":" + weights[index] + " ");
 		}
 		
 		return buffer.substring(0, buffer.length()-1);
@@ -11,9 +11,14 @@ import ml.data.Example;
  * @author dkauchak
  *
  */
-public class RandomClassifier implements Classifier{
+public class RandomClassifier implements RandomizedClassifier{
 	private Random rand = new Random();
 	
+	@Override
+	public void setSeed(long seed) {
+		rand = new Random(seed);
+	}
+	
 	@Override
 	public void train(DataSet data) {
 		// easiest training method ever!
@@ -0,0 +1,14 @@
+package ml.classifiers;
+
+/**
+ * A classifier that uses randomness (e.g. to shuffle the training data), which
+ * can be seeded to make it repeatable.
+ */
+public interface RandomizedClassifier extends Classifier {
+	/**
+	 * Seed the classifier's source of randomness
+	 *
+	 * @param seed
+	 */
+	public void setSeed(long seed);
+}
@@ -0,0 +1,75 @@
+package ml.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Shuffles the examples from another iterator a block at a time: blockSize
+ * examples are read, shuffled and handed out before the next block is read.
+ * Only one block is ever in memory, so this can be used on data that doesn't
+ * fit in memory (e.g. a TextDataReader or CSVDataReader over a large file).
+ */
+public class BlockShuffleIterator implements Iterator<Example>{
+	private Iterator<Example> source;
+	private int blockSize;
+	private Random rand;
+
+	private ArrayList<Example> block;
+	private int next = 0; // next example in the block to return
+
+	/**
+	 * @param source the examples to shuffle
+	 * @param blockSize how many examples to shuffle at a time
+	 * @param rand
+	 */
+	public BlockShuffleIterator(Iterator<Example> source, int blockSize, Random rand){
+		this.source = source;
+		this.blockSize = blockSize;
+		this.rand = rand;
+		block = new ArrayList<Example>(blockSize);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if( next == block.size() ){
+			readBlock();
+		}
+
+		return next < block.size();
+	}
+
+	@Override
+	public Example next() {
+		if( !hasNext() ){
+			return null;
+		}
+
+		// don't hold on to examples that have been handed out
+		Example e = block.get(next);
+		block.set(next, null);
+		next++;
+
+		return e;
+	}
+
+	/**
+	 * Read and shuffle the next block
+	 */
+	private void readBlock(){
+		block.clear();
+		next = 0;
+
+		while( block.size() < blockSize && source.hasNext() ){
+			block.add(source.next());
+		}
+
+		Collections.shuffle(block, rand);
+	}
+
+	@Override
+	public void remove() {
+		// OPTIONAL, so we won't implement
+	}
+}
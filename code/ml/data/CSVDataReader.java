@@ -32,6 +32,32 @@ public class CSVDataReader implements Iterator<Example>{
 		}
 	}
 	
+	/**
+	 * Create a new CSVReader to read the examples in a CSV file in the format
+	 * DataSet expects: optional lines starting with # and then a header line,
+	 * with the label in the last column.
+	 * 
+	 * @param csvFile
+	 */
+	public CSVDataReader(String csvFile){
+		try {
+			in = new BufferedReader(new FileReader(csvFile));
+			
+			// ignore any lines at the beginning that start with #
+			String line = in.readLine();
+			
+			while( line.startsWith("#") ){
+				line = in.readLine();
+			}
+			
+			// the label is the last column of the header
+			labelIndex = line.split(",").length - 1;
+			nextLine = in.readLine();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	@Override
 	public boolean hasNext() {
 		return nextLine != null;
@@ -60,6 +86,11 @@ public class CSVDataReader implements Iterator<Example>{
 			
 			try {
 				nextLine = in.readLine();
+				
+				// close the file once everything has been read
+				if( nextLine == null ){
+					in.close();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
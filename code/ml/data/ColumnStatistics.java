@@ -0,0 +1,318 @@
+package ml.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The mean and variance of every feature (column) of a collection of
+ * examples, calculated in a single pass.
+ *
+ * Only the features stored in each example are visited: for each column we
+ * keep a running (Welford) count, mean and sum of squared differences of the
+ * stored values, and the examples that don't store the feature are a block of
+ * zeros that is combined in when the statistics are read.  Statistics of
+ * different sets of examples (e.g. blocks of rows calculated in parallel) can
+ * be combined with merge (Chan et al.'s pairwise update), and the statistics
+ * of a subset can be taken back out with subtract, e.g. to get the statistics
+ * of the training data of a cross validation fold from the statistics of all
+ * of the data and of the held out data.
+ *
+ * The variance is the population variance (dividing by the number of
+ * examples), matching FeatureNormalizer.
+ *
+ * The statistics can also be kept up to date as examples arrive (see
+ * FeatureNormalizer.partialFit): grow adds columns for features that hadn't
+ * been seen yet, which is exact since the earlier examples were 0 for them.
+ */
+public class ColumnStatistics {
+	private int numColumns;
+	private long numRows = 0; // the number of examples added
+
+	// for each column, over the stored values only
+	private long[] counts;
+	private double[] means;
+	private double[] sumSquaredDiffs;
+
+	/**
+	 * @param numColumns the number of features; stored features with larger
+	 * indices are ignored
+	 */
+	public ColumnStatistics(int numColumns) {
+		this.numColumns = numColumns;
+		counts = new long[numColumns];
+		means = new double[numColumns];
+		sumSquaredDiffs = new double[numColumns];
+	}
+
+	/**
+	 * Copy other
+	 *
+	 * @param other
+	 */
+	public ColumnStatistics(ColumnStatistics other) {
+		numColumns = other.numColumns;
+		numRows = other.numRows;
+		counts = Arrays.copyOf(other.counts, numColumns);
+		means = Arrays.copyOf(other.means, numColumns);
+		sumSquaredDiffs = Arrays.copyOf(other.sumSquaredDiffs, numColumns);
+	}
+
+	/**
+	 * Calculate the statistics of examples, in parallel blocks of rows that
+	 * are then merged
+	 *
+	 * @param examples
+	 * @param numColumns
+	 * @param numThreads the maximum number of threads to use
+	 * @return the statistics
+	 */
+	static ColumnStatistics compute(List<Example> examples, int numColumns, int numThreads) {
+		ArrayList<ColumnStatistics> blocks = RowBlocks.run(examples.size(), numThreads, (start, end) -> {
+			ColumnStatistics statistics = new ColumnStatistics(numColumns);
+
+			for (int i = start; i < end; i++) {
+				statistics.add(examples.get(i));
+			}
+
+			return statistics;
+		});
+
+		ColumnStatistics statistics = blocks.get(0);
+
+		for (int i = 1; i < blocks.size(); i++) {
+			statistics.merge(blocks.get(i));
+		}
+
+		return statistics;
+	}
+
+	/**
+	 * Increase the number of features to numColumns (if it's larger).  The new
+	 * features have no stored values, i.e. they were 0 in all of the examples
+	 * added so far.  Space is doubled so adding one feature at a time is cheap.
+	 *
+	 * @param numColumns
+	 */
+	void grow(int numColumns) {
+		if (numColumns <= this.numColumns) {
+			return;
+		}
+
+		if (numColumns > counts.length) {
+			int capacity = Math.max(numColumns, 2 * counts.length);
+			counts = Arrays.copyOf(counts, capacity);
+			means = Arrays.copyOf(means, capacity);
+			sumSquaredDiffs = Arrays.copyOf(sumSquaredDiffs, capacity);
+		}
+
+		this.numColumns = numColumns;
+	}
+
+	/**
+	 * Write the statistics in the binary format read by read
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	void write(DataSetSnapshot.SnapshotWriter out) throws IOException {
+		out.putInt(numColumns);
+		out.putLong(numRows);
+		out.putLongs(Arrays.copyOf(counts, numColumns));
+		out.putDoubles(Arrays.copyOf(means, numColumns));
+		out.putDoubles(Arrays.copyOf(sumSquaredDiffs, numColumns));
+	}
+
+	/**
+	 * Read statistics written by write
+	 *
+	 * @param in
+	 * @return the statistics
+	 * @throws IOException
+	 */
+	static ColumnStatistics read(DataSetSnapshot.SnapshotReader in) throws IOException {
+		ColumnStatistics statistics = new ColumnStatistics(in.getInt());
+		statistics.numRows = in.getLong();
+		in.getLongs(statistics.counts);
+		in.getDoubles(statistics.means);
+		in.getDoubles(statistics.sumSquaredDiffs);
+		return statistics;
+	}
+
+	/**
+	 * Add the features of an example
+	 *
+	 * @param e
+	 */
+	public void add(Example e) {
+		numRows++;
+
+		for (int i = 0; i < e.getFeatureCount(); i++) {
+			int c = e.getFeatureIndexAt(i);
+
+			if (c >= numColumns) {
+				break;
+			}
+
+			double value = e.getFeatureValueAt(i);
+			counts[c]++;
+			double delta = value - means[c];
+			means[c] += delta / counts[c];
+			sumSquaredDiffs[c] += delta * (value - means[c]);
+		}
+	}
+
+	/**
+	 * Add the statistics of other (over a different set of examples with the
+	 * same features) to these
+	 *
+	 * @param other
+	 */
+	public void merge(ColumnStatistics other) {
+		if (other.numColumns != numColumns) {
+			throw new IllegalArgumentException("Can't merge statistics of " + other.numColumns +
+					" features into statistics of " + numColumns + " features");
+		}
+
+		numRows += other.numRows;
+
+		for (int c = 0; c < numColumns; c++) {
+			long countB = other.counts[c];
+
+			if (countB == 0) {
+				continue;
+			}
+
+			long countA = counts[c];
+			long count = countA + countB;
+			double delta = other.means[c] - means[c];
+			means[c] += delta * countB / count;
+			sumSquaredDiffs[c] += other.sumSquaredDiffs[c] + delta * delta * countA * countB / count;
+			counts[c] = count;
+		}
+	}
+
+	/**
+	 * Remove the statistics of part, which must be statistics of a subset of
+	 * the examples these are the statistics of, from these
+	 *
+	 * @param part
+	 */
+	public void subtract(ColumnStatistics part) {
+		if (part.numColumns != numColumns) {
+			throw new IllegalArgumentException("Can't subtract statistics of " + part.numColumns +
+					" features from statistics of " + numColumns + " features");
+		}
+
+		if (part.numRows > numRows) {
+			throw new IllegalArgumentException("Can't subtract statistics of " + part.numRows +
+					" examples from statistics of " + numRows + " examples");
+		}
+
+		numRows -= part.numRows;
+
+		for (int c = 0; c < numColumns; c++) {
+			long countB = part.counts[c];
+
+			if (countB == 0) {
+				continue;
+			}
+
+			long count = counts[c];
+			long countA = count - countB;
+
+			if (countA <= 0) {
+				counts[c] = 0;
+				means[c] = 0.0;
+				sumSquaredDiffs[c] = 0.0;
+				continue;
+			}
+
+			// merge run backwards
+			double meanA = (count * means[c] - countB * part.means[c]) / countA;
+			double delta = part.means[c] - meanA;
+			double sumSquaredDiff = sumSquaredDiffs[c] - part.sumSquaredDiffs[c] -
+					delta * delta * countA * countB / count;
+
+			counts[c] = countA;
+			means[c] = meanA;
+			// rounding can leave a tiny negative number when all of the values are the same
+			sumSquaredDiffs[c] = Math.max(0.0, sumSquaredDiff);
+		}
+	}
+
+	/**
+	 * @return the number of features
+	 */
+	public int getNumColumns() {
+		return numColumns;
+	}
+
+	/**
+	 * @return the number of examples added
+	 */
+	public long getNumRows() {
+		return numRows;
+	}
+
+	/**
+	 * @param c
+	 * @return the mean of feature c over all of the examples
+	 */
+	public double getMean(int c) {
+		return means[c] * counts[c] / numRows;
+	}
+
+	/**
+	 * @param c
+	 * @return the (population) variance of feature c over all of the examples
+	 */
+	public double getVariance(int c) {
+		// combine the stored values with the zeros: the zeros have mean 0 and
+		// no spread, so only the difference between the two means is added
+		long numZeros = numRows - counts[c];
+		double sumSquaredDiff = sumSquaredDiffs[c] + means[c] * means[c] * counts[c] * numZeros / numRows;
+
+		return sumSquaredDiff / numRows;
+	}
+
+	/**
+	 * @param c
+	 * @return the (population) standard deviation of feature c
+	 */
+	public double getStandardDeviation(int c) {
+		return Math.sqrt(getVariance(c));
+	}
+
+	/**
+	 * @return the mean of every feature
+	 */
+	public double[] getMeans() {
+		double[] result = new double[numColumns];
+
+		for (int c = 0; c < numColumns; c++) {
+			result[c] = getMean(c);
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return the standard deviation of every feature
+	 */
+	public double[] getStandardDeviations() {
+		double[] result = new double[numColumns];
+
+		for (int c = 0; c < numColumns; c++) {
+			result[c] = getStandardDeviation(c);
+		}
+
+		return result;
+	}
+
+	public String toString() {
+		return numRows + " rows, means " + Arrays.toString(getMeans()) + ", standard deviations " +
+				Arrays.toString(getStandardDeviations());
+	}
+}
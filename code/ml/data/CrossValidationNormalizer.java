@@ -0,0 +1,96 @@
+package ml.data;
+
+/**
+ * Feature normalization (see FeatureNormalizer) for every fold of a cross
+ * validation without recalculating the statistics for each fold.
+ *
+ * The statistics of the held out data of each fold are calculated once (a
+ * single pass over the data, since every example is held out by exactly one
+ * fold) and merged to give the statistics of all of the data.  The training
+ * data of a fold is everything except its held out data, so its statistics
+ * are the overall statistics minus the fold's, which only takes time
+ * proportional to the number of features.
+ *
+ * The examples are never changed, so the folds, which share their examples,
+ * stay independent.
+ */
+public class CrossValidationNormalizer {
+	private CrossValidationSet folds;
+	private int numFeatures;
+	private ColumnStatistics[] foldStatistics; // of the held out data of each fold
+	private ColumnStatistics allStatistics;
+	private int numThreads;
+
+	/**
+	 * Calculate the statistics for the folds
+	 *
+	 * @param folds
+	 */
+	public CrossValidationNormalizer(CrossValidationSet folds) {
+		this(folds, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Calculate the statistics for the folds
+	 *
+	 * @param folds
+	 * @param numThreads the maximum number of threads to use
+	 */
+	public CrossValidationNormalizer(CrossValidationSet folds, int numThreads) {
+		this.folds = folds;
+		this.numThreads = numThreads;
+		foldStatistics = new ColumnStatistics[folds.getNumSplits()];
+
+		for (int i = 0; i < foldStatistics.length; i++) {
+			DataSet heldOut = folds.getValidationSet(i).getTest();
+			numFeatures = heldOut.getNumFeatures();
+			foldStatistics[i] = ColumnStatistics.compute(heldOut.getData(), numFeatures, numThreads);
+
+			if (i == 0) {
+				allStatistics = new ColumnStatistics(foldStatistics[i]);
+			} else {
+				allStatistics.merge(foldStatistics[i]);
+			}
+		}
+	}
+
+	/**
+	 * Get the statistics of the training data of a fold
+	 *
+	 * @param fold
+	 * @return the statistics
+	 */
+	public ColumnStatistics getTrainStatistics(int fold) {
+		ColumnStatistics statistics = new ColumnStatistics(allStatistics);
+		statistics.subtract(foldStatistics[fold]);
+		return statistics;
+	}
+
+	/**
+	 * Get a normalizer fit to the training data of a fold
+	 *
+	 * @param fold
+	 * @return the normalizer
+	 */
+	public FeatureNormalizer getNormalizer(int fold) {
+		FeatureNormalizer normalizer = new FeatureNormalizer();
+		normalizer.fit(getTrainStatistics(fold));
+		return normalizer;
+	}
+
+	/**
+	 * Get a fold with its training and test data normalized by the statistics of
+	 * its training data.  The data sets are new copies (see
+	 * PreprocessingPipeline.transform), so the original data isn't changed.
+	 *
+	 * @param fold
+	 * @return the normalized split
+	 */
+	public DataSetSplit getValidationSet(int fold) {
+		FeatureNormalizer normalizer = getNormalizer(fold);
+		DataSetSplit split = folds.getValidationSet(fold);
+
+		return new DataSetSplit(PreprocessingPipeline.transformFitted(split.getTrain(), numThreads, normalizer),
+				PreprocessingPipeline.transformFitted(split.getTest(), numThreads, normalizer));
+	}
+}
@@ -1,8 +1,6 @@
 package ml.data;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Random;
+import java.util.Arrays;
 
 /**
  * Data set for storing and retrieving an n-fold cross validation data set.
@@ -14,6 +12,7 @@ public class CrossValidationSet {
 	private DataSet dataset;
 	private int numSplits;
 	private boolean randomize = false;
+	private int[] order; // the order of the rows, shared by all of the splits
 	
 	/**
 	 * Generate a cross-validation with numSplits on dataset
@@ -22,8 +21,7 @@ public class CrossValidationSet {
 	 * @param numSplits the number of splits for the data set
 	 */
 	public CrossValidationSet(DataSet dataset, int numSplits){
-		this.dataset = dataset;
-		this.numSplits = numSplits;
+		this(dataset, numSplits, false);
 	}
 	
 	/**
@@ -37,6 +35,9 @@ public class CrossValidationSet {
 		this.dataset = dataset;
 		this.numSplits = numSplits;
 		this.randomize = randomize;
+		
+		// shuffle once so that the splits don't overlap
+		order = dataset.getRowOrder(randomize);
 	}
 	
 	/**
@@ -50,7 +51,8 @@ public class CrossValidationSet {
 	
 	/**
 	 * Which split number to retrieve.  Splits start
-	 * at 0.
+	 * at 0.  The train and test data sets share the examples of the
+	 * original data set rather than copying them.
 	 * 
 	 * @param splitNum the split number requested
 	 * @return
@@ -59,31 +61,17 @@ public class CrossValidationSet {
 		if( splitNum >= numSplits || splitNum < 0){
 			return null;
 		}else{
-			ArrayList<Example> data;
-			
-			if( randomize ){
-				data = (ArrayList<Example>)dataset.getData().clone();
-				Collections.shuffle(data, new Random(System.nanoTime()));
-			}else{
-				data = dataset.getData();
-			}
-			
 			// this tends to make the last split more off-sized, but it will suffice
-			int partSize = (int)(data.size()/numSplits);
+			int partSize = (int)(order.length/numSplits);
 			int begin = partSize*splitNum;
-			int end = splitNum == numSplits-1 ? data.size() : partSize*(splitNum+1);
+			int end = splitNum == numSplits-1 ? order.length : partSize*(splitNum+1);
 			
-			DataSet train = new DataSet(dataset.getFeatureMap());
-			DataSet test = new DataSet(dataset.getFeatureMap());
+			int[] trainRows = new int[order.length - (end-begin)];
+			System.arraycopy(order, 0, trainRows, 0, begin);
+			System.arraycopy(order, end, trainRows, begin, order.length-end);
 			
-			for( int i = 0; i < data.size(); i++ ){
-				// check if we're in the test range
-				if( i >= begin && i < end ){
-					test.addData(data.get(i));
-				}else{
-					train.addData(data.get(i));
-				}
-			}
+			DataSet train = dataset.selectRows(trainRows);
+			DataSet test = dataset.selectRows(Arrays.copyOfRange(order, begin, end));
 			
 			return new DataSetSplit(train, test);
 		}
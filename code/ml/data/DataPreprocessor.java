@@ -5,6 +5,10 @@ import java.util.ArrayList;
 /**
  * Interface defining the data preprocessing
  * 
+ * The data set given is changed to hold the preprocessed examples, but the
+ * examples it held before are left alone: other data sets (e.g. the other
+ * folds of a cross validation) may share them.
+ * 
  * @author dkauchak
  *
  */
@@ -1,10 +1,8 @@
 package ml.data;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -21,11 +19,34 @@ public class DataSet {
 	private ArrayList<Example> data = new ArrayList<Example>(); // the data/examples in this data set
 	// the mapping from feature indices to the name of the feature
 	private HashMap<Integer, String> featureMap = new HashMap<Integer, String>();
-	private HashSet<Double> labels = new HashSet<Double>();
+	// the features are numbered 0..numFeatures-1.  Hashed text data only has
+	// the buckets its examples use in featureMap, so this can be larger than
+	// the size of the map
+	private int numFeatures = 0;
+	// the labels as class ids 0..K-1: example data.get(i) has label
+	// labelDictionary.getLabel(labelIds[i]).  Data sets created by selectRows
+	// share their parent's dictionary.  Built on first use.
+	private LabelDictionary labelDictionary = new LabelDictionary();
+	private int[] labelIds = null;
+	// for data sets where every example has every feature (e.g. CSV files) the
+	// values are also kept in a dense matrix and the examples are views over its
+	// rows, i.e. data.get(i) is row i of denseData. null for sparse data sets.
+	private DenseMatrix denseData = null;
+	// similarly, text data sets keep their examples in one compressed sparse
+	// row matrix. null if the data set isn't backed by one.
+	private SparseMatrix sparseData = null;
+	// the matrix row of each example: data.get(i) is row matrixRows[i]. Data sets
+	// created by selectRows (e.g. splits) share their parent's matrix and only
+	// use some of its rows. Built on first use for data sets that use every row.
+	private int[] matrixRows = null;
+	// the matrix's detach count (see DenseMatrix.getDetachCount) when the
+	// examples were last checked to all be views
+	private int checkedDetachCount = 0;
 
 	// some constants for different file types
 	public static final int CSVFILE = 0;
 	public static final int TEXTFILE = 1;
+	public static final int SNAPSHOTFILE = 2; // written by saveSnapshot
 
 	/**
 	 * Create a new data set.
@@ -36,21 +57,12 @@ public class DataSet {
 	 */
 	public DataSet(String filename, int fileType) {
 		if (fileType == CSVFILE) {
-			int numColumns = -1;
-
-			// figure out how many columns there are then call
+			// read the rows in parallel straight into a dense matrix
 			try {
-				BufferedReader in = new BufferedReader(new FileReader(filename));
-
-				// ignore any lines at the beginning that start with #
-				String line = in.readLine();
-
-				while (line.startsWith("#")) {
-					line = in.readLine();
-				}
+				ParallelCSVReader reader = new ParallelCSVReader(filename);
 
 				// parse the headers
-				String[] headers = line.split(",");
+				String[] headers = reader.getHeaders();
 				int labelIndex = headers.length - 1;
 				int featureIndex = 0;
 
@@ -61,16 +73,64 @@ public class DataSet {
 					}
 				}
 
-				CSVDataReader reader = new CSVDataReader(in, labelIndex);
-				initialize(reader);
+				reader.read(labelIndex);
+				initialize(featureMap, reader.getFeatures(), reader.getLabels());
 			} catch (IOException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
 		} else if (fileType == TEXTFILE) {
-			TextDataReader reader = new TextDataReader(filename);
-			initialize(reader);
+			initializeText(new ParallelTextDataReader(filename));
+		} else if (fileType == SNAPSHOTFILE) {
+			try {
+				DataSetSnapshot.read(filename, this);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Create a new data set from a text file (see TextDataReader), hashing the
+	 * words into hasher.getNumFeatures() features rather than building a
+	 * vocabulary.  Data sets read with the same hasher settings have the same
+	 * features.
+	 * 
+	 * @param filename the location of the text file
+	 * @param hasher
+	 */
+	public DataSet(String filename, FeatureHasher hasher) {
+		initializeText(new ParallelTextDataReader(filename, hasher));
+	}
+
+	/**
+	 * Create a new data set from a text file (see TextDataReader), using only
+	 * the words in vocabulary.  Reading test data with the vocabulary of the
+	 * training data gives both data sets the same features.
+	 * 
+	 * @param filename the location of the text file
+	 * @param vocabulary
+	 */
+	public DataSet(String filename, FrozenVocabulary vocabulary) {
+		initializeText(new ParallelTextDataReader(filename, vocabulary));
+	}
+
+	/**
+	 * Read a text file into this (empty) data set.
+	 * 
+	 * @param reader the reader for the file
+	 */
+	private void initializeText(ParallelTextDataReader reader) {
+		// tokenize the lines in parallel; the feature numbering is the same
+		// as reading the file with a TextDataReader
+		try {
+			reader.read();
+			initialize(reader.getExamples().iterator());
 			featureMap = reader.getFeatureMap();
+			numFeatures = reader.getNumFeatures();
+			initializeSparse();
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 
@@ -81,9 +141,56 @@ public class DataSet {
 	 */
 	private void initialize(Iterator<Example> reader) {
 		while (reader.hasNext()) {
-			Example next = reader.next();
-			data.add(next);
-			labels.add(next.getLabel());
+			data.add(reader.next());
+		}
+	}
+
+	/**
+	 * Copy the examples into a compressed sparse row matrix and replace them
+	 * with views over the rows of the matrix.
+	 */
+	private void initializeSparse() {
+		sparseData = new SparseMatrix(data, numFeatures);
+		checkedDetachCount = 0;
+
+		for (int i = 0; i < data.size(); i++) {
+			data.set(i, sparseData.getRow(i, data.get(i).getLabel()));
+		}
+	}
+
+	/**
+	 * Populate this (empty) data set from a dense matrix.
+	 * 
+	 * @param featureMap
+	 * @param matrix
+	 * @param rowLabels the label of each row
+	 */
+	void initialize(HashMap<Integer, String> featureMap, DenseMatrix matrix, double[] rowLabels) {
+		this.featureMap = featureMap;
+		numFeatures = matrix.getNumColumns();
+		denseData = matrix;
+		checkedDetachCount = matrix.getDetachCount();
+
+		for (int i = 0; i < rowLabels.length; i++) {
+			data.add(matrix.getRow(i, rowLabels[i]));
+		}
+	}
+
+	/**
+	 * Populate this (empty) data set from a sparse matrix.
+	 * 
+	 * @param featureMap
+	 * @param matrix
+	 * @param rowLabels the label of each row
+	 */
+	void initialize(HashMap<Integer, String> featureMap, SparseMatrix matrix, double[] rowLabels) {
+		this.featureMap = featureMap;
+		numFeatures = matrix.getNumColumns();
+		sparseData = matrix;
+		checkedDetachCount = matrix.getDetachCount();
+
+		for (int i = 0; i < rowLabels.length; i++) {
+			data.add(matrix.getRow(i, rowLabels[i]));
 		}
 	}
 
@@ -94,7 +201,33 @@ public class DataSet {
 	 * @param s
 	 */
 	public DataSet(HashMap<Integer, String> featureMap) {
+		this(featureMap, getNumFeatures(featureMap));
+	}
+
+	/**
+	 * Constructs a new empty dataset (i.e. no examples) with the features
+	 * specified in the featuremap, numbered 0..numFeatures-1
+	 * 
+	 * @param featureMap
+	 * @param numFeatures
+	 */
+	public DataSet(HashMap<Integer, String> featureMap, int numFeatures) {
 		this.featureMap = new HashMap<Integer, String>(featureMap);
+		this.numFeatures = numFeatures;
+	}
+
+	DataSet() {
+	}
+
+	/**
+	 * Save this data set as a binary snapshot that can be loaded much faster than
+	 * the original file using the SNAPSHOTFILE file type.
+	 * 
+	 * @param filename where to save the snapshot
+	 * @throws IOException
+	 */
+	public void saveSnapshot(String filename) throws IOException {
+		DataSetSnapshot.write(this, filename);
 	}
 
 	/**
@@ -123,15 +256,38 @@ public class DataSet {
 	 * have the same features that the data set was already initialized
 	 * with.
 	 * 
+	 * Adding data to a data set backed by a matrix switches it back to
+	 * storing independent examples.
+	 * 
 	 * @param addMe
 	 */
 	public void addData(ArrayList<Example> addMe) {
+		denseData = null;
+		sparseData = null;
+		matrixRows = null;
+		labelIds = null;
+
 		for (Example e : addMe) {
 			data.add(e);
-			labels.add(e.getLabel());
 		}
 	}
 
+	/**
+	 * Replace the examples with the examples of data (e.g. preprocessed
+	 * copies), which must have the same features and labels in the same
+	 * order.  The old examples aren't changed, so other data sets sharing them
+	 * (e.g. the other folds of a cross validation) aren't affected.
+	 * 
+	 * @param data
+	 */
+	void replaceExamples(DataSet data) {
+		this.data = data.data;
+		denseData = data.denseData;
+		sparseData = data.sparseData;
+		matrixRows = data.matrixRows;
+		checkedDetachCount = data.checkedDetachCount;
+	}
+
 	/**
 	 * Add example e to this data set.
 	 * Note: this does NOT change the feature map for this
@@ -139,11 +295,137 @@ public class DataSet {
 	 * have the same features that the data set was already initialized
 	 * with.
 	 * 
+	 * Adding data to a data set backed by a matrix switches it back to
+	 * storing independent examples.
+	 * 
 	 * @param addMe
 	 */
 	public void addData(Example e) {
+		denseData = null;
+		sparseData = null;
+		matrixRows = null;
+		labelIds = null;
 		data.add(e);
-		labels.add(e.getLabel());
+	}
+
+	/**
+	 * Whether the examples in this data set are backed by a dense matrix
+	 * (see getDenseData).
+	 * 
+	 * @return whether the data set is dense
+	 */
+	public boolean isDense() {
+		checkMatrices();
+		return denseData != null;
+	}
+
+	/**
+	 * Get the dense matrix backing this data set.  Row getMatrixRows()[i] of
+	 * the matrix holds the features of getData().get(i).  The matrix may have
+	 * other rows too if this data set was created from another one (e.g. a
+	 * split).
+	 * 
+	 * @return the dense matrix or null if this data set isn't dense
+	 */
+	public DenseMatrix getDenseData() {
+		checkMatrices();
+		return denseData;
+	}
+
+	/**
+	 * Whether the examples in this data set are backed by a compressed sparse
+	 * row matrix (see getSparseData).
+	 * 
+	 * @return whether the data set has a sparse matrix
+	 */
+	public boolean hasSparseMatrix() {
+		checkMatrices();
+		return sparseData != null;
+	}
+
+	/**
+	 * Get the compressed sparse matrix backing this data set.  Row
+	 * getMatrixRows()[i] of the matrix holds the features of getData().get(i).
+	 * The matrix may have other rows too if this data set was created from
+	 * another one (e.g. a split).
+	 * 
+	 * @return the sparse matrix or null if this data set doesn't have one
+	 */
+	public SparseMatrix getSparseData() {
+		checkMatrices();
+		return sparseData;
+	}
+
+	/**
+	 * Get which row of the backing matrix (see getDenseData and getSparseData)
+	 * each example is.
+	 * 
+	 * @return the matrix rows or null if this data set isn't backed by a matrix
+	 */
+	public int[] getMatrixRows() {
+		checkMatrices();
+
+		if (denseData == null && sparseData == null) {
+			return null;
+		}
+
+		if (matrixRows == null) {
+			matrixRows = getRowOrder(false);
+		}
+
+		return matrixRows;
+	}
+
+	/**
+	 * Whether this data set uses every row of its backing matrix, in order
+	 * 
+	 * @return whether getMatrixRows()[i] == i for every row of the matrix
+	 */
+	boolean usesAllMatrixRows() {
+		int[] rows = getMatrixRows();
+		int numRows = denseData != null ? denseData.getNumRows() : sparseData.getNumRows();
+
+		if (rows.length != numRows) {
+			return false;
+		}
+
+		for (int i = 0; i < rows.length; i++) {
+			if (rows[i] != i) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adding or removing features from an example that is a view over a matrix
+	 * gives it its own copy of the data, after which the matrix no longer matches
+	 * the examples.  If that has happened, stop using the matrix.
+	 */
+	private void checkMatrices() {
+		if (denseData == null && sparseData == null) {
+			return;
+		}
+
+		// only look at the examples if some view of the matrix (maybe one that
+		// belongs to another data set sharing it) has stopped being a view
+		int detachCount = denseData != null ? denseData.getDetachCount() : sparseData.getDetachCount();
+
+		if (detachCount == checkedDetachCount) {
+			return;
+		}
+
+		for (Example e : data) {
+			if (!e.isView()) {
+				denseData = null;
+				sparseData = null;
+				matrixRows = null;
+				return;
+			}
+		}
+
+		checkedDetachCount = detachCount;
 	}
 
 	/**
@@ -156,15 +438,110 @@ public class DataSet {
 		return featureMap.keySet();
 	}
 
+	/**
+	 * Get the number of features, i.e. one more than the largest feature
+	 * index.  For hashed text this is the number of hash buckets, whether or
+	 * not the examples use them.
+	 * 
+	 * @return the number of features
+	 */
+	public int getNumFeatures() {
+		return numFeatures;
+	}
+
+	/**
+	 * @param featureMap
+	 * @return one more than the largest feature index in featureMap
+	 */
+	static int getNumFeatures(HashMap<Integer, String> featureMap) {
+		int numFeatures = 0;
+
+		for (int featureIndex : featureMap.keySet()) {
+			numFeatures = Math.max(numFeatures, featureIndex + 1);
+		}
+
+		return numFeatures;
+	}
+
 	/**
 	 * Get all the labels in this data set
 	 * 
 	 * @return the labels
 	 */
 	public Set<Double> getLabels() {
+		int[] counts = getLabelCounts();
+		HashSet<Double> labels = new HashSet<Double>();
+
+		for (int id = 0; id < counts.length; id++) {
+			if (counts[id] > 0) {
+				labels.add(labelDictionary.getLabel(id));
+			}
+		}
+
 		return labels;
 	}
 
+	/**
+	 * Get the dictionary of class ids for the labels (see getLabelIds).  The
+	 * dictionary may also have labels that aren't in this data set if this data
+	 * set was created from another one (e.g. a split).
+	 * 
+	 * @return the label dictionary
+	 */
+	public LabelDictionary getLabelDictionary() {
+		getLabelIds();
+		return labelDictionary;
+	}
+
+	/**
+	 * Get the class id of each example's label:
+	 * getLabelDictionary().getLabel(getLabelIds()[i]) == getData().get(i).getLabel()
+	 * 
+	 * @return the label ids
+	 */
+	public int[] getLabelIds() {
+		if (labelIds == null || labelIds.length != data.size()) {
+			labelIds = new int[data.size()];
+
+			for (int i = 0; i < labelIds.length; i++) {
+				labelIds[i] = labelDictionary.addLabel(data.get(i).getLabel());
+			}
+		} else {
+			// the examples can be changed (e.g. setLabel) without us knowing.
+			// Check against the labels as they are now rather than locking the
+			// (possibly shared) dictionary for every example.
+			int numLabels = labelDictionary.size();
+			double[] labels = labelDictionary.getLabelArray();
+
+			for (int i = 0; i < labelIds.length; i++) {
+				double label = data.get(i).getLabel();
+
+				if (labelIds[i] >= numLabels
+						|| Double.doubleToLongBits(labels[labelIds[i]]) != Double.doubleToLongBits(label)) {
+					labelIds[i] = labelDictionary.addLabel(label);
+				}
+			}
+		}
+
+		return labelIds;
+	}
+
+	/**
+	 * Count how many examples have each label
+	 * 
+	 * @return the number of examples with each label id (see getLabelIds)
+	 */
+	public int[] getLabelCounts() {
+		int[] ids = getLabelIds();
+		int[] counts = new int[labelDictionary.size()];
+
+		for (int id : ids) {
+			counts[id]++;
+		}
+
+		return counts;
+	}
+
 	/**
 	 * Split this data set into two data sets of size:
 	 * - total_size * fraction
@@ -175,29 +552,81 @@ public class DataSet {
 	 * @return a split of the data
 	 */
 	public DataSetSplit split(double fraction) {
-		ArrayList<Example> newdata = (ArrayList<Example>) data.clone();
-		Collections.shuffle(newdata, new Random(System.nanoTime()));
+		int[] order = getRowOrder(true);
+		int trainSize = (int) Math.floor(data.size() * fraction);
 
-		ArrayList<Example> train = new ArrayList<Example>();
-		ArrayList<Example> test = new ArrayList<Example>();
+		DataSet dTrain = selectRows(Arrays.copyOfRange(order, 0, trainSize));
+		DataSet dTest = selectRows(Arrays.copyOfRange(order, trainSize, order.length));
 
-		int trainSize = (int) Math.floor(data.size() * fraction);
+		return new DataSetSplit(dTrain, dTest);
+	}
 
-		for (int i = 0; i < newdata.size(); i++) {
-			if (i < trainSize) {
-				train.add(newdata.get(i));
-			} else {
-				test.add(newdata.get(i));
+	/**
+	 * Get the row numbers 0 to size-1 of this data set, optionally shuffled.
+	 * 
+	 * @param randomize whether to shuffle the row numbers
+	 * @return the row numbers
+	 */
+	int[] getRowOrder(boolean randomize) {
+		int[] order = new int[data.size()];
+
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+
+		if (randomize) {
+			Random rand = new Random(System.nanoTime());
+
+			for (int i = order.length - 1; i > 0; i--) {
+				int j = rand.nextInt(i + 1);
+				int temp = order[i];
+				order[i] = order[j];
+				order[j] = temp;
 			}
 		}
 
-		DataSet dTrain = new DataSet(featureMap);
-		dTrain.addData(train);
+		return order;
+	}
+
+	/**
+	 * Create a new data set containing the examples at the given rows (in that
+	 * order).  Nothing is copied: the new data set shares this data set's
+	 * examples, feature map and backing matrix, so changes to the examples in
+	 * one are seen in the other.
+	 * 
+	 * @param rows the rows to include
+	 * @return the new data set
+	 */
+	DataSet selectRows(int[] rows) {
+		DataSet selected = new DataSet();
+		selected.featureMap = featureMap;
+		selected.numFeatures = numFeatures;
+		selected.data = new ArrayList<Example>(rows.length);
+		// look up the labels here so data sets sharing the dictionary (e.g. the
+		// folds of a cross validation) only read it
+		int[] parentLabelIds = getLabelIds();
+		selected.labelDictionary = labelDictionary;
+		selected.labelIds = new int[rows.length];
+
+		for (int i = 0; i < rows.length; i++) {
+			selected.data.add(data.get(rows[i]));
+			selected.labelIds[i] = parentLabelIds[rows[i]];
+		}
+
+		int[] parentRows = getMatrixRows();
 
-		DataSet dTest = new DataSet(featureMap);
-		dTest.addData(test);
+		if (parentRows != null) {
+			selected.denseData = denseData;
+			selected.sparseData = sparseData;
+			selected.checkedDetachCount = checkedDetachCount;
+			selected.matrixRows = new int[rows.length];
 
-		return new DataSetSplit(dTrain, dTest);
+			for (int i = 0; i < rows.length; i++) {
+				selected.matrixRows[i] = parentRows[rows[i]];
+			}
+		}
+
+		return selected;
 	}
 
 	/**
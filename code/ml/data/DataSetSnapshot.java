@@ -0,0 +1,376 @@
+package ml.data;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes data sets in a binary snapshot format so that they can be
+ * loaded without parsing the original text or CSV file again.
+ * 
+ * All numbers are little-endian.  The layout is:
+ * 
+ *   int magic, int version
+ *   int number of features, then for each: int index, int name length (-1 for no
+ *       name), UTF-8 name bytes
+ *   int number of labels, then each label as a double (in class id order)
+ *   int number of rows, then each row's label as a double
+ *   int storage type (DENSE or SPARSE) and int number of columns, followed by
+ *   - DENSE: the row-major values, rows*columns doubles
+ *   - SPARSE: int number of stored entries, the CSR row pointers (rows+1 ints),
+ *     column indices (ints) and values (doubles)
+ * 
+ * Snapshots are read by memory mapping the file and bulk copying each array out
+ * of the mapping, so nothing is parsed and the file contents can be shared
+ * through the OS page cache between processes.
+ */
+class DataSetSnapshot {
+	private static final int MAGIC = 0x4d4c4453; // "MLDS"
+	private static final int VERSION = 1;
+
+	private static final int DENSE = 1;
+	private static final int SPARSE = 2;
+
+	/**
+	 * Write dataset to filename.  Data sets that are not backed by a dense
+	 * matrix are written in sparse form.
+	 * 
+	 * @param dataset
+	 * @param filename
+	 * @throws IOException
+	 */
+	static void write(DataSet dataset, String filename) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			SnapshotWriter out = new SnapshotWriter(channel);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+
+			HashMap<Integer, String> featureMap = dataset.getFeatureMap();
+			out.putInt(featureMap.size());
+
+			for (Map.Entry<Integer, String> feature : featureMap.entrySet()) {
+				out.putInt(feature.getKey());
+
+				if (feature.getValue() == null) {
+					out.putInt(-1);
+				} else {
+					byte[] name = feature.getValue().getBytes(StandardCharsets.UTF_8);
+					out.putInt(name.length);
+					out.putBytes(name);
+				}
+			}
+
+			// the labels in class id order, so the ids are the same when read back
+			double[] labels = dataset.getLabelDictionary().getLabels();
+			out.putInt(labels.length);
+			out.putDoubles(labels);
+
+			ArrayList<Example> examples = dataset.getData();
+			out.putInt(examples.size());
+
+			for (Example e : examples) {
+				out.putDouble(e.getLabel());
+			}
+
+			// data sets that only use some rows of their matrix (e.g. splits) are
+			// written as a copy of those rows
+			if (dataset.isDense()) {
+				DenseMatrix matrix = dataset.usesAllMatrixRows() ? dataset.getDenseData() :
+						dataset.getDenseData().selectRows(dataset.getMatrixRows());
+				out.putInt(DENSE);
+				out.putInt(matrix.getNumColumns());
+				out.putDoubles(matrix.getRowMajorData());
+			} else {
+				SparseMatrix matrix;
+
+				if (!dataset.hasSparseMatrix()) {
+					matrix = new SparseMatrix(examples, getNumColumns(dataset));
+				} else if (dataset.usesAllMatrixRows()) {
+					matrix = dataset.getSparseData();
+				} else {
+					matrix = dataset.getSparseData().selectRows(dataset.getMatrixRows());
+				}
+
+				out.putInt(SPARSE);
+				out.putInt(matrix.getNumColumns());
+				out.putInt(matrix.getNumNonZero());
+				out.putInts(matrix.getRowPointers());
+				out.putInts(matrix.getColumnIndices());
+				out.putDoubles(matrix.getValues());
+			}
+
+			out.flush();
+		}
+	}
+
+	/**
+	 * Read the snapshot in filename into the (empty) dataset
+	 * 
+	 * @param filename
+	 * @param dataset
+	 * @throws IOException
+	 */
+	static void read(String filename, DataSet dataset) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			SnapshotReader in = new SnapshotReader(channel);
+
+			if (in.getInt() != MAGIC) {
+				throw new IOException("Not a data set snapshot: " + filename);
+			}
+
+			int version = in.getInt();
+
+			if (version != VERSION) {
+				throw new IOException("Unsupported snapshot version " + version + ": " + filename);
+			}
+
+			int numFeatures = in.getInt();
+			HashMap<Integer, String> featureMap = new HashMap<Integer, String>();
+
+			for (int i = 0; i < numFeatures; i++) {
+				int index = in.getInt();
+				int length = in.getInt();
+				featureMap.put(index, length < 0 ? null : new String(in.getBytes(length), StandardCharsets.UTF_8));
+			}
+
+			int numLabels = in.getInt();
+			double[] labels = new double[numLabels];
+			in.getDoubles(labels);
+
+			for (double label : labels) {
+				dataset.getLabelDictionary().addLabel(label);
+			}
+
+			int numRows = in.getInt();
+			double[] rowLabels = new double[numRows];
+			in.getDoubles(rowLabels);
+
+			int storage = in.getInt();
+			int numColumns = in.getInt();
+
+			if (storage == DENSE) {
+				double[] values = new double[numRows * numColumns];
+				in.getDoubles(values);
+				dataset.initialize(featureMap, new DenseMatrix(numRows, numColumns, values), rowLabels);
+			} else if (storage == SPARSE) {
+				int numNonZero = in.getInt();
+				int[] rowPointers = new int[numRows + 1];
+				int[] columnIndices = new int[numNonZero];
+				double[] values = new double[numNonZero];
+				in.getInts(rowPointers);
+				in.getInts(columnIndices);
+				in.getDoubles(values);
+				dataset.initialize(featureMap, new SparseMatrix(numColumns, rowPointers, columnIndices, values),
+						rowLabels);
+			} else {
+				throw new IOException("Unknown snapshot storage type " + storage + ": " + filename);
+			}
+		}
+	}
+
+	/**
+	 * @param dataset
+	 * @return the number of columns needed to hold every feature of dataset
+	 */
+	private static int getNumColumns(DataSet dataset) {
+		int numColumns = dataset.getNumFeatures();
+
+		for (Example e : dataset.getData()) {
+			if (e.getFeatureCount() > 0) {
+				numColumns = Math.max(numColumns, e.getFeatureIndexAt(e.getFeatureCount() - 1) + 1);
+			}
+		}
+
+		return numColumns;
+	}
+
+	/**
+	 * Buffered little-endian writer for a file channel
+	 */
+	static class SnapshotWriter {
+		private FileChannel channel;
+		private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+		public SnapshotWriter(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		public void flush() throws IOException {
+			buffer.flip();
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+
+			buffer.clear();
+		}
+
+		public void putInt(int value) throws IOException {
+			ensure(4);
+			buffer.putInt(value);
+		}
+
+		public void putDouble(double value) throws IOException {
+			ensure(8);
+			buffer.putDouble(value);
+		}
+
+		public void putBytes(byte[] bytes) throws IOException {
+			for (int i = 0; i < bytes.length;) {
+				ensure(1);
+				int count = Math.min(bytes.length - i, buffer.remaining());
+				buffer.put(bytes, i, count);
+				i += count;
+			}
+		}
+
+		public void putLong(long value) throws IOException {
+			ensure(8);
+			buffer.putLong(value);
+		}
+
+		public void putChars(char[] values) throws IOException {
+			for (int i = 0; i < values.length;) {
+				ensure(2);
+				int count = Math.min(values.length - i, buffer.remaining() / 2);
+				buffer.asCharBuffer().put(values, i, count);
+				buffer.position(buffer.position() + count * 2);
+				i += count;
+			}
+		}
+
+		public void putInts(int[] values) throws IOException {
+			for (int i = 0; i < values.length;) {
+				ensure(4);
+				int count = Math.min(values.length - i, buffer.remaining() / 4);
+				buffer.asIntBuffer().put(values, i, count);
+				buffer.position(buffer.position() + count * 4);
+				i += count;
+			}
+		}
+
+		public void putLongs(long[] values) throws IOException {
+			for (int i = 0; i < values.length;) {
+				ensure(8);
+				int count = Math.min(values.length - i, buffer.remaining() / 8);
+				buffer.asLongBuffer().put(values, i, count);
+				buffer.position(buffer.position() + count * 8);
+				i += count;
+			}
+		}
+
+		public void putDoubles(double[] values) throws IOException {
+			for (int i = 0; i < values.length;) {
+				ensure(8);
+				int count = Math.min(values.length - i, buffer.remaining() / 8);
+				buffer.asDoubleBuffer().put(values, i, count);
+				buffer.position(buffer.position() + count * 8);
+				i += count;
+			}
+		}
+	}
+
+	/**
+	 * Little-endian reader that maps the file a window at a time
+	 */
+	static class SnapshotReader {
+		private static final int WINDOW_SIZE = 64 << 20;
+
+		private FileChannel channel;
+		private long size;
+		private long position = 0; // position in the file of the next read
+		private long windowStart = 0; // position in the file of the start of window
+		private ByteBuffer window = null;
+
+		public SnapshotReader(FileChannel channel) throws IOException {
+			this.channel = channel;
+			size = channel.size();
+		}
+
+		/**
+		 * Make sure the next bytes of the file are mapped and return the window
+		 * positioned at them
+		 * 
+		 * @param bytes
+		 * @return the window
+		 * @throws IOException
+		 */
+		private ByteBuffer next(int bytes) throws IOException {
+			if (window == null || position + bytes > windowStart + window.limit()) {
+				long length = Math.min(Math.max(bytes, WINDOW_SIZE), size - position);
+
+				if (length < bytes) {
+					throw new EOFException("Snapshot is truncated");
+				}
+
+				window = channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+				windowStart = position;
+			}
+
+			window.position((int) (position - windowStart));
+			position += bytes;
+			return window;
+		}
+
+		public int getInt() throws IOException {
+			return next(4).getInt();
+		}
+
+		public byte[] getBytes(int length) throws IOException {
+			byte[] bytes = new byte[length];
+			next(length).get(bytes);
+			return bytes;
+		}
+
+		public long getLong() throws IOException {
+			return next(8).getLong();
+		}
+
+		public void getChars(char[] values) throws IOException {
+			for (int i = 0; i < values.length;) {
+				int count = Math.min(values.length - i, WINDOW_SIZE / 2);
+				next(count * 2).asCharBuffer().get(values, i, count);
+				i += count;
+			}
+		}
+
+		public void getInts(int[] values) throws IOException {
+			for (int i = 0; i < values.length;) {
+				int count = Math.min(values.length - i, WINDOW_SIZE / 4);
+				next(count * 4).asIntBuffer().get(values, i, count);
+				i += count;
+			}
+		}
+
+		public void getLongs(long[] values) throws IOException {
+			for (int i = 0; i < values.length;) {
+				int count = Math.min(values.length - i, WINDOW_SIZE / 8);
+				next(count * 8).asLongBuffer().get(values, i, count);
+				i += count;
+			}
+		}
+
+		public void getDoubles(double[] values) throws IOException {
+			for (int i = 0; i < values.length;) {
+				int count = Math.min(values.length - i, WINDOW_SIZE / 8);
+				next(count * 8).asDoubleBuffer().get(values, i, count);
+				i += count;
+			}
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package ml.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dense storage for a data set where every example has a value for every
+ * feature (e.g. data read from a CSV file).
+ * 
+ * The values are kept in a single row-major array: the value of feature c
+ * for row r is at r*numColumns + c.  The examples handed out by getRow are
+ * views over this array, so changing a value through an example changes the
+ * matrix as well.  A column-major copy can be requested for algorithms that
+ * scan one feature at a time.
+ */
+public class DenseMatrix {
+	private int numRows;
+	private int numColumns;
+	private double[] data; // row-major values
+	private int[] columnIndices; // 0..numColumns-1, shared by all row views
+	private AtomicInteger detachCount = new AtomicInteger(); // row views that stopped being views
+
+	/**
+	 * Create a new matrix with all values set to 0
+	 * 
+	 * @param numRows
+	 * @param numColumns
+	 */
+	public DenseMatrix(int numRows, int numColumns){
+		this.numRows = numRows;
+		this.numColumns = numColumns;
+		data = new double[numRows*numColumns];
+		initializeColumnIndices();
+	}
+
+	/**
+	 * Create a matrix over existing row-major data
+	 * 
+	 * @param numRows
+	 * @param numColumns
+	 * @param data the values, numRows*numColumns long
+	 */
+	DenseMatrix(int numRows, int numColumns, double[] data){
+		this.numRows = numRows;
+		this.numColumns = numColumns;
+		this.data = data;
+		initializeColumnIndices();
+	}
+
+	/**
+	 * Create a new matrix containing the values of the examples.  Features with
+	 * index numColumns or larger are ignored and features that an example doesn't
+	 * have are 0.
+	 * 
+	 * @param examples
+	 * @param numColumns
+	 */
+	public DenseMatrix(ArrayList<Example> examples, int numColumns){
+		this(examples.size(), numColumns);
+
+		for( int r = 0; r < numRows; r++ ){
+			Example e = examples.get(r);
+			int rowStart = r*numColumns;
+
+			for( int i = 0; i < e.getFeatureCount(); i++ ){
+				int featureIndex = e.getFeatureIndexAt(i);
+
+				if( featureIndex < numColumns ){
+					data[rowStart + featureIndex] = e.getFeatureValueAt(i);
+				}
+			}
+		}
+	}
+
+	private void initializeColumnIndices(){
+		columnIndices = new int[numColumns];
+
+		for( int c = 0; c < numColumns; c++ ){
+			columnIndices[c] = c;
+		}
+	}
+
+	/**
+	 * @return the number of rows (examples)
+	 */
+	public int getNumRows(){
+		return numRows;
+	}
+
+	/**
+	 * @return the number of columns (features)
+	 */
+	public int getNumColumns(){
+		return numColumns;
+	}
+
+	/**
+	 * Get the value at row, column
+	 * 
+	 * @param row
+	 * @param column
+	 * @return the value
+	 */
+	public double get(int row, int column){
+		return data[row*numColumns + column];
+	}
+
+	/**
+	 * Set the value at row, column
+	 * 
+	 * @param row
+	 * @param column
+	 * @param value
+	 */
+	public void set(int row, int column, double value){
+		data[row*numColumns + column] = value;
+	}
+
+	/**
+	 * Get the underlying row-major array.  Row r starts at r*getNumColumns().
+	 * Changes to the array are visible through the matrix and its row views.
+	 * 
+	 * @return the row-major data
+	 */
+	public double[] getRowMajorData(){
+		return data;
+	}
+
+	/**
+	 * Get a column-major copy of the data.  Column c starts at c*getNumRows().
+	 * The copy is made on every call, so it reflects the current values but
+	 * changes to it are not reflected in the matrix.
+	 * 
+	 * @return the column-major data
+	 */
+	public double[] getColumnMajorData(){
+		double[] columns = new double[data.length];
+
+		for( int r = 0; r < numRows; r++ ){
+			int rowStart = r*numColumns;
+
+			for( int c = 0; c < numColumns; c++ ){
+				columns[c*numRows + r] = data[rowStart + c];
+			}
+		}
+
+		return columns;
+	}
+
+	/**
+	 * @return how many of the examples handed out by getRow have stopped being
+	 * views (e.g. because a feature was added to one)
+	 */
+	int getDetachCount(){
+		return detachCount.get();
+	}
+
+	/**
+	 * Get an example that is a view over row
+	 * 
+	 * @param row
+	 * @param label the label for the example
+	 * @return the example
+	 */
+	public Example getRow(int row, double label){
+		return new Example(columnIndices, 0, data, row*numColumns, numColumns, label, detachCount);
+	}
+
+	/**
+	 * Create a new matrix containing copies of the rows (in order)
+	 * 
+	 * @param rows the rows to copy
+	 * @return the new matrix
+	 */
+	public DenseMatrix selectRows(int[] rows){
+		DenseMatrix selected = new DenseMatrix(rows.length, numColumns);
+
+		for( int i = 0; i < rows.length; i++ ){
+			System.arraycopy(data, rows[i]*numColumns, selected.data, i*numColumns, numColumns);
+		}
+
+		return selected;
+	}
+
+	public String toString(){
+		StringBuffer buffer = new StringBuffer();
+
+		for( int r = 0; r < numRows; r++ ){
+			int rowStart = r*numColumns;
+			buffer.append(Arrays.toString(Arrays.copyOfRange(data, rowStart, rowStart + numColumns)));
+			buffer.append("\n");
+		}
+
+		return buffer.toString();
+	}
+}
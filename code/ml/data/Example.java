@@ -1,10 +1,14 @@
 package ml.data;
 
-import java.util.Collections;
-import java.util.ArrayList;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ml.utils.VectorMath;
 
 /**
  * A class to represent an example
@@ -12,22 +16,69 @@ import java.util.Set;
  * @author dkauchak
  */
 public class Example {
+	private static final int INITIAL_CAPACITY = 8;
+
 	// We'll use a sparse representation of the features.
 	// Rather than keeping the name of the feature (i.e. the header information),
 	// we'll
 	// index the features starting at 0. The DataSet class will keep a mapping from
 	// feature index to the actual name.
-	private HashMap<Integer, Double> sparseData;
+	//
+	// The features are stored as two parallel arrays sorted by feature index so
+	// that no Integer/Double objects are needed per feature. Only the first
+	// numFeatures entries of each array are in use.
+	//
+	// Rows of a DenseMatrix or SparseMatrix are examples whose arrays are shared
+	// with the matrix: the features start at indexOffset in indices and at
+	// valueOffset in values. Changing an existing value writes through to the
+	// matrix; adding or removing a feature first gives the example its own copy
+	// of the arrays.
+	private int[] indices;
+	private double[] values;
+	private int indexOffset = 0;
+	private int valueOffset = 0;
+	private int numFeatures = 0;
+	private boolean shared = false;
+	// counts the views of the matrix that have stopped being views (null once
+	// this example isn't a view)
+	private AtomicInteger detachCount = null;
 	private double label; // the label (assuming it has one)
 
 	public Example() {
-		sparseData = new HashMap<Integer, Double>();
+		indices = new int[INITIAL_CAPACITY];
+		values = new double[INITIAL_CAPACITY];
 	}
 
 	public Example(Example e) {
 		// copy everything
 		label = e.label;
-		sparseData = new HashMap<Integer, Double>(e.sparseData);
+		numFeatures = e.numFeatures;
+		indices = Arrays.copyOfRange(e.indices, e.indexOffset, e.indexOffset + Math.max(numFeatures, 1));
+		values = Arrays.copyOfRange(e.values, e.valueOffset, e.valueOffset + Math.max(numFeatures, 1));
+	}
+
+	/**
+	 * Create an example that is a view over a row of a DenseMatrix or SparseMatrix.
+	 * 
+	 * @param indices     the feature indices, shared
+	 * @param indexOffset where this row starts in indices
+	 * @param values      the feature values, shared
+	 * @param valueOffset where this row starts in values
+	 * @param numFeatures the number of features in the row
+	 * @param label
+	 * @param detachCount the matrix's count of detached views, incremented if
+	 *                    this example stops being a view
+	 */
+	Example(int[] indices, int indexOffset, double[] values, int valueOffset, int numFeatures, double label,
+			AtomicInteger detachCount) {
+		this.indices = indices;
+		this.indexOffset = indexOffset;
+		this.values = values;
+		this.valueOffset = valueOffset;
+		this.numFeatures = numFeatures;
+		this.label = label;
+		this.detachCount = detachCount;
+		shared = true;
 	}
 
 	/**
@@ -37,19 +88,41 @@ public class Example {
 	 * @param value      the value to be added
 	 */
 	public void addFeature(int featureNum, double value) {
-		sparseData.put(featureNum, value);
+		// the readers add features in increasing order, so check the end first
+		if (numFeatures == 0 || indices[indexOffset + numFeatures - 1] < featureNum) {
+			insertAt(numFeatures, featureNum, value);
+			return;
+		}
+
+		int pos = findPosition(featureNum);
+
+		if (pos >= 0) {
+			values[valueOffset + pos] = value;
+		} else {
+			insertAt(-(pos + 1), featureNum, value);
+		}
 	}
 
 	/**
 	 * Remove a feature from this example
-	 *
+	 * 
 	 * @param featureNum the index of the feature to be removed
+	 * @return the value the feature had or null if the example did not have it
 	 */
 	public Double removeFeature(int featureNum) {
-		double featureVal = sparseData.get(featureNum);
-		sparseData.remove(featureNum);
-		return featureVal;
+		int pos = findPosition(featureNum);
 
+		if (pos < 0) {
+			return null;
+		}
+
+		detach();
+
+		double featureVal = values[pos];
+		System.arraycopy(indices, pos + 1, indices, pos, numFeatures - pos - 1);
+		System.arraycopy(values, pos + 1, values, pos, numFeatures - pos - 1);
+		numFeatures--;
+		return featureVal;
 	}
 
 	/**
@@ -59,7 +132,13 @@ public class Example {
 	 * @return the value for featureNum for this example
 	 */
 	public double getFeature(int featureNum) {
-		return sparseData.containsKey(featureNum) ? sparseData.get(featureNum) : 0.0;
+		// dense examples store feature i at position i, so avoid the search
+		if (featureNum >= 0 && featureNum < numFeatures && indices[indexOffset + featureNum] == featureNum) {
+			return values[valueOffset + featureNum];
+		}
+
+		int pos = findPosition(featureNum);
+		return pos >= 0 ? values[valueOffset + pos] : 0.0;
 	}
 
 	/**
@@ -69,16 +148,142 @@ public class Example {
 	 * @param value
 	 */
 	public void setFeature(int featureNum, double value) {
-		sparseData.put(featureNum, value);
+		addFeature(featureNum, value);
 	}
 
 	/**
-	 * Get all the features that this example has (indices).
+	 * Get all the features that this example has (indices). The set is a
+	 * read-only view over this example and iterates in increasing index order.
 	 * 
 	 * @return the set of features
 	 */
 	public Set<Integer> getFeatureSet() {
-		return sparseData.keySet();
+		return new FeatureIndexSet();
+	}
+
+	/**
+	 * Get the number of features stored in this example. Together with
+	 * getFeatureIndexAt and getFeatureValueAt this allows iterating over the
+	 * features without any allocation:
+	 * 
+	 * for( int i = 0; i < e.getFeatureCount(); i++ ){
+	 *   int featureIndex = e.getFeatureIndexAt(i);
+	 *   double value = e.getFeatureValueAt(i);
+	 * }
+	 * 
+	 * @return the number of stored features
+	 */
+	public int getFeatureCount() {
+		return numFeatures;
+	}
+
+	/**
+	 * Get the feature index stored at position (0 to getFeatureCount()-1).
+	 * Positions are ordered by increasing feature index.
+	 * 
+	 * @param position
+	 * @return the feature index at that position
+	 */
+	public int getFeatureIndexAt(int position) {
+		return indices[indexOffset + position];
+	}
+
+	/**
+	 * Get the feature value stored at position (0 to getFeatureCount()-1).
+	 * 
+	 * @param position
+	 * @return the feature value at that position
+	 */
+	public double getFeatureValueAt(int position) {
+		return values[valueOffset + position];
+	}
+
+	/**
+	 * Overwrite the feature value stored at position (0 to getFeatureCount()-1).
+	 * 
+	 * @param position
+	 * @param value
+	 */
+	public void setFeatureValueAt(int position, double value) {
+		values[valueOffset + position] = value;
+	}
+
+	/**
+	 * Call visitor on every feature stored in this example in increasing
+	 * feature index order.
+	 * 
+	 * @param visitor
+	 */
+	public void forEachNonZero(FeatureVisitor visitor) {
+		for (int i = 0; i < numFeatures; i++) {
+			visitor.visit(indices[indexOffset + i], values[valueOffset + i]);
+		}
+	}
+
+	/**
+	 * The dot product of the features with a dense weight vector indexed by
+	 * feature.  Features with indices past the end of weights count as weight
+	 * 0.
+	 *
+	 * @param weights
+	 * @return the dot product
+	 */
+	public double dot(double[] weights) {
+		int count = countBelow(weights.length);
+
+		// a row with every feature (e.g. of a DenseMatrix) is a dense vector
+		if (count > 0 && indices[indexOffset + count - 1] == count - 1) {
+			return VectorMath.dot(values, valueOffset, weights, 0, count);
+		}
+
+		return VectorMath.sparseDot(indices, indexOffset, values, valueOffset, count, weights);
+	}
+
+	/**
+	 * Add scale times the features to a dense weight vector indexed by
+	 * feature.  Features with indices past the end of weights are skipped.
+	 *
+	 * @param weights
+	 * @param scale
+	 */
+	public void addTo(double[] weights, double scale) {
+		int count = countBelow(weights.length);
+
+		if (count > 0 && indices[indexOffset + count - 1] == count - 1) {
+			VectorMath.axpy(scale, values, valueOffset, weights, 0, count);
+		} else {
+			VectorMath.sparseAxpy(scale, indices, indexOffset, values, valueOffset, count, weights);
+		}
+	}
+
+	/**
+	 * @return the sum of the squares of the feature values
+	 */
+	public double getSquaredNorm() {
+		return VectorMath.squaredNorm(values, valueOffset, numFeatures);
+	}
+
+	/**
+	 * Multiply every feature value by alpha.  Like setFeatureValueAt, this
+	 * writes through to the matrix if the example is a row of one.
+	 *
+	 * @param alpha
+	 */
+	public void scale(double alpha) {
+		VectorMath.scale(alpha, values, valueOffset, numFeatures);
+	}
+
+	/**
+	 * @param length
+	 * @return the number of stored features with index less than length
+	 */
+	private int countBelow(int length) {
+		if (numFeatures == 0 || indices[indexOffset + numFeatures - 1] < length) {
+			return numFeatures;
+		}
+
+		int pos = findPosition(length);
+		return pos >= 0 ? pos : -pos - 1;
 	}
 
 	/**
@@ -106,18 +311,18 @@ public class Example {
 	 * @return whether or not these examples have the same feature values
 	 */
 	public boolean equalFeatures(Example other) {
-		return sparseData.equals(other.sparseData);
+		return Arrays.equals(indices, indexOffset, indexOffset + numFeatures,
+				other.indices, other.indexOffset, other.indexOffset + other.numFeatures) &&
+				Arrays.equals(values, valueOffset, valueOffset + numFeatures,
+						other.values, other.valueOffset, other.valueOffset + other.numFeatures);
 	}
 
 	public String toString() {
 		StringBuffer buffer = new StringBuffer();
 		buffer.append(label);
 
-		ArrayList<Integer> indices = new ArrayList<Integer>(sparseData.keySet());
-		Collections.sort(indices);
-
-		for (int featureIndex : indices) {
-			buffer.append(" " + featureIndex + ":" + valueToString(sparseData.get(featureIndex)));
+		for (int i = 0; i < numFeatures; i++) {
+			buffer.append(" " + indices[indexOffset + i] + ":" + valueToString(values[valueOffset + i]));
 		}
 
 		return buffer.toString();
@@ -127,11 +332,8 @@ public class Example {
 		StringBuffer buffer = new StringBuffer();
 		buffer.append(label);
 
-		ArrayList<Integer> indices = new ArrayList<Integer>(sparseData.keySet());
-		Collections.sort(indices);
-
-		for (int featureIndex : indices) {
-			buffer.append(" " + featureMap.get(featureIndex) + ":" + valueToString(sparseData.get(featureIndex)));
+		for (int i = 0; i < numFeatures; i++) {
+			buffer.append(" " + featureMap.get(indices[indexOffset + i]) + ":" + valueToString(values[valueOffset + i]));
 		}
 
 		return buffer.toString();
@@ -145,11 +347,8 @@ public class Example {
 	public String toCSVString() {
 		StringBuffer buffer = new StringBuffer();
 
-		ArrayList<Integer> indices = new ArrayList<Integer>(sparseData.keySet());
-		Collections.sort(indices);
-
-		for (int featureIndex : indices) {
-			buffer.append(valueToString(sparseData.get(featureIndex)) + ",");
+		for (int i = 0; i < numFeatures; i++) {
+			buffer.append(valueToString(values[valueOffset + i]) + ",");
 		}
 
 		buffer.append(valueToString(label));
@@ -157,6 +356,91 @@ public class Example {
 		return buffer.toString();
 	}
 
+	/**
+	 * Insert a new feature at position pos, shifting the later features over
+	 * 
+	 * @param pos
+	 * @param featureNum
+	 * @param value
+	 */
+	private void insertAt(int pos, int featureNum, double value) {
+		detach();
+
+		if (numFeatures == indices.length) {
+			int newCapacity = Math.max(INITIAL_CAPACITY, indices.length * 2);
+			indices = Arrays.copyOf(indices, newCapacity);
+			values = Arrays.copyOf(values, newCapacity);
+		}
+
+		System.arraycopy(indices, pos, indices, pos + 1, numFeatures - pos);
+		System.arraycopy(values, pos, values, pos + 1, numFeatures - pos);
+		indices[pos] = featureNum;
+		values[pos] = value;
+		numFeatures++;
+	}
+
+	/**
+	 * @return whether this example is still a view over a row of a matrix
+	 */
+	boolean isView() {
+		return shared;
+	}
+
+	/**
+	 * Replace all of the features of this example.  The example takes
+	 * ownership of the arrays (which are no longer shared with a matrix).
+	 *
+	 * @param indices     the feature indices, in increasing order
+	 * @param values      the feature values
+	 * @param numFeatures the number of features in the arrays
+	 */
+	void setFeatures(int[] indices, double[] values, int numFeatures) {
+		stopSharing();
+		this.indices = indices;
+		this.values = values;
+		this.numFeatures = numFeatures;
+		indexOffset = 0;
+		valueOffset = 0;
+	}
+
+	/**
+	 * Find the position of featureNum in this example
+	 * 
+	 * @param featureNum
+	 * @return the position or, if it isn't there, (-(insertion point) - 1)
+	 */
+	private int findPosition(int featureNum) {
+		int pos = Arrays.binarySearch(indices, indexOffset, indexOffset + numFeatures, featureNum);
+		return pos >= 0 ? pos - indexOffset : pos + indexOffset;
+	}
+
+	/**
+	 * If the arrays are shared with a matrix, switch to a private copy so
+	 * that structural changes don't affect the matrix.
+	 */
+	private void detach() {
+		if (shared) {
+			int capacity = Math.max(INITIAL_CAPACITY, numFeatures + 1);
+			indices = Arrays.copyOfRange(indices, indexOffset, indexOffset + capacity);
+			values = Arrays.copyOfRange(values, valueOffset, valueOffset + capacity);
+			indexOffset = 0;
+			valueOffset = 0;
+			stopSharing();
+		}
+	}
+
+	/**
+	 * Record that this example is no longer a view, so data sets over the
+	 * matrix know to check their examples (see DataSet.checkMatrices)
+	 */
+	private void stopSharing() {
+		if (shared) {
+			shared = false;
+			detachCount.incrementAndGet();
+			detachCount = null;
+		}
+	}
+
 	/**
 	 * Helper function to output integers as integer strings instead of as doubles
 	 * 
@@ -170,4 +454,41 @@ public class Example {
 			return Double.toString(val);
 		}
 	}
+
+	/**
+	 * Read-only set view over the feature indices of this example
+	 */
+	private class FeatureIndexSet extends AbstractSet<Integer> {
+		@Override
+		public boolean contains(Object o) {
+			return o instanceof Integer &&
+					findPosition((Integer) o) >= 0;
+		}
+
+		@Override
+		public int size() {
+			return numFeatures;
+		}
+
+		@Override
+		public Iterator<Integer> iterator() {
+			return new Iterator<Integer>() {
+				private int next = 0;
+
+				@Override
+				public boolean hasNext() {
+					return next < numFeatures;
+				}
+
+				@Override
+				public Integer next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+
+					return indices[indexOffset + next++];
+				}
+			};
+		}
+	}
 }
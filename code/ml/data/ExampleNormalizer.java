@@ -1,7 +1,6 @@
 package ml.data;
 
-import java.util.ArrayList;
-import java.util.Set;
+import java.util.List;
 
 /**
  * Class that preprocess data
@@ -9,27 +8,26 @@ import java.util.Set;
  * @author Collins Kariuki
  *
  */
-public class ExampleNormalizer implements DataPreprocessor {
+public class ExampleNormalizer implements DataPreprocessor, ExampleTransformer {
 
     @Override
     public void preprocessTrain(DataSet train) {
-        ArrayList<Example> examples = train.getData();
-        for (Example e : examples) {
-            Set<Integer> featureIndices = e.getFeatureSet();
+        // normalize copies, since other data sets (e.g. the other folds of a
+        // cross validation) may share the examples
+        train.replaceExamples(PreprocessingPipeline.transformFitted(train,
+                Runtime.getRuntime().availableProcessors(), this));
+    }
 
-            double normalization = 0.0;
-            // for each feature, add the square of the value to the normalization
-            for (int index : featureIndices) {
-                double featureValue = e.getFeature(index);
-                normalization += Math.pow(featureValue, 2);
-            }
-            normalization = Math.sqrt(normalization);
+    @Override
+    public void fit(List<Example> examples, int numFeatures) {
+        // each example is normalized on its own, so there's nothing to learn
+    }
 
-            for (int index : featureIndices) {
-                double updatedValue = e.getFeature(index) / normalization;
-                e.setFeature(index, updatedValue);
-            }
-        }
+    @Override
+    public void transform(Example e) {
+        // divide every feature by the L2 norm of the example
+        double normalization = Math.sqrt(e.getSquaredNorm());
+        e.scale(1.0 / normalization);
     }
 
     @Override
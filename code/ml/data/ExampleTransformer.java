@@ -0,0 +1,29 @@
+package ml.data;
+
+import java.util.List;
+
+/**
+ * A preprocessing step that is fit to the training data and then applied one
+ * example at a time.  Steps can be chained in a PreprocessingPipeline, which
+ * applies them to copies of the examples so the original data is never
+ * changed.
+ */
+public interface ExampleTransformer {
+	/**
+	 * Fit this step to the training examples.  The examples must not be
+	 * changed (they may be the original data).
+	 *
+	 * @param examples
+	 * @param numFeatures the number of features in the data (indices 0 to
+	 *                    numFeatures-1)
+	 */
+	public void fit(List<Example> examples, int numFeatures);
+
+	/**
+	 * Apply this step to example, changing it.  Should only be called *after*
+	 * fit has been called.
+	 *
+	 * @param example
+	 */
+	public void transform(Example example);
+}
@@ -0,0 +1,155 @@
+package ml.data;
+
+import java.util.HashMap;
+
+/**
+ * Maps words to one of 2^bits features by hashing them (the "hashing trick")
+ * rather than keeping a vocabulary.  Memory doesn't grow with the number of
+ * distinct words and any two files hashed with the same settings get the same
+ * feature indices for the same words, without having to share a reader.
+ *
+ * Optionally, a second (independent) bit of the hash picks whether a word adds
+ * +1 or -1 to its feature.  Words that collide then tend to cancel out rather
+ * than all pushing the feature the same way.
+ */
+public class FeatureHasher {
+	private static final long SEED = 0xcbf29ce484222325L; // FNV offset basis
+	private static final long PRIME = 0x100000001b3L; // FNV prime
+
+	// the classifiers keep a weight (or more) per feature, so 2^24 features
+	// is already 128MB per weight vector
+	public static final int MAX_BITS = 24;
+
+	private int bits;
+	private boolean signed;
+	private int mask;
+
+	/**
+	 * Hash into 2^bits features, always adding +1
+	 *
+	 * @param bits
+	 */
+	public FeatureHasher(int bits){
+		this(bits, false);
+	}
+
+	/**
+	 * @param bits hash into 2^bits features (1 to MAX_BITS)
+	 * @param signed whether to use a sign hash
+	 */
+	public FeatureHasher(int bits, boolean signed){
+		if( bits < 1 || bits > MAX_BITS ){
+			throw new IllegalArgumentException("bits must be between 1 and " + MAX_BITS + ": " + bits);
+		}
+
+		this.bits = bits;
+		this.signed = signed;
+		mask = (1 << bits) - 1;
+	}
+
+	/**
+	 * @return the number of bits
+	 */
+	public int getBits(){
+		return bits;
+	}
+
+	/**
+	 * @return whether a sign hash is used
+	 */
+	public boolean isSigned(){
+		return signed;
+	}
+
+	/**
+	 * @return the number of features (2^bits)
+	 */
+	public int getNumFeatures(){
+		return mask + 1;
+	}
+
+	/**
+	 * Hash the word in the first length chars of chars
+	 *
+	 * @param chars
+	 * @param length
+	 * @return the hash
+	 */
+	public long hash(char[] chars, int length){
+		return hash(chars, length, SEED);
+	}
+
+	/**
+	 * Hash the word in the first length chars of chars starting from seed
+	 *
+	 * @param chars
+	 * @param length
+	 * @param seed
+	 * @return the hash
+	 */
+	static long hash(char[] chars, int length, long seed){
+		// FNV-1a followed by the MurmurHash3 finalizer so that all of the bits
+		// (in particular the sign bit) depend on the whole word
+		long hash = seed;
+
+		for( int i = 0; i < length; i++ ){
+			hash = (hash ^ chars[i]) * PRIME;
+		}
+
+		return mix(hash);
+	}
+
+	/**
+	 * The MurmurHash3 64-bit finalizer
+	 *
+	 * @param hash
+	 * @return the mixed hash
+	 */
+	static long mix(long hash){
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		return hash;
+	}
+
+	/**
+	 * @param word
+	 * @return the hash of word
+	 */
+	public long hash(String word){
+		return hash(word.toCharArray(), word.length());
+	}
+
+	/**
+	 * @param hash
+	 * @return the feature index for a word with this hash
+	 */
+	public int getIndex(long hash){
+		return (int)(hash & mask);
+	}
+
+	/**
+	 * @param hash
+	 * @return what a word with this hash adds to its feature (1 or -1)
+	 */
+	public double getSign(long hash){
+		return signed && hash < 0 ? -1 : 1;
+	}
+
+	/**
+	 * Add the features of example to featureMap.  Hashed features don't have
+	 * names, so they map to null.  Only the buckets that are actually used end
+	 * up in the map.
+	 *
+	 * @param example a hashed example
+	 * @param featureMap
+	 */
+	static void addFeatures(Example example, HashMap<Integer, String> featureMap){
+		for( int i = 0; i < example.getFeatureCount(); i++ ){
+			featureMap.put(example.getFeatureIndexAt(i), null);
+		}
+	}
+}
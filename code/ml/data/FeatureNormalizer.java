@@ -1,128 +1,237 @@
 package ml.data;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Class that preprocess data
- * 
+ *
  * @author Collins Kariuki
  *
  */
 
-public class FeatureNormalizer implements DataPreprocessor {
-    // array lists that will hold the means and standard deviations of the features
-    ArrayList<Double> means = new ArrayList<Double>();
-    ArrayList<Double> standardDeviations = new ArrayList<Double>();
+public class FeatureNormalizer implements DataPreprocessor, ExampleTransformer {
+    private static final int MAGIC = 0x4d4c464e; // "MLFN"
+    private static final int VERSION = 1;
+
+    // the statistics the normalizer was fit to, kept so partialFit can update them
+    private ColumnStatistics statistics;
+
+    // the means and standard deviations of the features
+    double[] means;
+    double[] standardDeviations;
+
+    private int numThreads = Runtime.getRuntime().availableProcessors();
 
     /**
-     * Calculate the mean of the data
-     * 
-     * @param data
-     * @return the mean
+     * Set the maximum number of threads used to calculate the statistics and
+     * normalize the data (defaults to the number of processors)
+     *
+     * @param numThreads
      */
-    private static double mean(ArrayList<Double> data) {
-        double sum = 0.0;
-        for (double num : data) {
-            sum += num;
-        }
-        return sum / data.size();
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
     }
 
     /**
-     * Calculate the standard deviation of the data
-     * 
-     * @param data
-     * @return the standard deviation
+     * Calculate the means and standard deviations of the features in a single
+     * pass over the examples. Blocks of rows are processed in parallel and their
+     * statistics merged.
+     *
+     * @param examples
+     * @param featureCount
      */
-    private static double standardDeviation(ArrayList<Double> data) {
-        double mean = mean(data);
-        double sumSquaredDiff = 0.0;
-        for (double num : data) {
-            sumSquaredDiff += Math.pow(num - mean, 2);
-        }
-        return Math.sqrt(sumSquaredDiff / data.size());
+    @Override
+    public void fit(List<Example> examples, int featureCount) {
+        fit(ColumnStatistics.compute(examples, featureCount, numThreads));
+    }
+
+    /**
+     * Use the means and standard deviations from already calculated statistics
+     *
+     * @param statistics
+     */
+    public void fit(ColumnStatistics statistics) {
+        this.statistics = new ColumnStatistics(statistics);
+        means = statistics.getMeans();
+        standardDeviations = statistics.getStandardDeviations();
     }
 
     /**
-     * Extract the feature values from the examples
-     * 
+     * Update the means and standard deviations with another batch of examples,
+     * without revisiting the examples seen before. Starting from an unfit
+     * normalizer, fitting the batches one after another gives the same result
+     * as fitting all of the examples at once. The number of features is one
+     * more than the largest feature index seen so far; features that first
+     * appear in a later batch are counted as 0 in the earlier examples.
+     *
      * @param examples
-     * @param featureIndex
-     * @return the feature values
      */
-    private ArrayList<Double> extractFeatureValues(ArrayList<Example> examples, int featureIndex) {
-        // an array list that will hold the feature values
-        ArrayList<Double> featureValues = new ArrayList<Double>();
-        for (Example e : examples) {
-            // add the feature value for that particular example to the array list
-            featureValues.add(e.getFeature(featureIndex));
+    public void partialFit(Iterator<Example> examples) {
+        if (statistics == null) {
+            statistics = new ColumnStatistics(0);
+        }
+
+        while (examples.hasNext()) {
+            Example e = examples.next();
+            int numStored = e.getFeatureCount();
+
+            if (numStored > 0) {
+                statistics.grow(e.getFeatureIndexAt(numStored - 1) + 1);
+            }
+
+            statistics.add(e);
+        }
+
+        means = statistics.getMeans();
+        standardDeviations = statistics.getStandardDeviations();
+    }
+
+    /**
+     * Save the fitted normalizer so it can be loaded with load. The statistics
+     * it was fit to are saved (not just the means and standard deviations), so
+     * a loaded normalizer can keep being updated with partialFit.
+     *
+     * @param filename
+     * @throws IOException
+     */
+    public void save(String filename) throws IOException {
+        if (statistics == null) {
+            throw new IllegalStateException("The normalizer has to be fit before it is saved");
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataSetSnapshot.SnapshotWriter out = new DataSetSnapshot.SnapshotWriter(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            statistics.write(out);
+            out.flush();
         }
-        return featureValues;
     }
 
-    @Override
-    public void preprocessTrain(DataSet train) {
-        // get the examples from the training data
-        ArrayList<Example> examples = train.getData();
-        // get the number of features in the training data
-        int featureCount = train.getAllFeatureIndices().size();
-
-        // loop through the features
-        for (int i = 0; i < featureCount; i++) {
-            // extract the feature values
-            ArrayList<Double> featureValues = extractFeatureValues(examples, i);
-            // calculate the mean of the feature values
-            double mean = mean(featureValues);
-            // add the mean to the array list
-            means.add(mean);
-
-            // center data to 0
-            for (Example e : examples) {
-                e.setFeature(i, e.getFeature(i) - mean);
+    /**
+     * Load a normalizer written by save
+     *
+     * @param filename
+     * @return the fitted normalizer
+     * @throws IOException
+     */
+    public static FeatureNormalizer load(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            DataSetSnapshot.SnapshotReader in = new DataSetSnapshot.SnapshotReader(channel);
+
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a feature normalizer file: " + filename);
             }
 
-            // normalize to have standard deviation of 1
-            double standardDeviation = standardDeviation(featureValues);
-            standardDeviations.add(standardDeviation);
+            int version = in.getInt();
 
-            for (Example e : examples) {
-                e.setFeature(i, e.getFeature(i) / standardDeviation);
+            if (version != VERSION) {
+                throw new IOException("Unsupported feature normalizer version " + version + ": " + filename);
             }
+
+            FeatureNormalizer normalizer = new FeatureNormalizer();
+            normalizer.fit(ColumnStatistics.read(in));
+            return normalizer;
         }
     }
 
+    @Override
+    public void preprocessTrain(DataSet train) {
+        // get the number of features in the training data
+        int featureCount = train.getNumFeatures();
+
+        fit(train.getData(), featureCount);
+        transform(train);
+    }
+
     @Override
     public void preprocessTest(DataSet test) {
-        // get the examples from the test data
-        ArrayList<Example> examples = test.getData();
         // get the number of features in the test data
-        int featureCount = test.getAllFeatureIndices().size();
+        int featureCount = test.getNumFeatures();
 
         // check if the number of features in the test data is the same as the number of
         // features in the training data
-        if (featureCount != means.size()) {
+        if (featureCount != means.length) {
             throw new IllegalArgumentException("Test set has different number of features than train set");
         }
 
-        // loop through the features
         // we use the means and standard deviations from the training data and apply it
         // to the test data following the mantra that what we do to the training data
         // we must do to the test data
-        for (int i = 0; i < featureCount; i++) {
-            // get the mean and standard deviation for that feature
-            double mean = means.get(i);
-            // get the standard deviation for that feature
-            double standardDeviation = standardDeviations.get(i);
-
-            // Center data to 0
-            for (Example e : examples) {
-                e.setFeature(i, e.getFeature(i) - mean);
+        transform(test);
+    }
+
+    /**
+     * Replace the examples of data with centered and scaled copies, using the
+     * saved means and standard deviations. The examples themselves aren't
+     * changed, since other data sets (e.g. the other folds of a cross
+     * validation) may share them.
+     *
+     * @param data
+     */
+    private void transform(DataSet data) {
+        data.replaceExamples(PreprocessingPipeline.transformFitted(data, numThreads, this));
+    }
+
+    /**
+     * Center and scale all of the features of an example in one pass. Missing
+     * features are 0 before normalizing, so afterwards the example has every
+     * feature.
+     *
+     * @param e
+     */
+    @Override
+    public void transform(Example e) {
+        int featureCount = means.length;
+        int numStored = e.getFeatureCount();
+
+        if (featureCount == 0) {
+            return;
+        }
+
+        // the example already has every feature, so update the values in place
+        if (numStored >= featureCount && e.getFeatureIndexAt(featureCount - 1) == featureCount - 1) {
+            for (int c = 0; c < featureCount; c++) {
+                e.setFeatureValueAt(c, (e.getFeatureValueAt(c) - means[c]) / standardDeviations[c]);
             }
 
-            // Normalize to have standard deviation of 1
-            for (Example e : examples) {
-                e.setFeature(i, e.getFeature(i) / standardDeviation);
+            return;
+        }
+
+        // otherwise build the new features, keeping any features past the
+        // normalized ones as they are
+        int next = 0; // the next stored feature
+        int numExtra = 0;
+
+        for (int i = numStored - 1; i >= 0 && e.getFeatureIndexAt(i) >= featureCount; i--) {
+            numExtra++;
+        }
+
+        int[] indices = new int[featureCount + numExtra];
+        double[] values = new double[featureCount + numExtra];
+
+        for (int c = 0; c < featureCount; c++) {
+            double value = 0.0;
+
+            if (next < numStored && e.getFeatureIndexAt(next) == c) {
+                value = e.getFeatureValueAt(next++);
             }
+
+            indices[c] = c;
+            values[c] = (value - means[c]) / standardDeviations[c];
+        }
+
+        for (int i = featureCount; i < indices.length; i++, next++) {
+            indices[i] = e.getFeatureIndexAt(next);
+            values[i] = e.getFeatureValueAt(next);
         }
+
+        e.setFeatures(indices, values, indices.length);
     }
-}
\ No newline at end of file
+}
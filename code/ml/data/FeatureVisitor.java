@@ -0,0 +1,15 @@
+package ml.data;
+
+/**
+ * Callback for walking over the stored features of an example without
+ * boxing the feature indices or values.
+ */
+public interface FeatureVisitor {
+	/**
+	 * Called once for each stored feature, in increasing feature index order.
+	 * 
+	 * @param featureIndex the index of the feature
+	 * @param value the value of the feature
+	 */
+	public void visit(int featureIndex, double value);
+}
@@ -0,0 +1,332 @@
+package ml.data;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable word to feature index mapping, e.g. the vocabulary of a training
+ * data set, for reading test (or any later) text files with the same feature
+ * indices.  Words that aren't in the vocabulary are dropped.
+ *
+ * Lookups use a minimal perfect hash (hash and displace): each word hashes to a
+ * bucket and each bucket stores a displacement that sends its words to distinct
+ * slots of a table with exactly one slot per word.  Each slot holds the feature
+ * index and a 32-bit fingerprint of its word.  A word not in the vocabulary
+ * still lands in some slot, but only matches its fingerprint with probability
+ * 2^-32, so the words themselves never need to be compared.
+ *
+ * The words are kept packed in a single char array (for getFeatureMap) and the
+ * whole structure can be saved and loaded in a binary format.
+ */
+public class FrozenVocabulary {
+	private static final int MAGIC = 0x4d4c4656; // "MLFV"
+	private static final int VERSION = 1;
+
+	private static final int BUCKET_SIZE = 4; // average words per bucket
+	private static final int MAX_DISPLACEMENT = 1 << 16; // before trying another seed
+	private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+
+	private int size;
+	private long seed; // seed for hashing the words
+
+	// for each bucket, the displacement or, for buckets with a single word,
+	// -(slot+1) for the slot the word is in
+	private int[] displacements;
+
+	// for each slot
+	private int[] fingerprints;
+	private int[] indices;
+	private int[] wordStarts; // the word is chars[wordStarts[s]] up to chars[wordStarts[s+1]]
+	private char[] chars;
+
+	/**
+	 * Freeze vocabulary
+	 *
+	 * @param vocabulary
+	 */
+	public FrozenVocabulary(Vocabulary vocabulary){
+		this(vocabulary.getFeatureMap());
+	}
+
+	/**
+	 * Freeze the words of a feature map (e.g. from a DataSet read from a text
+	 * file), keeping their feature indices
+	 *
+	 * @param featureMap
+	 */
+	public FrozenVocabulary(HashMap<Integer, String> featureMap){
+		size = featureMap.size();
+		String[] words = new String[size];
+		int[] wordIndices = new int[size];
+		int next = 0;
+
+		for( Map.Entry<Integer, String> feature: featureMap.entrySet() ){
+			if( feature.getValue() == null ){
+				throw new IllegalArgumentException("Feature " + feature.getKey() + " doesn't have a word");
+			}
+
+			words[next] = feature.getValue();
+			wordIndices[next] = feature.getKey();
+			next++;
+		}
+
+		// almost always works with the first seed
+		seed = 0;
+
+		while( !build(words, wordIndices) ){
+			seed++;
+		}
+	}
+
+	private FrozenVocabulary(){
+	}
+
+	/**
+	 * Try to build the tables with the current seed
+	 *
+	 * @return whether it succeeded
+	 */
+	private boolean build(String[] words, int[] wordIndices){
+		int numBuckets = size / BUCKET_SIZE + 1;
+		long[] hashes = new long[size];
+		int[] bucketStarts = new int[numBuckets + 1];
+
+		for( int i = 0; i < size; i++ ){
+			hashes[i] = FeatureHasher.hash(words[i].toCharArray(), words[i].length(), seed);
+			bucketStarts[getBucket(hashes[i], numBuckets) + 1]++;
+		}
+
+		for( int b = 0; b < numBuckets; b++ ){
+			bucketStarts[b + 1] += bucketStarts[b];
+		}
+
+		// the words grouped by bucket
+		int[] bucketWords = new int[size];
+		int[] bucketNext = new int[numBuckets];
+		System.arraycopy(bucketStarts, 0, bucketNext, 0, numBuckets);
+
+		for( int i = 0; i < size; i++ ){
+			bucketWords[bucketNext[getBucket(hashes[i], numBuckets)]++] = i;
+		}
+
+		// place the largest buckets first, while the table is still empty
+		int maxBucketSize = 0;
+
+		for( int b = 0; b < numBuckets; b++ ){
+			maxBucketSize = Math.max(maxBucketSize, bucketStarts[b + 1] - bucketStarts[b]);
+		}
+
+		int[] sizeStarts = new int[maxBucketSize + 2];
+
+		for( int b = 0; b < numBuckets; b++ ){
+			sizeStarts[maxBucketSize - (bucketStarts[b + 1] - bucketStarts[b]) + 1]++;
+		}
+
+		for( int i = 0; i <= maxBucketSize; i++ ){
+			sizeStarts[i + 1] += sizeStarts[i];
+		}
+
+		int[] bucketOrder = new int[numBuckets];
+
+		for( int b = 0; b < numBuckets; b++ ){
+			bucketOrder[sizeStarts[maxBucketSize - (bucketStarts[b + 1] - bucketStarts[b])]++] = b;
+		}
+
+		displacements = new int[numBuckets];
+		int[] slotWords = new int[size]; // word+1 in each slot, 0 for free
+		int[] slots = new int[maxBucketSize];
+		int nextFree = 0;
+
+		for( int b: bucketOrder ){
+			int start = bucketStarts[b];
+			int bucketSize = bucketStarts[b + 1] - start;
+
+			if( bucketSize == 0 ){
+				break;
+			}else if( bucketSize == 1 ){
+				// any free slot will do
+				while( slotWords[nextFree] != 0 ){
+					nextFree++;
+				}
+
+				displacements[b] = -(nextFree + 1);
+				slotWords[nextFree] = bucketWords[start] + 1;
+				continue;
+			}
+
+			boolean placed = false;
+
+			for( int d = 0; d < MAX_DISPLACEMENT && !placed; d++ ){
+				placed = true;
+
+				for( int i = 0; i < bucketSize && placed; i++ ){
+					slots[i] = getSlot(hashes[bucketWords[start + i]], d);
+
+					if( slotWords[slots[i]] != 0 ){
+						placed = false;
+					}
+
+					for( int j = 0; j < i && placed; j++ ){
+						placed = slots[j] != slots[i];
+					}
+				}
+
+				if( placed ){
+					displacements[b] = d;
+
+					for( int i = 0; i < bucketSize; i++ ){
+						slotWords[slots[i]] = bucketWords[start + i] + 1;
+					}
+				}
+			}
+
+			if( !placed ){
+				return false;
+			}
+		}
+
+		fingerprints = new int[size];
+		indices = new int[size];
+		wordStarts = new int[size + 1];
+
+		for( int s = 0; s < size; s++ ){
+			int word = slotWords[s] - 1;
+			fingerprints[s] = (int)hashes[word];
+			indices[s] = wordIndices[word];
+			wordStarts[s + 1] = wordStarts[s] + words[word].length();
+		}
+
+		chars = new char[wordStarts[size]];
+
+		for( int s = 0; s < size; s++ ){
+			String word = words[slotWords[s] - 1];
+			word.getChars(0, word.length(), chars, wordStarts[s]);
+		}
+
+		return true;
+	}
+
+	private static int getBucket(long hash, int numBuckets){
+		return (int)((hash >>> 32) % numBuckets);
+	}
+
+	private int getSlot(long hash, int displacement){
+		long mixed = FeatureHasher.mix(hash + displacement * GOLDEN);
+		return (int)(((mixed >>> 32) * size) >>> 32);
+	}
+
+	/**
+	 * @return the number of words
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @param word
+	 * @return the feature index of word or -1 if it isn't in the vocabulary
+	 */
+	public int getIndex(String word){
+		return getIndex(word.toCharArray(), word.length());
+	}
+
+	/**
+	 * @param chars
+	 * @param length
+	 * @return the feature index of the word in the first length chars of chars
+	 * or -1 if it isn't in the vocabulary
+	 */
+	public int getIndex(char[] chars, int length){
+		if( size == 0 ){
+			return -1;
+		}
+
+		long hash = FeatureHasher.hash(chars, length, seed);
+		int displacement = displacements[getBucket(hash, displacements.length)];
+		int slot = displacement < 0 ? -displacement - 1 : getSlot(hash, displacement);
+
+		return fingerprints[slot] == (int)hash ? indices[slot] : -1;
+	}
+
+	/**
+	 * Get the feature mapping (i.e. association from feature index to word)
+	 *
+	 * @return feature map
+	 */
+	public HashMap<Integer, String> getFeatureMap(){
+		HashMap<Integer, String> featureMap = new HashMap<Integer, String>();
+
+		for( int s = 0; s < size; s++ ){
+			featureMap.put(indices[s], new String(chars, wordStarts[s], wordStarts[s + 1] - wordStarts[s]));
+		}
+
+		return featureMap;
+	}
+
+	/**
+	 * Save the vocabulary so it can be loaded with load
+	 *
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void save(String filename) throws IOException{
+		try( FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING) ){
+			DataSetSnapshot.SnapshotWriter out = new DataSetSnapshot.SnapshotWriter(channel);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(size);
+			out.putLong(seed);
+			out.putInt(displacements.length);
+			out.putInts(displacements);
+			out.putInts(fingerprints);
+			out.putInts(indices);
+			out.putInts(wordStarts);
+			out.putChars(chars);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Load a vocabulary written by save
+	 *
+	 * @param filename
+	 * @return the vocabulary
+	 * @throws IOException
+	 */
+	public static FrozenVocabulary load(String filename) throws IOException{
+		try( FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ) ){
+			DataSetSnapshot.SnapshotReader in = new DataSetSnapshot.SnapshotReader(channel);
+
+			if( in.getInt() != MAGIC ){
+				throw new IOException("Not a vocabulary file: " + filename);
+			}
+
+			int version = in.getInt();
+
+			if( version != VERSION ){
+				throw new IOException("Unsupported vocabulary version " + version + ": " + filename);
+			}
+
+			FrozenVocabulary vocabulary = new FrozenVocabulary();
+			vocabulary.size = in.getInt();
+			vocabulary.seed = in.getLong();
+			vocabulary.displacements = new int[in.getInt()];
+			in.getInts(vocabulary.displacements);
+			vocabulary.fingerprints = new int[vocabulary.size];
+			in.getInts(vocabulary.fingerprints);
+			vocabulary.indices = new int[vocabulary.size];
+			in.getInts(vocabulary.indices);
+			vocabulary.wordStarts = new int[vocabulary.size + 1];
+			in.getInts(vocabulary.wordStarts);
+			vocabulary.chars = new char[vocabulary.wordStarts[vocabulary.size]];
+			in.getChars(vocabulary.chars);
+
+			return vocabulary;
+		}
+	}
+}
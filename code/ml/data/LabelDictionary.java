@@ -0,0 +1,142 @@
+package ml.data;
+
+import java.util.Arrays;
+
+/**
+ * A mapping from labels to class ids.  Ids are handed out in the order labels
+ * are added, starting at 0, so a classifier can count labels in an int array
+ * indexed by id rather than boxing every label into a map.
+ *
+ * Labels are matched the same way Double.equals does (so NaN is a label and
+ * 0.0 and -0.0 are different labels).  Labels are never removed, so an id
+ * stays valid once it has been handed out.
+ *
+ * Data sets created from the same data set (e.g. the folds of a cross
+ * validation) share a dictionary, so looking up and adding labels is
+ * synchronized.  Reading labels by id isn't: a label is stored before the
+ * size is increased, so every id below size() can be read without locking.
+ */
+public class LabelDictionary {
+	private int[] table = new int[16]; // open addressing table of (id+1), 0 for empty
+	// the label for each id.  Both are volatile so the labels can be read
+	// without locking (read size first).
+	private volatile double[] labels = new double[8];
+	private volatile int size = 0;
+
+	/**
+	 * @return the number of labels
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the id of label
+	 *
+	 * @param label
+	 * @return the id or -1 if the label isn't in the dictionary
+	 */
+	public synchronized int getId(double label) {
+		return table[find(label)] - 1;
+	}
+
+	/**
+	 * Get the id of label, adding it if it isn't in the dictionary yet
+	 *
+	 * @param label
+	 * @return the id
+	 */
+	public synchronized int addLabel(double label) {
+		int slot = find(label);
+
+		if (table[slot] != 0) {
+			return table[slot] - 1;
+		}
+
+		if (size == labels.length) {
+			labels = Arrays.copyOf(labels, size * 2);
+		}
+
+		labels[size] = label;
+		table[slot] = size + 1;
+		size++;
+
+		// keep the table at most half full
+		if (size * 2 > table.length) {
+			rehash();
+		}
+
+		return size - 1;
+	}
+
+	/**
+	 * @param id
+	 * @return the label with that id
+	 */
+	public double getLabel(int id) {
+		return labels[id];
+	}
+
+	/**
+	 * @return the labels, indexed by id
+	 */
+	public double[] getLabels() {
+		int numLabels = size;
+		return Arrays.copyOf(labels, numLabels);
+	}
+
+	/**
+	 * The labels indexed by id, with room for more.  Only the first size()
+	 * (read before calling this) are labels.  Not a copy, so it must not be
+	 * changed.
+	 *
+	 * @return the labels
+	 */
+	double[] getLabelArray() {
+		return labels;
+	}
+
+	/**
+	 * Find the slot in the table holding the label or, if it's not there, the
+	 * empty slot where it should go
+	 */
+	private int find(double label) {
+		long bits = Double.doubleToLongBits(label);
+		int mask = table.length - 1;
+		int slot = hash(bits) & mask;
+
+		while (table[slot] != 0) {
+			if (Double.doubleToLongBits(labels[table[slot] - 1]) == bits) {
+				return slot;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	private static int hash(long bits) {
+		// labels are often small whole numbers, which only differ in the high bits
+		long mixed = bits * 0x9e3779b97f4a7c15L;
+		return (int)(mixed >>> 32);
+	}
+
+	/**
+	 * Double the size of the table
+	 */
+	private void rehash() {
+		table = new int[table.length * 2];
+		int mask = table.length - 1;
+
+		for (int id = 0; id < size; id++) {
+			int slot = hash(Double.doubleToLongBits(labels[id])) & mask;
+
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+
+			table[slot] = id + 1;
+		}
+	}
+}
@@ -0,0 +1,553 @@
+package ml.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A class for reading a whole CSV file into a dense matrix using multiple threads.
+ * 
+ * The file should have the same format that DataSet expects: optional lines
+ * starting with # followed by a header line and then one example per line.  After
+ * the header, the file is split into byte ranges that end at line boundaries,
+ * the ranges are parsed concurrently and the results are put back together in
+ * the original row order.
+ * 
+ * Numbers are parsed directly from the file bytes without creating Strings.  The
+ * parsed values are exactly the same as Double.parseDouble's.
+ */
+public class ParallelCSVReader {
+	// the ranges parsed by each task are at most this big (must fit in one mapping)
+	private static final long MAX_RANGE_SIZE = 64L << 20;
+
+	// powers of ten that are exactly representable as doubles
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	private String filename;
+	private String[] headers;
+	private long dataStart; // byte position of the first example in the file
+
+	private DenseMatrix features;
+	private double[] labels;
+
+	/**
+	 * Open filename and read its header line.
+	 * 
+	 * @param filename
+	 * @throws IOException
+	 */
+	public ParallelCSVReader(String filename) throws IOException {
+		this.filename = filename;
+
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			long position = 0;
+			String line;
+
+			// ignore any lines at the beginning that start with #
+			do {
+				byte[] lineBytes = readLine(channel, position);
+
+				if (lineBytes == null) {
+					throw new IOException("No header line in " + filename);
+				}
+
+				position += lineBytes.length;
+				line = new String(lineBytes, StandardCharsets.UTF_8).trim();
+			} while (line.startsWith("#"));
+
+			headers = line.split(",");
+			dataStart = position;
+		}
+	}
+
+	/**
+	 * @return the column names from the header line
+	 */
+	public String[] getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * Read all of the examples using one thread per processor
+	 * 
+	 * @param labelIndex the column the label is in
+	 * @throws IOException
+	 */
+	public void read(int labelIndex) throws IOException {
+		read(labelIndex, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Read all of the examples.  Afterwards, the feature values are available
+	 * from getFeatures and the labels from getLabels.  Each row has one feature
+	 * for every column except the label column; missing values at the end of a
+	 * line are 0 and extra values are ignored.
+	 * 
+	 * @param labelIndex the column the label is in
+	 * @param numThreads how many threads to parse with
+	 * @throws IOException
+	 * @throws NumberFormatException if a value isn't a number (the message
+	 *                               gives the file, line and column)
+	 * @throws IllegalArgumentException if a line has no label
+	 */
+	public void read(int labelIndex, int numThreads) throws IOException {
+		int numColumns = headers.length - 1;
+
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			long[] boundaries = getRangeBoundaries(channel, dataStart, numThreads);
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+			try {
+				ArrayList<Future<ParsedRange>> results = new ArrayList<Future<ParsedRange>>();
+
+				for (int i = 0; i < boundaries.length - 1; i++) {
+					results.add(executor.submit(
+							new RangeParser(channel, boundaries[i], boundaries[i + 1], numColumns, labelIndex)));
+				}
+
+				ArrayList<ParsedRange> ranges = new ArrayList<ParsedRange>();
+				int numRows = 0;
+
+				for (Future<ParsedRange> result : results) {
+					ParsedRange range = result.get();
+					ranges.add(range);
+					numRows += range.numRows;
+				}
+
+				// put the ranges back together in order
+				double[] values = new double[numRows * numColumns];
+				labels = new double[numRows];
+				int row = 0;
+
+				for (ParsedRange range : ranges) {
+					System.arraycopy(range.values, 0, values, row * numColumns, range.numRows * numColumns);
+					System.arraycopy(range.labels, 0, labels, row, range.numRows);
+					row += range.numRows;
+				}
+
+				features = new DenseMatrix(numRows, numColumns, values);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading " + filename, e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				} else if (e.getCause() instanceof MalformedLineException) {
+					throw ((MalformedLineException) e.getCause()).describe(channel, filename);
+				}
+
+				throw new IOException("Error reading " + filename, e.getCause());
+			} finally {
+				executor.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * @return the feature values of the examples (one row per example)
+	 */
+	public DenseMatrix getFeatures() {
+		return features;
+	}
+
+	/**
+	 * @return the label of each example
+	 */
+	public double[] getLabels() {
+		return labels;
+	}
+
+	/**
+	 * Split the file from dataStart on into byte ranges, each starting at the
+	 * beginning of a line and small enough to be mapped.
+	 * 
+	 * @param channel
+	 * @param dataStart where the first range starts (the beginning of a line)
+	 * @param numThreads
+	 * @return the start of each range followed by the end of the file
+	 * @throws IOException
+	 */
+	static long[] getRangeBoundaries(FileChannel channel, long dataStart, int numThreads) throws IOException {
+		long size = channel.size();
+		long dataSize = size - dataStart;
+
+		// a few ranges per thread helps balance the work
+		long numRanges = Math.max(numThreads * 4L, (dataSize + MAX_RANGE_SIZE - 1) / MAX_RANGE_SIZE);
+		numRanges = Math.max(1, Math.min(numRanges, dataSize / 1024 + 1));
+		long rangeSize = Math.min(MAX_RANGE_SIZE / 2, (dataSize + numRanges - 1) / numRanges);
+
+		ArrayList<Long> boundaries = new ArrayList<Long>();
+		long position = dataStart;
+		boundaries.add(position);
+
+		while (position < size) {
+			position += rangeSize;
+
+			if (position >= size) {
+				position = size;
+			} else {
+				// move to the start of the next line
+				byte[] rest = readLine(channel, position);
+				position = rest == null ? size : position + rest.length;
+			}
+
+			boundaries.add(position);
+		}
+
+		long[] result = new long[boundaries.size()];
+
+		for (int i = 0; i < result.length; i++) {
+			result[i] = boundaries.get(i);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Read the bytes from position up to and including the next newline
+	 * 
+	 * @param channel
+	 * @param position
+	 * @return the bytes or null if position is at the end of the file
+	 * @throws IOException
+	 */
+	private static byte[] readLine(FileChannel channel, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		byte[] line = new byte[0];
+
+		while (true) {
+			buffer.clear();
+			int count = channel.read(buffer, position + line.length);
+
+			if (count <= 0) {
+				return line.length == 0 ? null : line;
+			}
+
+			for (int i = 0; i < count; i++) {
+				if (buffer.get(i) == '\n') {
+					count = i + 1;
+					byte[] withNewline = Arrays.copyOf(line, line.length + count);
+					buffer.get(0, withNewline, line.length, count);
+					return withNewline;
+				}
+			}
+
+			byte[] longer = Arrays.copyOf(line, line.length + count);
+			buffer.get(0, longer, line.length, count);
+			line = longer;
+		}
+	}
+
+	/**
+	 * @param channel
+	 * @param position
+	 * @return the number of the line (starting at 1) containing position
+	 * @throws IOException
+	 */
+	private static long getLineNumber(FileChannel channel, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		long line = 1;
+		long read = 0;
+
+		while (read < position) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), position - read));
+			int count = channel.read(buffer, read);
+
+			if (count <= 0) {
+				break;
+			}
+
+			for (int i = 0; i < count; i++) {
+				if (buffer.get(i) == '\n') {
+					line++;
+				}
+			}
+
+			read += count;
+		}
+
+		return line;
+	}
+
+	/**
+	 * Parse a number from bytes start (inclusive) to end (exclusive).
+	 * 
+	 * Plain decimal numbers with at most 15 significant digits and a small
+	 * exponent are calculated directly, which is exact since both the digits and
+	 * the power of ten are exactly representable.  Anything else (including NaN
+	 * and Infinity) is handed to Double.parseDouble.
+	 * 
+	 * @param buffer
+	 * @param start
+	 * @param end
+	 * @return the value
+	 */
+	static double parseDouble(ByteBuffer buffer, int start, int end) {
+		// trim whitespace
+		while (start < end && buffer.get(start) <= ' ') {
+			start++;
+		}
+
+		while (end > start && buffer.get(end - 1) <= ' ') {
+			end--;
+		}
+
+		int i = start;
+		boolean negative = false;
+
+		if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int numDigits = 0;
+		int exponent = 0;
+		boolean sawDigit = false;
+		boolean sawPoint = false;
+
+		for (; i < end; i++) {
+			byte b = buffer.get(i);
+
+			if (b >= '0' && b <= '9') {
+				sawDigit = true;
+
+				if (mantissa == 0 && b == '0') {
+					// leading zeros aren't significant
+					if (sawPoint) {
+						exponent--;
+					}
+				} else {
+					mantissa = mantissa * 10 + (b - '0');
+					numDigits++;
+
+					if (sawPoint) {
+						exponent--;
+					}
+				}
+			} else if (b == '.' && !sawPoint) {
+				sawPoint = true;
+			} else {
+				break;
+			}
+		}
+
+		if (i < end && sawDigit && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+
+			if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+				negativeExponent = buffer.get(i) == '-';
+				i++;
+			}
+
+			int explicitExponent = 0;
+			int exponentStart = i;
+
+			for (; i < end && buffer.get(i) >= '0' && buffer.get(i) <= '9' && explicitExponent < 10000; i++) {
+				explicitExponent = explicitExponent * 10 + (buffer.get(i) - '0');
+			}
+
+			if (i == exponentStart) {
+				return slowParseDouble(buffer, start, end);
+			}
+
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+
+		if (!sawDigit || i != end || numDigits > 15) {
+			return slowParseDouble(buffer, start, end);
+		}
+
+		double value;
+
+		if (mantissa == 0) {
+			value = 0.0;
+		} else if (exponent == 0) {
+			value = mantissa;
+		} else if (exponent > 0 && exponent < POWERS_OF_TEN.length) {
+			value = mantissa * POWERS_OF_TEN[exponent];
+		} else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+			value = mantissa / POWERS_OF_TEN[-exponent];
+		} else {
+			return slowParseDouble(buffer, start, end);
+		}
+
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Fall back to Double.parseDouble for numbers parseDouble can't handle exactly
+	 */
+	private static double slowParseDouble(ByteBuffer buffer, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		buffer.get(start, bytes);
+		return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Thrown by a RangeParser for a line it can't parse.  The parser only knows
+	 * where the line starts in the file, so the line number is worked out
+	 * afterwards by describe.
+	 */
+	private static class MalformedLineException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private long position; // where the line starts in the file
+		private int column; // the column that couldn't be parsed, -1 for a missing label
+
+		public MalformedLineException(long position, int column, String message) {
+			super(message);
+			this.position = position;
+			this.column = column;
+		}
+
+		/**
+		 * @return the exception to report to the caller of read, naming the
+		 *         file, line and column
+		 */
+		public IllegalArgumentException describe(FileChannel channel, String filename) throws IOException {
+			String where = filename + ", line " + getLineNumber(channel, position);
+
+			if (column < 0) {
+				return new IllegalArgumentException(getMessage() + " (" + where + ")");
+			}
+
+			return new NumberFormatException(getMessage() + " (" + where + ", column " + (column + 1) + ")");
+		}
+	}
+
+	/**
+	 * The examples parsed from one byte range of the file
+	 */
+	private static class ParsedRange {
+		public int numRows;
+		public double[] values; // row-major
+		public double[] labels;
+	}
+
+	/**
+	 * Task that parses one byte range of the file
+	 */
+	private static class RangeParser implements Callable<ParsedRange> {
+		private FileChannel channel;
+		private long start;
+		private long end;
+		private int numColumns;
+		private int labelIndex;
+
+		public RangeParser(FileChannel channel, long start, long end, int numColumns, int labelIndex) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.numColumns = numColumns;
+			this.labelIndex = labelIndex;
+		}
+
+		@Override
+		public ParsedRange call() throws IOException {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			int length = buffer.limit();
+
+			ParsedRange range = new ParsedRange();
+			range.values = new double[Math.max(numColumns, 1) * 64];
+			range.labels = new double[64];
+
+			int lineStart = 0;
+
+			while (lineStart < length) {
+				int lineEnd = lineStart;
+
+				while (lineEnd < length && buffer.get(lineEnd) != '\n') {
+					lineEnd++;
+				}
+
+				if (!isBlank(buffer, lineStart, lineEnd)) {
+					parseLine(buffer, lineStart, lineEnd, range);
+				}
+
+				lineStart = lineEnd + 1;
+			}
+
+			return range;
+		}
+
+		/**
+		 * Parse the example from lineStart to lineEnd and add it to range
+		 */
+		private void parseLine(ByteBuffer buffer, int lineStart, int lineEnd, ParsedRange range) {
+			if (range.numRows == range.labels.length) {
+				range.labels = Arrays.copyOf(range.labels, range.labels.length * 2);
+				range.values = Arrays.copyOf(range.values, range.labels.length * numColumns);
+			}
+
+			int rowStart = range.numRows * numColumns;
+			int column = 0;
+			int featureIndex = 0;
+			boolean sawLabel = false;
+			int cellStart = lineStart;
+
+			while (cellStart <= lineEnd) {
+				int cellEnd = cellStart;
+
+				while (cellEnd < lineEnd && buffer.get(cellEnd) != ',') {
+					cellEnd++;
+				}
+
+				if (column == labelIndex) {
+					range.labels[range.numRows] = parseCell(buffer, cellStart, cellEnd, lineStart, column);
+					sawLabel = true;
+				} else {
+					if (featureIndex < numColumns) {
+						range.values[rowStart + featureIndex] = parseCell(buffer, cellStart, cellEnd, lineStart, column);
+					}
+
+					featureIndex++;
+				}
+
+				column++;
+				cellStart = cellEnd + 1;
+			}
+
+			if (!sawLabel) {
+				throw new MalformedLineException(start + lineStart, -1, "Missing label");
+			}
+
+			range.numRows++;
+		}
+
+		/**
+		 * Parse the number in one cell of the line starting at lineStart
+		 */
+		private double parseCell(ByteBuffer buffer, int cellStart, int cellEnd, int lineStart, int column) {
+			try {
+				return parseDouble(buffer, cellStart, cellEnd);
+			} catch (NumberFormatException e) {
+				throw new MalformedLineException(start + lineStart, column, e.getMessage());
+			}
+		}
+
+		private static boolean isBlank(ByteBuffer buffer, int start, int end) {
+			for (int i = start; i < end; i++) {
+				if (buffer.get(i) > ' ') {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+}
@@ -0,0 +1,326 @@
+package ml.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A class for reading a whole text file (in the format TextDataReader expects)
+ * using multiple threads.
+ * 
+ * The file is split into shards of lines that are tokenized and counted
+ * concurrently.  Each shard records where each word first occurs in it and these
+ * are merged into a shared concurrent vocabulary, keeping the earliest
+ * occurrence.  Feature indices are then handed out in order of first occurrence
+ * in the file, which is exactly the numbering TextDataReader would produce no
+ * matter how the threads are scheduled.
+ * 
+ * With a FrozenVocabulary or a FeatureHasher there is no vocabulary to merge;
+ * each shard looks up or hashes its words directly.
+ */
+public class ParallelTextDataReader {
+	private String textFile;
+	private FrozenVocabulary frozenVocabulary = null; // if set, only use these words
+	private FeatureHasher hasher = null; // if set, hash the words instead
+
+	private ArrayList<Example> examples;
+	private Vocabulary vocabulary;
+
+	/**
+	 * @param textFile the text file containing the examples
+	 */
+	public ParallelTextDataReader(String textFile) {
+		this(textFile, (FeatureHasher) null);
+	}
+
+	/**
+	 * @param textFile the text file containing the examples
+	 * @param hasher if not null, the words are hashed into
+	 *               hasher.getNumFeatures() features (as TextDataReader does)
+	 */
+	public ParallelTextDataReader(String textFile, FeatureHasher hasher) {
+		this.textFile = textFile;
+		this.hasher = hasher;
+	}
+
+	/**
+	 * @param textFile the text file containing the examples
+	 * @param vocabulary the words to use (e.g. from the training data); other
+	 *                   words are ignored
+	 */
+	public ParallelTextDataReader(String textFile, FrozenVocabulary vocabulary) {
+		this.textFile = textFile;
+		this.frozenVocabulary = vocabulary;
+	}
+
+	/**
+	 * Read all of the examples using one thread per processor
+	 * 
+	 * @throws IOException
+	 */
+	public void read() throws IOException {
+		read(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Read all of the examples
+	 * 
+	 * @param numThreads how many threads to use
+	 * @throws IOException
+	 */
+	public void read(int numThreads) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+		try (FileChannel channel = FileChannel.open(Paths.get(textFile), StandardOpenOption.READ)) {
+			long[] boundaries = ParallelCSVReader.getRangeBoundaries(channel, 0, numThreads);
+
+			// 1. tokenize and count the shards, merging their vocabularies
+			ConcurrentHashMap<String, Long> firstOccurrences = new ConcurrentHashMap<String, Long>();
+			ArrayList<Future<Shard>> tokenized = new ArrayList<Future<Shard>>();
+
+			for (int i = 0; i < boundaries.length - 1; i++) {
+				tokenized.add(executor.submit(
+						new ShardTokenizer(channel, boundaries[i], boundaries[i + 1], i, frozenVocabulary, hasher,
+								firstOccurrences)));
+			}
+
+			ArrayList<Shard> shards = new ArrayList<Shard>();
+
+			for (Future<Shard> shard : tokenized) {
+				shards.add(shard.get());
+			}
+
+			// hashed examples or ones from a frozen vocabulary are already numbered
+			if (frozenVocabulary != null || hasher != null) {
+				examples = new ArrayList<Example>();
+
+				for (Shard shard : shards) {
+					examples.addAll(shard.examples);
+				}
+
+				return;
+			}
+
+			// 2. number the words in order of first occurrence
+			ArrayList<Map.Entry<String, Long>> words = new ArrayList<Map.Entry<String, Long>>(firstOccurrences.entrySet());
+			Collections.sort(words, new Comparator<Map.Entry<String, Long>>() {
+				public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2) {
+					return e1.getValue().compareTo(e2.getValue());
+				}
+			});
+
+			vocabulary = new Vocabulary();
+
+			for (Map.Entry<String, Long> word : words) {
+				vocabulary.addWord(word.getKey());
+			}
+
+			// 3. build the examples
+			ArrayList<Future<ArrayList<Example>>> built = new ArrayList<Future<ArrayList<Example>>>();
+
+			for (final Shard shard : shards) {
+				built.add(executor.submit(new Callable<ArrayList<Example>>() {
+					public ArrayList<Example> call() {
+						return shard.getExamples(vocabulary);
+					}
+				}));
+			}
+
+			examples = new ArrayList<Example>();
+
+			for (Future<ArrayList<Example>> shardExamples : built) {
+				examples.addAll(shardExamples.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading " + textFile, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+
+			throw new IOException("Error reading " + textFile, e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return the examples in the order they appear in the file
+	 */
+	public ArrayList<Example> getExamples() {
+		return examples;
+	}
+
+	/**
+	 * Get the feature mapping (i.e. association from feature index to word) for
+	 * all of the examples.
+	 * 
+	 * @return feature map
+	 */
+	public HashMap<Integer, String> getFeatureMap() {
+		if (frozenVocabulary != null) {
+			return frozenVocabulary.getFeatureMap();
+		} else if (hasher != null) {
+			// only the buckets the examples use
+			HashMap<Integer, String> featureMap = new HashMap<Integer, String>();
+
+			for (Example e : examples) {
+				FeatureHasher.addFeatures(e, featureMap);
+			}
+
+			return featureMap;
+		}
+
+		return vocabulary.getFeatureMap();
+	}
+
+	/**
+	 * @return the number of features, including hash buckets that no example
+	 *         uses
+	 */
+	public int getNumFeatures() {
+		if (hasher != null) {
+			return hasher.getNumFeatures();
+		}
+
+		return DataSet.getNumFeatures(getFeatureMap());
+	}
+
+	/**
+	 * The examples of one shard, numbered with the shard's own vocabulary
+	 */
+	private static class Shard {
+		public ArrayList<Example> examples = new ArrayList<Example>();
+		public Vocabulary localVocabulary = new Vocabulary();
+
+		/**
+		 * Renumber the examples with the shared vocabulary
+		 */
+		public ArrayList<Example> getExamples(Vocabulary vocabulary) {
+			int[] localToShared = new int[localVocabulary.size()];
+
+			for (int i = 0; i < localToShared.length; i++) {
+				localToShared[i] = vocabulary.getIndex(localVocabulary.getWord(i));
+			}
+
+			ArrayList<Example> shardExamples = new ArrayList<Example>();
+
+			for (Example local : examples) {
+				Example data = new Example();
+				data.setLabel(local.getLabel());
+
+				for (int i = 0; i < local.getFeatureCount(); i++) {
+					data.addFeature(localToShared[local.getFeatureIndexAt(i)], local.getFeatureValueAt(i));
+				}
+
+				shardExamples.add(data);
+			}
+
+			return shardExamples;
+		}
+	}
+
+	/**
+	 * Task that tokenizes one shard of the file and merges its first word
+	 * occurrences into the shared vocabulary
+	 */
+	private static class ShardTokenizer implements Callable<Shard> {
+		private FileChannel channel;
+		private long start;
+		private long end;
+		private int shardNum;
+		private FrozenVocabulary frozenVocabulary;
+		private FeatureHasher hasher;
+		private ConcurrentHashMap<String, Long> firstOccurrences;
+
+		public ShardTokenizer(FileChannel channel, long start, long end, int shardNum,
+				FrozenVocabulary frozenVocabulary, FeatureHasher hasher,
+				ConcurrentHashMap<String, Long> firstOccurrences) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.shardNum = shardNum;
+			this.frozenVocabulary = frozenVocabulary;
+			this.hasher = hasher;
+			this.firstOccurrences = firstOccurrences;
+		}
+
+		@Override
+		public Shard call() throws IOException {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			byte[] bytes = new byte[buffer.limit()];
+			buffer.get(bytes);
+
+			// FileReader (used by TextDataReader) decodes with the default charset
+			String text = new String(bytes, Charset.defaultCharset());
+
+			Shard shard = new Shard();
+			TextTokenizer tokenizer = new TextTokenizer();
+			int lineStart = 0;
+
+			while (lineStart < text.length()) {
+				int lineEnd = text.indexOf('\n', lineStart);
+
+				if (lineEnd == -1) {
+					lineEnd = text.length();
+				}
+
+				int contentEnd = lineEnd;
+
+				if (contentEnd > lineStart && text.charAt(contentEnd - 1) == '\r') {
+					contentEnd--;
+				}
+
+				if (!isBlank(text, lineStart, contentEnd)) {
+					if (frozenVocabulary != null) {
+						shard.examples.add(tokenizer.parseLine(text, lineStart, contentEnd, frozenVocabulary));
+					} else if (hasher != null) {
+						shard.examples.add(tokenizer.parseLine(text, lineStart, contentEnd, hasher));
+					} else {
+						shard.examples.add(tokenizer.parseLine(text, lineStart, contentEnd, shard.localVocabulary));
+					}
+				}
+
+				lineStart = lineEnd + 1;
+			}
+
+			// local indices are in order of first occurrence in the shard and the
+			// shard number is the high part so earlier shards always win
+			for (int i = 0; i < shard.localVocabulary.size(); i++) {
+				long occurrence = ((long) shardNum << 32) | i;
+				firstOccurrences.merge(shard.localVocabulary.getWord(i), occurrence, Math::min);
+			}
+
+			return shard;
+		}
+
+		/**
+		 * @return whether the text from start to end is all whitespace (in the
+		 *         String.trim() sense)
+		 */
+		private static boolean isBlank(String text, int start, int end) {
+			for (int i = start; i < end; i++) {
+				if (text.charAt(i) > ' ') {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package ml.data;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A chain of preprocessing steps (e.g. a FeatureNormalizer followed by an
+ * ExampleNormalizer) that is fit to the training data and then applied to
+ * other data.  The pipeline never changes the data it is given: each example
+ * is copied once and all of the steps are applied to the copy while it's in
+ * memory, either as the examples are read (transformLazily) or into a new
+ * data set (transform).  This also
+ * means folds of a cross validation, which share their examples, can each be
+ * preprocessed without affecting the others.
+ *
+ * For example:
+ *
+ *   PreprocessingPipeline pipeline = new PreprocessingPipeline(new FeatureNormalizer(), new ExampleNormalizer());
+ *   pipeline.fit(split.getTrain());
+ *   classifier.train(pipeline.transform(split.getTrain()));
+ *   double prediction = classifier.classify(pipeline.transform(example));
+ */
+public class PreprocessingPipeline {
+	private ArrayList<ExampleTransformer> steps = new ArrayList<ExampleTransformer>();
+	private int numFeatures = -1; // the number of features in the data it was fit to, -1 before fit
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * @param steps the steps, in the order they are applied
+	 */
+	public PreprocessingPipeline(ExampleTransformer... steps) {
+		this.steps.addAll(Arrays.asList(steps));
+	}
+
+	/**
+	 * Add a step to the end of the pipeline.  The pipeline needs to be fit
+	 * again afterwards.
+	 *
+	 * @param step
+	 */
+	public void addStep(ExampleTransformer step) {
+		steps.add(step);
+		numFeatures = -1;
+	}
+
+	/**
+	 * Set the maximum number of threads used to transform a data set (defaults
+	 * to the number of processors)
+	 *
+	 * @param numThreads
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Fit each step, in order, to the training data as transformed by the
+	 * steps before it.  The earlier steps are applied as each example is read,
+	 * so the intermediate data is never stored.
+	 *
+	 * @param train
+	 */
+	public void fit(DataSet train) {
+		numFeatures = train.getNumFeatures();
+		ArrayList<Example> examples = train.getData();
+
+		for (int i = 0; i < steps.size(); i++) {
+			int numBefore = i;
+
+			// the first step sees the original examples
+			List<Example> input = numBefore == 0 ? examples : new AbstractList<Example>() {
+				@Override
+				public Example get(int index) {
+					return apply(examples.get(index), numBefore);
+				}
+
+				@Override
+				public int size() {
+					return examples.size();
+				}
+			};
+
+			steps.get(i).fit(input, numFeatures);
+		}
+	}
+
+	/**
+	 * Apply all of the steps to a copy of example
+	 *
+	 * @param example
+	 * @return the preprocessed copy
+	 */
+	public Example transform(Example example) {
+		checkFit();
+		return apply(example, steps.size());
+	}
+
+	/**
+	 * Get the examples of data preprocessed as they are read.  Nothing is
+	 * stored, so each pass over the examples (e.g. each iteration of an
+	 * OnlineClassifier) preprocesses them again.
+	 *
+	 * @param data
+	 * @return the preprocessed examples
+	 */
+	public Iterable<Example> transformLazily(DataSet data) {
+		checkFeatures(data);
+		ArrayList<Example> examples = data.getData();
+
+		return () -> new Iterator<Example>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < examples.size();
+			}
+
+			@Override
+			public Example next() {
+				return apply(examples.get(next++), steps.size());
+			}
+		};
+	}
+
+	/**
+	 * Preprocess data into a new data set backed by its own matrix: dense if
+	 * data is dense or the steps give the examples every feature, sparse
+	 * otherwise.  data is not changed.
+	 *
+	 * @param data
+	 * @return the preprocessed data set
+	 */
+	public DataSet transform(DataSet data) {
+		checkFeatures(data);
+		ArrayList<Example> examples = data.getData();
+		HashMap<Integer, String> featureMap = new HashMap<Integer, String>(data.getFeatureMap());
+		double[] labels = new double[examples.size()];
+
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = examples.get(i).getLabel();
+		}
+
+		int numColumns = data.getNumFeatures();
+
+		// steps like FeatureNormalizer give every example every feature, in
+		// which case a dense matrix is smaller (and is always a correct way of
+		// storing the examples, since missing features are 0)
+		boolean dense = data.isDense();
+
+		if (!dense && examples.size() > 0) {
+			Example first = apply(examples.get(0), steps.size());
+			dense = first.getFeatureCount() >= numColumns && (numColumns == 0 ||
+					first.getFeatureIndexAt(numColumns - 1) == numColumns - 1);
+		}
+
+		DataSet result = new DataSet();
+
+		if (dense) {
+			result.initialize(featureMap, transformDense(examples, numColumns), labels);
+		} else {
+			ArrayList<Example> transformed = new ArrayList<Example>(examples);
+
+			RowBlocks.run(examples.size(), numThreads, (start, end) -> {
+				for (int r = start; r < end; r++) {
+					transformed.set(r, apply(examples.get(r), steps.size()));
+				}
+
+				return null;
+			});
+
+			result.initialize(featureMap, new SparseMatrix(transformed, numColumns), labels);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Preprocess the examples straight into the rows of a new dense matrix
+	 *
+	 * @param examples
+	 * @param numColumns
+	 * @return the matrix
+	 */
+	private DenseMatrix transformDense(ArrayList<Example> examples, int numColumns) {
+		double[] values = new double[examples.size() * numColumns];
+
+		RowBlocks.run(examples.size(), numThreads, (start, end) -> {
+			for (int r = start; r < end; r++) {
+				Example e = apply(examples.get(r), steps.size());
+				int rowStart = r * numColumns;
+
+				for (int i = 0; i < e.getFeatureCount() && e.getFeatureIndexAt(i) < numColumns; i++) {
+					values[rowStart + e.getFeatureIndexAt(i)] = e.getFeatureValueAt(i);
+				}
+			}
+
+			return null;
+		});
+
+		return new DenseMatrix(examples.size(), numColumns, values);
+	}
+
+	/**
+	 * Apply the first numSteps steps to a copy of example
+	 *
+	 * @param example
+	 * @param numSteps
+	 * @return the copy
+	 */
+	private Example apply(Example example, int numSteps) {
+		Example copy = new Example(example);
+
+		for (int i = 0; i < numSteps; i++) {
+			steps.get(i).transform(copy);
+		}
+
+		return copy;
+	}
+
+	/**
+	 * Preprocess data into a new data set (see transform) with steps that
+	 * have already been fit
+	 *
+	 * @param data
+	 * @param numThreads the maximum number of threads to use
+	 * @param steps the fitted steps
+	 * @return the preprocessed data set
+	 */
+	static DataSet transformFitted(DataSet data, int numThreads, ExampleTransformer... steps) {
+		PreprocessingPipeline pipeline = new PreprocessingPipeline(steps);
+		pipeline.setNumThreads(numThreads);
+		pipeline.numFeatures = data.getNumFeatures();
+		return pipeline.transform(data);
+	}
+
+	/**
+	 * Make sure the pipeline has been fit
+	 */
+	private void checkFit() {
+		if (numFeatures == -1) {
+			throw new IllegalStateException("The pipeline has to be fit before it is used");
+		}
+	}
+
+	/**
+	 * Make sure the pipeline has been fit to data with the same features as data
+	 *
+	 * @param data
+	 */
+	private void checkFeatures(DataSet data) {
+		checkFit();
+
+		if (data.getNumFeatures() != numFeatures) {
+			throw new IllegalArgumentException("Data set has different number of features than the training data");
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package ml.data;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs work over the rows of a data set in parallel, a block of consecutive
+ * rows per thread.
+ */
+class RowBlocks {
+	// don't bother splitting the work up for fewer rows than this per thread
+	private static final int MIN_BLOCK_SIZE = 1024;
+
+	/**
+	 * Work on a block of rows
+	 */
+	interface BlockTask<T> {
+		/**
+		 * @param start the first row
+		 * @param end one past the last row
+		 * @return the result for the block
+		 */
+		T run(int start, int end);
+	}
+
+	/**
+	 * Split rows 0 to numRows-1 into blocks and run task on each block, in
+	 * parallel if there are enough rows
+	 *
+	 * @param numRows
+	 * @param numThreads the maximum number of threads to use
+	 * @param task
+	 * @return the result for each block, in order
+	 */
+	static <T> ArrayList<T> run(int numRows, int numThreads, BlockTask<T> task) {
+		int numBlocks = Math.max(1, Math.min(numThreads, numRows / MIN_BLOCK_SIZE));
+		ArrayList<T> results = new ArrayList<T>();
+
+		if (numBlocks == 1) {
+			results.add(task.run(0, numRows));
+			return results;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(numBlocks);
+
+		try {
+			ArrayList<Future<T>> futures = new ArrayList<Future<T>>();
+
+			for (int b = 0; b < numBlocks; b++) {
+				int start = (int) ((long) numRows * b / numBlocks);
+				int end = (int) ((long) numRows * (b + 1) / numBlocks);
+				futures.add(executor.submit((Callable<T>) () -> task.run(start, end)));
+			}
+
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while processing rows", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Error while processing rows", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package ml.data;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compressed sparse row (CSR) storage for a data set where most features are
+ * zero for most examples (e.g. text data).
+ * 
+ * The stored features of row r are at positions rowPointers[r] up to (but not
+ * including) rowPointers[r+1] of columnIndices (the feature index) and values
+ * (the feature value), sorted by feature index.  The examples handed out by
+ * getRow are views over these arrays, so changing a value through an example
+ * changes the matrix as well.
+ * 
+ * A compressed sparse column (CSC) index is built the first time it is asked
+ * for.  The entries of column c are at positions columnPointers[c] up to
+ * columnPointers[c+1] of rowIndices (the row) and valuePositions (where the value
+ * is in the row arrays, i.e. values[valuePositions[k]]).  Going through the row
+ * arrays for the value means the column index stays correct when values are
+ * changed through the examples.
+ */
+public class SparseMatrix {
+	private int numRows;
+	private int numColumns;
+
+	// row (CSR) form
+	private int[] rowPointers;
+	private int[] columnIndices;
+	private double[] values;
+	private AtomicInteger detachCount = new AtomicInteger(); // row views that stopped being views
+
+	// column (CSC) form, built on first use
+	private int[] columnPointers = null;
+	private int[] rowIndices;
+	private int[] valuePositions;
+
+	/**
+	 * Create a new matrix containing the features of the examples.  Features
+	 * with index numColumns or larger are ignored.
+	 * 
+	 * @param examples
+	 * @param numColumns
+	 */
+	public SparseMatrix(ArrayList<Example> examples, int numColumns){
+		this.numRows = examples.size();
+		this.numColumns = numColumns;
+		rowPointers = new int[numRows+1];
+
+		for( int r = 0; r < numRows; r++ ){
+			Example e = examples.get(r);
+			int count = 0;
+
+			for( int i = 0; i < e.getFeatureCount(); i++ ){
+				if( e.getFeatureIndexAt(i) < numColumns ){
+					count++;
+				}
+			}
+
+			rowPointers[r+1] = rowPointers[r] + count;
+		}
+
+		columnIndices = new int[rowPointers[numRows]];
+		values = new double[rowPointers[numRows]];
+
+		for( int r = 0; r < numRows; r++ ){
+			Example e = examples.get(r);
+			int next = rowPointers[r];
+
+			for( int i = 0; i < e.getFeatureCount(); i++ ){
+				if( e.getFeatureIndexAt(i) < numColumns ){
+					columnIndices[next] = e.getFeatureIndexAt(i);
+					values[next] = e.getFeatureValueAt(i);
+					next++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create a matrix directly from CSR arrays
+	 * 
+	 * @param numColumns
+	 * @param rowPointers
+	 * @param columnIndices
+	 * @param values
+	 */
+	SparseMatrix(int numColumns, int[] rowPointers, int[] columnIndices, double[] values){
+		this.numRows = rowPointers.length-1;
+		this.numColumns = numColumns;
+		this.rowPointers = rowPointers;
+		this.columnIndices = columnIndices;
+		this.values = values;
+	}
+
+	/**
+	 * @return the number of rows (examples)
+	 */
+	public int getNumRows(){
+		return numRows;
+	}
+
+	/**
+	 * @return the number of columns (features)
+	 */
+	public int getNumColumns(){
+		return numColumns;
+	}
+
+	/**
+	 * @return the number of stored entries
+	 */
+	public int getNumNonZero(){
+		return values.length;
+	}
+
+	/**
+	 * @return the CSR row pointers (length getNumRows()+1)
+	 */
+	public int[] getRowPointers(){
+		return rowPointers;
+	}
+
+	/**
+	 * @return the CSR feature index of each stored entry
+	 */
+	public int[] getColumnIndices(){
+		return columnIndices;
+	}
+
+	/**
+	 * @return the value of each stored entry (in CSR order)
+	 */
+	public double[] getValues(){
+		return values;
+	}
+
+	/**
+	 * @return the CSC column pointers (length getNumColumns()+1)
+	 */
+	public int[] getColumnPointers(){
+		buildColumns();
+		return columnPointers;
+	}
+
+	/**
+	 * @return the CSC row of each stored entry
+	 */
+	public int[] getRowIndices(){
+		buildColumns();
+		return rowIndices;
+	}
+
+	/**
+	 * @return for each CSC entry, the position of its value in getValues()
+	 */
+	public int[] getValuePositions(){
+		buildColumns();
+		return valuePositions;
+	}
+
+	/**
+	 * Build the CSC index from the CSR arrays if it hasn't been built yet.
+	 * Within each column the rows are in increasing order.  Synchronized since
+	 * data sets that share the matrix (e.g. cross validation folds) may be
+	 * trained on concurrently.
+	 */
+	private synchronized void buildColumns(){
+		if( columnPointers != null ){
+			return;
+		}
+
+		int[] pointers = new int[numColumns+1];
+
+		for( int k = 0; k < columnIndices.length; k++ ){
+			pointers[columnIndices[k]+1]++;
+		}
+
+		for( int c = 0; c < numColumns; c++ ){
+			pointers[c+1] += pointers[c];
+		}
+
+		int[] next = new int[numColumns];
+		System.arraycopy(pointers, 0, next, 0, numColumns);
+
+		rowIndices = new int[columnIndices.length];
+		valuePositions = new int[columnIndices.length];
+
+		for( int r = 0; r < numRows; r++ ){
+			for( int k = rowPointers[r]; k < rowPointers[r+1]; k++ ){
+				int pos = next[columnIndices[k]]++;
+				rowIndices[pos] = r;
+				valuePositions[pos] = k;
+			}
+		}
+
+		columnPointers = pointers;
+	}
+
+	/**
+	 * @return how many of the examples handed out by getRow have stopped being
+	 * views (e.g. because a feature was added to one)
+	 */
+	int getDetachCount(){
+		return detachCount.get();
+	}
+
+	/**
+	 * Get an example that is a view over row
+	 * 
+	 * @param row
+	 * @param label the label for the example
+	 * @return the example
+	 */
+	public Example getRow(int row, double label){
+		int start = rowPointers[row];
+		return new Example(columnIndices, start, values, start, rowPointers[row+1]-start, label, detachCount);
+	}
+
+	/**
+	 * Create a new matrix containing copies of the rows (in order)
+	 * 
+	 * @param rows the rows to copy
+	 * @return the new matrix
+	 */
+	public SparseMatrix selectRows(int[] rows){
+		int[] newPointers = new int[rows.length+1];
+
+		for( int i = 0; i < rows.length; i++ ){
+			newPointers[i+1] = newPointers[i] + rowPointers[rows[i]+1] - rowPointers[rows[i]];
+		}
+
+		int[] newIndices = new int[newPointers[rows.length]];
+		double[] newValues = new double[newPointers[rows.length]];
+
+		for( int i = 0; i < rows.length; i++ ){
+			int start = rowPointers[rows[i]];
+			int length = rowPointers[rows[i]+1] - start;
+			System.arraycopy(columnIndices, start, newIndices, newPointers[i], length);
+			System.arraycopy(values, start, newValues, newPointers[i], length);
+		}
+
+		return new SparseMatrix(numColumns, newPointers, newIndices, newValues);
+	}
+}
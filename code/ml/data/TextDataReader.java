@@ -8,7 +8,6 @@ import java.util.HashMap;
 import java.util.Iterator;
 
 import ml.classifiers.DecisionTreeClassifier;
-import ml.utils.HashMapCounter;
 
 /**
  * A class for reading text examples.
@@ -24,13 +23,40 @@ public class TextDataReader implements Iterator<Example>{
 	private BufferedReader in; // source to be reading data from
 	
 	// keep track of the mapping of the words to their feature index
-	private HashMap<String, Integer> wordToFeature = new HashMap<String,Integer>();
-	private int currentFeature = 0;
+	private Vocabulary vocabulary = new Vocabulary();
+	private FrozenVocabulary frozenVocabulary = null; // if set, only use these words
+	private FeatureHasher hasher = null; // if set, hash the words instead
+	private HashMap<Integer, String> hashedFeatures = new HashMap<Integer, String>(); // the buckets used so far
+	private TextTokenizer tokenizer = new TextTokenizer();
 		
 	/**
 	 * @param textFile the text file containing the examples
 	 */
 	public TextDataReader(String textFile){		
+		this(textFile, (FeatureHasher)null);
+	}
+	
+	/**
+	 * @param textFile the text file containing the examples
+	 * @param hasher if not null, the words are hashed into hasher.getNumFeatures()
+	 * features rather than numbered as they're seen
+	 */
+	public TextDataReader(String textFile, FeatureHasher hasher){
+		this.hasher = hasher;
+		open(textFile);
+	}
+	
+	/**
+	 * @param textFile the text file containing the examples
+	 * @param vocabulary the words to use (e.g. from the training data); other
+	 * words are ignored
+	 */
+	public TextDataReader(String textFile, FrozenVocabulary vocabulary){
+		this.frozenVocabulary = vocabulary;
+		open(textFile);
+	}
+	
+	private void open(String textFile){
 		try {
 			in = new BufferedReader(new FileReader(textFile));
 			nextLine = in.readLine();
@@ -49,37 +75,22 @@ public class TextDataReader implements Iterator<Example>{
 		Example data = null;
 		
 		if( hasNext() ){
-			data = new Example();
-			
-			// parse the line
-			String[] parts = nextLine.split("\\s+");
-			
-			data.setLabel(Double.parseDouble(parts[0]));
-	
-			// do a little bit of preprocessing and count how
-			// many times each word occurs
-			HashMapCounter<String> counter = new HashMapCounter<String>();
-			
-			for( int i = 1; i < parts.length; i++ ){
-				String w = parts[i].toLowerCase();
-				
-				// check if it has at least one alphabet character
-				if( !w.matches("[^a-z]+")){
-					counter.increment(w);
-				}
-			}
-			
-			for( String word: counter.keySet() ){
-				if( !wordToFeature.containsKey(word) ){
-					wordToFeature.put(word, currentFeature);
-					currentFeature++;
-				}
-				
-				data.addFeature(wordToFeature.get(word), counter.get(word));
+			if( frozenVocabulary != null ){
+				data = tokenizer.parseLine(nextLine, frozenVocabulary);
+			}else if( hasher != null ){
+				data = tokenizer.parseLine(nextLine, hasher);
+				FeatureHasher.addFeatures(data, hashedFeatures);
+			}else{
+				data = tokenizer.parseLine(nextLine, vocabulary);
 			}
 			
 			try {
 				nextLine = in.readLine();
+				
+				// close the file once everything has been read
+				if( nextLine == null ){
+					in.close();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -101,12 +112,12 @@ public class TextDataReader implements Iterator<Example>{
 	 * @return feature map
 	 */
 	public HashMap<Integer, String> getFeatureMap(){
-		HashMap<Integer, String> featureMap = new HashMap<Integer, String>();
-		
-		for( String word: wordToFeature.keySet() ){
-			featureMap.put(wordToFeature.get(word), word);
+		if( frozenVocabulary != null ){
+			return frozenVocabulary.getFeatureMap();
+		}else if( hasher != null ){
+			return hashedFeatures;
 		}
 		
-		return featureMap;
+		return vocabulary.getFeatureMap();
 	}	
 }
\ No newline at end of file
@@ -0,0 +1,325 @@
+package ml.data;
+
+import java.util.Arrays;
+
+/**
+ * Tokenizes lines of text examples (a numerical label followed by whitespace
+ * separated words) by scanning the characters directly rather than using
+ * regular expressions.
+ *
+ * Each word is lowercased into a buffer that is reused from token to token and
+ * words without at least one a-z character are dropped, the same as
+ * split("\\s+"), toLowerCase() and !matches("[^a-z]+") would do.  Words are
+ * then looked up in a Vocabulary straight from the buffer, so no Strings are
+ * created per token (only once per line for the label and once per new word).
+ *
+ * Alternatively, words can be looked up in a FrozenVocabulary (dropping the
+ * words it doesn't have) or hashed into a fixed number of features with a
+ * FeatureHasher, in which case no vocabulary is needed at all.
+ *
+ * A tokenizer is not thread safe; use one per thread.
+ */
+public class TextTokenizer {
+	/**
+	 * Receives the words of a line as they are found.  chars is only valid
+	 * until the method returns.
+	 */
+	public interface TokenHandler{
+		/**
+		 * @param chars the lowercased word is in the first length chars
+		 * @param length
+		 * @param hash the hash of the word (see Vocabulary.hash)
+		 */
+		public void token(char[] chars, int length, int hash);
+	}
+
+	// whether lowercasing ASCII letters with the default locale is just
+	// adding 32 (it isn't for Turkish, for example)
+	private static final boolean ASCII_LOWERCASE = checkAsciiLowercase();
+
+	private char[] buffer = new char[32];
+
+	// word counts for the line being parsed by parseLine
+	private double[] counts = new double[64];
+	private int[] lineFeatures = new int[16];
+	private int numLineFeatures = 0;
+	private Vocabulary lineVocabulary; // the vocabulary parseLine is using
+	private FrozenVocabulary lineFrozenVocabulary; // or the frozen vocabulary
+	private FeatureHasher lineHasher; // or the hasher
+
+	// counts the words of the line being parsed by parseLine
+	private TokenHandler lineCounter = new TokenHandler(){
+		public void token(char[] chars, int length, int hash){
+			count(lineVocabulary.addWord(chars, length, hash), 1);
+		}
+	};
+
+	// counts the known words of the line being parsed by parseLine
+	private TokenHandler frozenLineCounter = new TokenHandler(){
+		public void token(char[] chars, int length, int hash){
+			int featureIndex = lineFrozenVocabulary.getIndex(chars, length);
+
+			if( featureIndex != -1 ){
+				count(featureIndex, 1);
+			}
+		}
+	};
+
+	// counts the hashed words of the line being parsed by parseLine
+	private TokenHandler hashedLineCounter = new TokenHandler(){
+		public void token(char[] chars, int length, int hash){
+			long wordHash = lineHasher.hash(chars, length);
+			count(lineHasher.getIndex(wordHash), lineHasher.getSign(wordHash));
+		}
+	};
+
+	/**
+	 * Tokenize line, passing each kept word to handler
+	 *
+	 * @param line
+	 * @param handler
+	 * @return the label
+	 */
+	public double tokenize(String line, TokenHandler handler){
+		return tokenize(line, 0, line.length(), handler);
+	}
+
+	/**
+	 * Tokenize the line in text from start up to (but not including) end,
+	 * passing each kept word to handler
+	 *
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @param handler
+	 * @return the label
+	 */
+	public double tokenize(String text, int start, int end, TokenHandler handler){
+		// the label is everything up to the first whitespace
+		int i = start;
+
+		while( i < end && !isWhitespace(text.charAt(i)) ){
+			i++;
+		}
+
+		double label = Double.parseDouble(text.substring(start, i));
+
+		while( i < end ){
+			// skip to the start of the next word
+			while( i < end && isWhitespace(text.charAt(i)) ){
+				i++;
+			}
+
+			if( i == end ){
+				break;
+			}
+
+			int wordStart = i;
+			int length = 0;
+			int hash = 0;
+			boolean hasLetter = false;
+			boolean ascii = true;
+
+			while( i < end ){
+				char c = text.charAt(i);
+
+				if( isWhitespace(c) ){
+					break;
+				}
+
+				if( c >= 'A' && c <= 'Z' ){
+					c += 'a' - 'A';
+				}else if( c >= 128 ){
+					ascii = false;
+				}
+
+				if( c >= 'a' && c <= 'z' ){
+					hasLetter = true;
+				}
+
+				if( length == buffer.length ){
+					buffer = Arrays.copyOf(buffer, length * 2);
+				}
+
+				buffer[length++] = c;
+				hash = 31 * hash + c;
+				i++;
+			}
+
+			if( !ascii || !ASCII_LOWERCASE ){
+				// rare: let String handle the full lowercasing rules
+				String word = text.substring(wordStart, i).toLowerCase();
+				length = word.length();
+
+				if( length > buffer.length ){
+					buffer = new char[length];
+				}
+
+				word.getChars(0, length, buffer, 0);
+				hash = word.hashCode();
+				hasLetter = false;
+
+				for( int j = 0; j < length && !hasLetter; j++ ){
+					hasLetter = buffer[j] >= 'a' && buffer[j] <= 'z';
+				}
+			}
+
+			if( hasLetter ){
+				handler.token(buffer, length, hash);
+			}
+		}
+
+		return label;
+	}
+
+	/**
+	 * Parse a line into an example whose features are the counts of the words,
+	 * adding any new words to vocabulary
+	 *
+	 * @param line
+	 * @param vocabulary
+	 * @return the example
+	 */
+	public Example parseLine(String line, Vocabulary vocabulary){
+		return parseLine(line, 0, line.length(), vocabulary);
+	}
+
+	/**
+	 * Parse the line in text from start up to (but not including) end into an
+	 * example whose features are the counts of the words, adding any new words
+	 * to vocabulary
+	 *
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @param vocabulary
+	 * @return the example
+	 */
+	public Example parseLine(String text, int start, int end, Vocabulary vocabulary){
+		numLineFeatures = 0;
+		lineVocabulary = vocabulary;
+		return getExample(tokenize(text, start, end, lineCounter));
+	}
+
+	/**
+	 * Parse a line into an example whose features are the counts of the words
+	 * in vocabulary.  Other words are ignored.
+	 *
+	 * @param line
+	 * @param vocabulary
+	 * @return the example
+	 */
+	public Example parseLine(String line, FrozenVocabulary vocabulary){
+		return parseLine(line, 0, line.length(), vocabulary);
+	}
+
+	/**
+	 * Parse the line in text from start up to (but not including) end into an
+	 * example whose features are the counts of the words in vocabulary.  Other
+	 * words are ignored.
+	 *
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @param vocabulary
+	 * @return the example
+	 */
+	public Example parseLine(String text, int start, int end, FrozenVocabulary vocabulary){
+		numLineFeatures = 0;
+		lineFrozenVocabulary = vocabulary;
+		return getExample(tokenize(text, start, end, frozenLineCounter));
+	}
+
+	/**
+	 * Parse a line into an example whose features are the (signed) counts of
+	 * the hashed words
+	 *
+	 * @param line
+	 * @param hasher
+	 * @return the example
+	 */
+	public Example parseLine(String line, FeatureHasher hasher){
+		return parseLine(line, 0, line.length(), hasher);
+	}
+
+	/**
+	 * Parse the line in text from start up to (but not including) end into an
+	 * example whose features are the (signed) counts of the hashed words
+	 *
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @param hasher
+	 * @return the example
+	 */
+	public Example parseLine(String text, int start, int end, FeatureHasher hasher){
+		numLineFeatures = 0;
+		lineHasher = hasher;
+		return getExample(tokenize(text, start, end, hashedLineCounter));
+	}
+
+	/**
+	 * Create an example from the counts of the current line and reset them
+	 */
+	private Example getExample(double label){
+		// add the features in index order so they're appended
+		Arrays.sort(lineFeatures, 0, numLineFeatures);
+
+		Example data = new Example();
+		data.setLabel(label);
+
+		for( int j = 0; j < numLineFeatures; j++ ){
+			int featureIndex = lineFeatures[j];
+
+			// signed hashed words can cancel out
+			if( counts[featureIndex] != 0 ){
+				data.addFeature(featureIndex, counts[featureIndex]);
+			}
+
+			counts[featureIndex] = 0;
+		}
+
+		return data;
+	}
+
+	/**
+	 * Add value to the count of featureIndex in the current line
+	 */
+	private void count(int featureIndex, double value){
+		if( featureIndex >= counts.length ){
+			counts = Arrays.copyOf(counts, Math.max(featureIndex + 1, counts.length * 2));
+		}
+
+		// (a signed count that cancelled out to 0 gets listed again, but
+		// getExample only adds it once)
+		if( counts[featureIndex] == 0 ){
+			if( numLineFeatures == lineFeatures.length ){
+				lineFeatures = Arrays.copyOf(lineFeatures, numLineFeatures * 2);
+			}
+
+			lineFeatures[numLineFeatures++] = featureIndex;
+		}
+
+		counts[featureIndex] += value;
+	}
+
+	/**
+	 * @param c
+	 * @return whether c is whitespace as matched by \s in a regular expression
+	 */
+	static boolean isWhitespace(char c){
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	private static boolean checkAsciiLowercase(){
+		for( char c = 'A'; c <= 'Z'; c++ ){
+			String lower = String.valueOf(c).toLowerCase();
+
+			if( lower.length() != 1 || lower.charAt(0) != c + ('a' - 'A') ){
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
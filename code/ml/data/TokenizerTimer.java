@@ -0,0 +1,145 @@
+package ml.data;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import ml.utils.HashMapCounter;
+
+/**
+ * Compares the throughput (tokens per second) of TextTokenizer against the
+ * String.split/regular expression approach TextDataReader used to use.
+ */
+public class TokenizerTimer {
+	/**
+	 * Time turning lines into examples with TextTokenizer, averaged over numRuns
+	 *
+	 * @param lines
+	 * @param numRuns
+	 * @return the average time in milliseconds
+	 */
+	public static double timeTokenizer(ArrayList<String> lines, int numRuns){
+		long sum = 0;
+
+		for( int i = 0; i < numRuns; i++ ){
+			System.gc();
+			long start = System.currentTimeMillis();
+
+			Vocabulary vocabulary = new Vocabulary();
+			TextTokenizer tokenizer = new TextTokenizer();
+
+			for( String line: lines ){
+				tokenizer.parseLine(line, vocabulary);
+			}
+
+			sum += System.currentTimeMillis() - start;
+		}
+
+		return ((double)sum)/numRuns;
+	}
+
+	/**
+	 * Time turning lines into examples with split, toLowerCase and matches,
+	 * averaged over numRuns
+	 *
+	 * @param lines
+	 * @param numRuns
+	 * @return the average time in milliseconds
+	 */
+	public static double timeRegex(ArrayList<String> lines, int numRuns){
+		long sum = 0;
+
+		for( int i = 0; i < numRuns; i++ ){
+			System.gc();
+			long start = System.currentTimeMillis();
+
+			HashMap<String, Integer> wordToFeature = new HashMap<String,Integer>();
+
+			for( String line: lines ){
+				regexParseLine(line, wordToFeature);
+			}
+
+			sum += System.currentTimeMillis() - start;
+		}
+
+		return ((double)sum)/numRuns;
+	}
+
+	/**
+	 * The old TextDataReader parsing
+	 */
+	private static Example regexParseLine(String line, HashMap<String, Integer> wordToFeature){
+		Example data = new Example();
+		String[] parts = line.split("\\s+");
+
+		HashMapCounter<String> counter = new HashMapCounter<String>();
+
+		for( int i = 1; i < parts.length; i++ ){
+			String w = parts[i].toLowerCase();
+
+			if( !w.matches("[^a-z]+")){
+				counter.increment(w);
+			}
+		}
+
+		data.setLabel(Double.parseDouble(parts[0]));
+
+		for( String word: counter.keySet() ){
+			if( !wordToFeature.containsKey(word) ){
+				wordToFeature.put(word, wordToFeature.size());
+			}
+
+			data.addFeature(wordToFeature.get(word), counter.get(word));
+		}
+
+		return data;
+	}
+
+	/**
+	 * @param lines
+	 * @return the number of whitespace separated tokens after the labels
+	 */
+	private static long countTokens(ArrayList<String> lines){
+		long tokens = 0;
+
+		for( String line: lines ){
+			tokens += line.split("\\s+").length - 1;
+		}
+
+		return tokens;
+	}
+
+	public static void main(String[] args) throws IOException{
+		String file = args.length > 0 ? args[0] : "data/wines.train";
+		int copies = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int numRuns = 10;
+
+		ArrayList<String> lines = new ArrayList<String>();
+
+		for( int i = 0; i < copies; i++ ){
+			BufferedReader in = new BufferedReader(new FileReader(file));
+			String line;
+
+			while( (line = in.readLine()) != null ){
+				lines.add(line);
+			}
+
+			in.close();
+		}
+
+		long tokens = countTokens(lines);
+
+		// warm up
+		timeRegex(lines, 2);
+		timeTokenizer(lines, 2);
+
+		double regexTime = timeRegex(lines, numRuns);
+		double tokenizerTime = timeTokenizer(lines, numRuns);
+
+		System.out.println(lines.size() + " lines, " + tokens + " tokens");
+		System.out.println("split/regex: " + regexTime/1000 + "s (" + (long)(tokens/(regexTime/1000)) + " tokens/s)");
+		System.out.println("TextTokenizer: " + tokenizerTime/1000 + "s (" + (long)(tokens/(tokenizerTime/1000)) + " tokens/s)");
+	}
+}
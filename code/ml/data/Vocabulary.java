@@ -0,0 +1,187 @@
+package ml.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A mapping from words to feature indices.  Indices are handed out in the
+ * order words are added, starting at 0.
+ *
+ * Words can be looked up directly from a char buffer (along with its
+ * String.hashCode() style hash) so that tokenizers don't have to create a
+ * String for every token; a String is only created the first time a word is
+ * added.
+ */
+public class Vocabulary {
+	private int[] table = new int[64]; // open addressing table of (index+1), 0 for empty
+	private String[] words = new String[32]; // the word for each index
+	private int[] hashes = new int[32]; // the hash for each index
+	private int size = 0;
+
+	/**
+	 * @return the number of words
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the feature index of word
+	 *
+	 * @param word
+	 * @return the index or -1 if the word isn't in the vocabulary
+	 */
+	public int getIndex(String word) {
+		return getIndex(word.toCharArray(), word.length(), word.hashCode());
+	}
+
+	/**
+	 * Get the feature index of the word in the first length chars of chars
+	 *
+	 * @param chars
+	 * @param length
+	 * @param hash the hash of the word, as calculated by hash
+	 * @return the index or -1 if the word isn't in the vocabulary
+	 */
+	public int getIndex(char[] chars, int length, int hash) {
+		int slot = find(chars, length, hash);
+		return table[slot] - 1;
+	}
+
+	/**
+	 * Get the feature index of word, adding it if it isn't in the vocabulary yet
+	 *
+	 * @param word
+	 * @return the index
+	 */
+	public int addWord(String word) {
+		return addWord(word.toCharArray(), word.length(), word.hashCode());
+	}
+
+	/**
+	 * Get the feature index of the word in the first length chars of chars,
+	 * adding it if it isn't in the vocabulary yet
+	 *
+	 * @param chars
+	 * @param length
+	 * @param hash the hash of the word, as calculated by hash
+	 * @return the index
+	 */
+	public int addWord(char[] chars, int length, int hash) {
+		int slot = find(chars, length, hash);
+
+		if (table[slot] != 0) {
+			return table[slot] - 1;
+		}
+
+		if (size == words.length) {
+			words = Arrays.copyOf(words, size * 2);
+			hashes = Arrays.copyOf(hashes, size * 2);
+		}
+
+		words[size] = new String(chars, 0, length);
+		hashes[size] = hash;
+		table[slot] = size + 1;
+		size++;
+
+		// keep the table at most half full
+		if (size * 2 > table.length) {
+			rehash();
+		}
+
+		return size - 1;
+	}
+
+	/**
+	 * @param index
+	 * @return the word with feature index index
+	 */
+	public String getWord(int index) {
+		return words[index];
+	}
+
+	/**
+	 * Get the feature mapping (i.e. association from feature index to word)
+	 *
+	 * @return feature map
+	 */
+	public HashMap<Integer, String> getFeatureMap() {
+		HashMap<Integer, String> featureMap = new HashMap<Integer, String>();
+
+		for (int i = 0; i < size; i++) {
+			featureMap.put(i, words[i]);
+		}
+
+		return featureMap;
+	}
+
+	/**
+	 * Calculate the hash of a word the same way String.hashCode does
+	 *
+	 * @param chars
+	 * @param length
+	 * @return the hash
+	 */
+	public static int hash(char[] chars, int length) {
+		int hash = 0;
+
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + chars[i];
+		}
+
+		return hash;
+	}
+
+	/**
+	 * Find the slot in the table holding the word or, if it's not there, the
+	 * empty slot where it should go
+	 */
+	private int find(char[] chars, int length, int hash) {
+		int mask = table.length - 1;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+
+		while (table[slot] != 0) {
+			int index = table[slot] - 1;
+
+			if (hashes[index] == hash && matches(words[index], chars, length)) {
+				return slot;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	private static boolean matches(String word, char[] chars, int length) {
+		if (word.length() != length) {
+			return false;
+		}
+
+		for (int i = 0; i < length; i++) {
+			if (word.charAt(i) != chars[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Double the size of the table
+	 */
+	private void rehash() {
+		table = new int[table.length * 2];
+		int mask = table.length - 1;
+
+		for (int index = 0; index < size; index++) {
+			int slot = (hashes[index] ^ (hashes[index] >>> 16)) & mask;
+
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+
+			table[slot] = index + 1;
+		}
+	}
+}
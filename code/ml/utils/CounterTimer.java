@@ -0,0 +1,256 @@
+package ml.utils;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares counting the words of a text file with HashMapCounter,
+ * ObjectIntCounter and, from several threads, StripedCounter.  The lines are
+ * split into words before timing, so only the counting is timed.
+ *
+ * Also compares getting the most frequent words by sorting all of the counts
+ * (sortedEntrySet) with topK, and checks how many of them a SpaceSaving
+ * sketch finds.
+ */
+public class CounterTimer{
+	/**
+	 * Time counting the words with HashMapCounter, averaged over numRuns
+	 *
+	 * @param lines the words of each line
+	 * @param numRuns
+	 * @return the average time in milliseconds
+	 */
+	public static double timeHashMapCounter(ArrayList<String[]> lines, int numRuns){
+		long sum = 0;
+
+		for( int i = 0; i < numRuns; i++ ){
+			System.gc();
+			long start = System.currentTimeMillis();
+
+			HashMapCounter<String> counter = new HashMapCounter<String>();
+
+			for( String[] words: lines ){
+				for( String word: words ){
+					counter.increment(word);
+				}
+			}
+
+			sum += System.currentTimeMillis() - start;
+		}
+
+		return ((double)sum)/numRuns;
+	}
+
+	/**
+	 * Time counting the words with ObjectIntCounter, averaged over numRuns
+	 *
+	 * @param lines the words of each line
+	 * @param numRuns
+	 * @return the average time in milliseconds
+	 */
+	public static double timeObjectIntCounter(ArrayList<String[]> lines, int numRuns){
+		long sum = 0;
+
+		for( int i = 0; i < numRuns; i++ ){
+			System.gc();
+			long start = System.currentTimeMillis();
+
+			ObjectIntCounter<String> counter = new ObjectIntCounter<String>();
+
+			for( String[] words: lines ){
+				for( String word: words ){
+					counter.increment(word);
+				}
+			}
+
+			sum += System.currentTimeMillis() - start;
+		}
+
+		return ((double)sum)/numRuns;
+	}
+
+	/**
+	 * Time counting the words with numThreads threads that each count a block
+	 * of the lines into their own ObjectIntCounter and add it to a shared
+	 * StripedCounter, averaged over numRuns
+	 *
+	 * @param lines the words of each line
+	 * @param numThreads
+	 * @param numRuns
+	 * @return the average time in milliseconds
+	 */
+	public static double timeStripedCounter(ArrayList<String[]> lines, int numThreads, int numRuns) throws Exception{
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		long sum = 0;
+
+		try{
+			for( int i = 0; i < numRuns; i++ ){
+				System.gc();
+				long start = System.currentTimeMillis();
+
+				StripedCounter<String> counter = new StripedCounter<String>();
+				ArrayList<Future<?>> blocks = new ArrayList<Future<?>>();
+
+				for( int t = 0; t < numThreads; t++ ){
+					int blockStart = (int)((long)lines.size() * t / numThreads);
+					int blockEnd = (int)((long)lines.size() * (t + 1) / numThreads);
+
+					blocks.add(executor.submit(() -> {
+						ObjectIntCounter<String> local = new ObjectIntCounter<String>();
+
+						for( int line = blockStart; line < blockEnd; line++ ){
+							for( String word: lines.get(line) ){
+								local.increment(word);
+							}
+						}
+
+						counter.addAll(local);
+					}));
+				}
+
+				for( Future<?> block: blocks ){
+					block.get();
+				}
+
+				counter.toCounter();
+				sum += System.currentTimeMillis() - start;
+			}
+		}finally{
+			executor.shutdown();
+		}
+
+		return ((double)sum)/numRuns;
+	}
+
+	/**
+	 * Time getting the k largest counts of counter by sorting all of them,
+	 * averaged over numRuns
+	 *
+	 * @param counter
+	 * @param k
+	 * @param numRuns
+	 * @return the average time in milliseconds
+	 */
+	public static double timeSortedEntrySet(HashMapCounter<String> counter, int k, int numRuns){
+		long sum = 0;
+
+		for( int i = 0; i < numRuns; i++ ){
+			long start = System.nanoTime();
+			counter.sortedEntrySet().subList(0, Math.min(k, counter.size()));
+			sum += System.nanoTime() - start;
+		}
+
+		return sum/1e6/numRuns;
+	}
+
+	/**
+	 * Time getting the k largest counts of counter with topK, averaged over
+	 * numRuns
+	 *
+	 * @param counter
+	 * @param k
+	 * @param numRuns
+	 * @return the average time in milliseconds
+	 */
+	public static double timeTopK(HashMapCounter<String> counter, int k, int numRuns){
+		long sum = 0;
+
+		for( int i = 0; i < numRuns; i++ ){
+			long start = System.nanoTime();
+			counter.topK(k);
+			sum += System.nanoTime() - start;
+		}
+
+		return sum/1e6/numRuns;
+	}
+
+	/**
+	 * @param exact
+	 * @param approximate
+	 * @return the fraction of the keys of exact that are in approximate
+	 */
+	private static double recall(List<? extends Map.Entry<String, ?>> exact, List<? extends Map.Entry<String, ?>> approximate){
+		HashSet<String> found = new HashSet<String>();
+
+		for( Map.Entry<String, ?> e: approximate ){
+			found.add(e.getKey());
+		}
+
+		int hits = 0;
+
+		for( Map.Entry<String, ?> e: exact ){
+			if( found.contains(e.getKey()) ){
+				hits++;
+			}
+		}
+
+		return ((double)hits)/exact.size();
+	}
+
+	public static void main(String[] args) throws Exception{
+		String file = args.length > 0 ? args[0] : "data/wines.train";
+		int copies = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int numRuns = 10;
+
+		ArrayList<String[]> lines = new ArrayList<String[]>();
+		long tokens = 0;
+
+		for( int i = 0; i < copies; i++ ){
+			BufferedReader in = new BufferedReader(new FileReader(file));
+			String line;
+
+			while( (line = in.readLine()) != null ){
+				String[] words = line.toLowerCase().split("\\s+");
+				lines.add(words);
+				tokens += words.length;
+			}
+
+			in.close();
+		}
+
+		// warm up
+		timeHashMapCounter(lines, 2);
+		timeObjectIntCounter(lines, 2);
+		timeStripedCounter(lines, numThreads, 2);
+
+		double hashMapTime = timeHashMapCounter(lines, numRuns);
+		double objectIntTime = timeObjectIntCounter(lines, numRuns);
+		double stripedTime = timeStripedCounter(lines, numThreads, numRuns);
+
+		System.out.println(lines.size() + " lines, " + tokens + " tokens");
+		System.out.println("HashMapCounter: " + hashMapTime/1000 + "s (" + (long)(tokens/(hashMapTime/1000)) + " tokens/s)");
+		System.out.println("ObjectIntCounter: " + objectIntTime/1000 + "s (" + (long)(tokens/(objectIntTime/1000)) + " tokens/s)");
+		System.out.println("StripedCounter, " + numThreads + " threads: " + stripedTime/1000 + "s (" +
+				(long)(tokens/(stripedTime/1000)) + " tokens/s)");
+
+		// the most frequent words
+		int k = 100;
+		HashMapCounter<String> counter = new HashMapCounter<String>();
+		SpaceSaving<String> sketch = new SpaceSaving<String>(10 * k);
+
+		for( String[] words: lines ){
+			for( String word: words ){
+				counter.increment(word);
+				sketch.offer(word);
+			}
+		}
+
+		timeSortedEntrySet(counter, k, 2);
+		timeTopK(counter, k, 2);
+
+		System.out.println(counter.size() + " words, top " + k);
+		System.out.println("sortedEntrySet: " + timeSortedEntrySet(counter, k, numRuns) + "ms");
+		System.out.println("topK: " + timeTopK(counter, k, numRuns) + "ms");
+		System.out.println("SpaceSaving with " + sketch.getCapacity() + " counters, recall: " +
+				recall(counter.topK(k), sketch.topK(k)));
+	}
+}
@@ -6,6 +6,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 /**
@@ -66,6 +67,49 @@ public class HashMapCounter<K>{  // implements Map<K, Integer>{
 		return list;
 	}
 
+	/**
+	 * Get the k entries with the largest counts sorted by *values* (largest
+	 * first), like the start of sortedEntrySet.  Only the best k entries seen
+	 * so far are kept, in a min-heap, so this takes O(n log k) time and only
+	 * creates entries for the k that are returned.  Ties at the kth count are
+	 * broken arbitrarily.
+	 * 
+	 * @param k
+	 * @return
+	 */
+	public ArrayList<Map.Entry<K, Integer>> topK(int k){
+		ArrayList<Map.Entry<K, Integer>> list = new ArrayList<Map.Entry<K, Integer>>();
+		
+		if( k <= 0 ){
+			return list;
+		}
+		
+		PriorityQueue<Map.Entry<K, ChangeableInteger>> heap = new PriorityQueue<Map.Entry<K, ChangeableInteger>>(
+				Math.min(k, map.size()) + 1, new Comparator<Map.Entry<K, ChangeableInteger>>(){
+			public int compare(Map.Entry<K, ChangeableInteger> e1, Map.Entry<K, ChangeableInteger> e2){
+				return e1.getValue().compareTo(e2.getValue());
+			}
+		});
+		
+		for( Map.Entry<K, ChangeableInteger> e: map.entrySet() ){
+			if( heap.size() < k ){
+				heap.add(e);
+			}else if( e.getValue().compareTo(heap.peek().getValue()) > 0 ){
+				heap.poll();
+				heap.add(e);
+			}
+		}
+		
+		// the heap gives the smallest first
+		while( !heap.isEmpty() ){
+			Map.Entry<K, ChangeableInteger> e = heap.poll();
+			list.add(new AbstractMap.SimpleEntry<K, Integer>(e.getKey(), e.getValue().getInt()));
+		}
+		
+		Collections.reverse(list);
+		return list;
+	}
+
 	/**
 	 * Get the count associated with this key
 	 * 
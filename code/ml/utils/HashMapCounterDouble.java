@@ -6,6 +6,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 /**
@@ -66,6 +67,49 @@ public class HashMapCounterDouble<K>{  // implements Map<K, Integer>{
 		return list;
 	}
 
+	/**
+	 * Get the k entries with the largest counts sorted by *values* (largest
+	 * first), like the start of sortedEntrySet.  Only the best k entries seen
+	 * so far are kept, in a min-heap, so this takes O(n log k) time and only
+	 * creates entries for the k that are returned.  Ties at the kth count are
+	 * broken arbitrarily.
+	 * 
+	 * @param k
+	 * @return
+	 */
+	public ArrayList<Map.Entry<K, Double>> topK(int k){
+		ArrayList<Map.Entry<K, Double>> list = new ArrayList<Map.Entry<K, Double>>();
+		
+		if( k <= 0 ){
+			return list;
+		}
+		
+		PriorityQueue<Map.Entry<K, ChangeableDouble>> heap = new PriorityQueue<Map.Entry<K, ChangeableDouble>>(
+				Math.min(k, map.size()) + 1, new Comparator<Map.Entry<K, ChangeableDouble>>(){
+			public int compare(Map.Entry<K, ChangeableDouble> e1, Map.Entry<K, ChangeableDouble> e2){
+				return e1.getValue().compareTo(e2.getValue());
+			}
+		});
+		
+		for( Map.Entry<K, ChangeableDouble> e: map.entrySet() ){
+			if( heap.size() < k ){
+				heap.add(e);
+			}else if( e.getValue().compareTo(heap.peek().getValue()) > 0 ){
+				heap.poll();
+				heap.add(e);
+			}
+		}
+		
+		// the heap gives the smallest first
+		while( !heap.isEmpty() ){
+			Map.Entry<K, ChangeableDouble> e = heap.poll();
+			list.add(new AbstractMap.SimpleEntry<K, Double>(e.getKey(), e.getValue().getDouble()));
+		}
+		
+		Collections.reverse(list);
+		return list;
+	}
+
 	/**
 	 * Get the count associated with this key
 	 * 
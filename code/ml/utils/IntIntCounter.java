@@ -0,0 +1,284 @@
+package ml.utils;
+
+import java.util.Arrays;
+
+/**
+ * Counts for int keys (e.g. feature indices) without any per-entry objects.
+ * The keys and counts are kept in parallel arrays using open addressing with
+ * linear probing, so looking up or incrementing a key doesn't box it or
+ * allocate anything.  Removing a key shifts the following entries back, so
+ * no tombstones are left behind.
+ */
+public class IntIntCounter{
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Receives the entries of a counter
+	 */
+	public interface Visitor{
+		public void visit(int key, int count);
+	}
+
+	private int[] keys;
+	private int[] counts;
+	private boolean[] used;
+	private int size = 0;
+	private int mask;
+
+	public IntIntCounter(){
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize the number of keys expected, to avoid resizing
+	 */
+	public IntIntCounter(int expectedSize){
+		allocate(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, expectedSize) * 2 - 1) * 2));
+	}
+
+	/**
+	 * Get the count associated with this key
+	 *
+	 * @param key
+	 * @return the count, 0 if the key hasn't been counted
+	 */
+	public int get(int key){
+		int slot = find(key);
+		return slot >= 0 ? counts[slot] : 0;
+	}
+
+	/**
+	 * @param key
+	 * @return whether or not the key is in the counter
+	 */
+	public boolean containsKey(int key){
+		return find(key) >= 0;
+	}
+
+	/**
+	 * Set the count for key
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void put(int key, int value){
+		counts[insert(key)] = value;
+	}
+
+	/**
+	 * Increment the key by 1
+	 *
+	 * @param key
+	 * @return the new count
+	 */
+	public int increment(int key){
+		return increment(key, 1);
+	}
+
+	/**
+	 * Increment the key by value.  If it doesn't exist, associate the key
+	 * with the value.
+	 *
+	 * @param key
+	 * @param value
+	 * @return the new count
+	 */
+	public int increment(int key, int value){
+		int slot = insert(key);
+		counts[slot] += value;
+		return counts[slot];
+	}
+
+	/**
+	 * Add all of the counts of other to these
+	 *
+	 * @param other
+	 */
+	public void merge(IntIntCounter other){
+		for( int slot = 0; slot < other.keys.length; slot++ ){
+			if( other.used[slot] ){
+				increment(other.keys[slot], other.counts[slot]);
+			}
+		}
+	}
+
+	/**
+	 * Remove the entry associated with key
+	 *
+	 * @param key
+	 * @return the count it had, 0 if it wasn't there
+	 */
+	public int remove(int key){
+		int slot = find(key);
+
+		if( slot < 0 ){
+			return 0;
+		}
+
+		int count = counts[slot];
+		size--;
+
+		// move back any later entries of the run that could have used this
+		// slot, so lookups never stop early at the hole
+		int hole = slot;
+
+		for( int next = (hole + 1) & mask; used[next]; next = (next + 1) & mask ){
+			int home = hash(keys[next]) & mask;
+
+			// the entry can move to the hole if its home isn't between the
+			// hole (exclusive) and where it is now (inclusive), cyclically
+			if( ((next - home) & mask) >= ((next - hole) & mask) ){
+				keys[hole] = keys[next];
+				counts[hole] = counts[next];
+				hole = next;
+			}
+		}
+
+		used[hole] = false;
+		counts[hole] = 0;
+		return count;
+	}
+
+	/**
+	 * Remove everything
+	 */
+	public void clear(){
+		Arrays.fill(used, false);
+		Arrays.fill(counts, 0);
+		size = 0;
+	}
+
+	/**
+	 * @return number of keys in this counter
+	 */
+	public int size(){
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	/**
+	 * @return the keys, in no particular order
+	 */
+	public int[] keys(){
+		int[] result = new int[size];
+		int next = 0;
+
+		for( int slot = 0; slot < keys.length; slot++ ){
+			if( used[slot] ){
+				result[next++] = keys[slot];
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Call visitor on every entry, in no particular order
+	 *
+	 * @param visitor
+	 */
+	public void forEach(Visitor visitor){
+		for( int slot = 0; slot < keys.length; slot++ ){
+			if( used[slot] ){
+				visitor.visit(keys[slot], counts[slot]);
+			}
+		}
+	}
+
+	public String toString(){
+		StringBuilder buffer = new StringBuilder("{");
+
+		forEach((key, count) -> {
+			if( buffer.length() > 1 ){
+				buffer.append(", ");
+			}
+
+			buffer.append(key).append('=').append(count);
+		});
+
+		return buffer.append('}').toString();
+	}
+
+	/**
+	 * @param key
+	 * @return the slot holding key or -1 if it isn't there
+	 */
+	private int find(int key){
+		for( int slot = hash(key) & mask; used[slot]; slot = (slot + 1) & mask ){
+			if( keys[slot] == key ){
+				return slot;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @param key
+	 * @return the slot holding key, adding it with count 0 if it isn't there
+	 */
+	private int insert(int key){
+		int slot = hash(key) & mask;
+
+		for( ; used[slot]; slot = (slot + 1) & mask ){
+			if( keys[slot] == key ){
+				return slot;
+			}
+		}
+
+		if( (size + 1) * 2 > keys.length ){
+			grow();
+			return insert(key);
+		}
+
+		used[slot] = true;
+		keys[slot] = key;
+		size++;
+		return slot;
+	}
+
+	private void allocate(int capacity){
+		keys = new int[capacity];
+		counts = new int[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Double the capacity, reinserting everything
+	 */
+	private void grow(){
+		int[] oldKeys = keys;
+		int[] oldCounts = counts;
+		boolean[] oldUsed = used;
+		allocate(keys.length * 2);
+
+		for( int i = 0; i < oldKeys.length; i++ ){
+			if( oldUsed[i] ){
+				int slot = hash(oldKeys[i]) & mask;
+
+				while( used[slot] ){
+					slot = (slot + 1) & mask;
+				}
+
+				used[slot] = true;
+				keys[slot] = oldKeys[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+
+	/**
+	 * Spread the bits of key so consecutive keys don't fill runs of slots
+	 *
+	 * @param key
+	 * @return the hash
+	 */
+	private static int hash(int key){
+		int h = key * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,312 @@
+package ml.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Counts for object keys (e.g. words) without a ChangeableInteger per key
+ * like HashMapCounter.  The keys, their hashes and their counts are kept in
+ * parallel arrays using open addressing with linear probing, so incrementing
+ * an existing key doesn't allocate anything.  Removing a key shifts the
+ * following entries back, so no tombstones are left behind.
+ *
+ * Keys can't be null.
+ *
+ * @param <K>
+ */
+public class ObjectIntCounter<K>{
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Receives the entries of a counter
+	 */
+	public interface Visitor<K>{
+		public void visit(K key, int count);
+	}
+
+	// null marks an empty slot
+	Object[] keys;
+	int[] hashes;
+	int[] counts;
+	private int size = 0;
+	private int mask;
+
+	public ObjectIntCounter(){
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize the number of keys expected, to avoid resizing
+	 */
+	public ObjectIntCounter(int expectedSize){
+		allocate(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, expectedSize) * 2 - 1) * 2));
+	}
+
+	/**
+	 * Get the count associated with this key
+	 *
+	 * @param key
+	 * @return the count, 0 if the key hasn't been counted
+	 */
+	public int get(Object key){
+		int slot = find(key, hash(key));
+		return slot >= 0 ? counts[slot] : 0;
+	}
+
+	/**
+	 * @param key
+	 * @return whether or not the key is in the counter
+	 */
+	public boolean containsKey(Object key){
+		return find(key, hash(key)) >= 0;
+	}
+
+	/**
+	 * Set the count for key
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void put(K key, int value){
+		counts[insert(key, hash(key))] = value;
+	}
+
+	/**
+	 * Increment the key by 1
+	 *
+	 * @param key
+	 * @return the new count
+	 */
+	public int increment(K key){
+		return increment(key, hash(key), 1);
+	}
+
+	/**
+	 * Increment the key by value.  If it doesn't exist, associate the key
+	 * with the value.
+	 *
+	 * @param key
+	 * @param value
+	 * @return the new count
+	 */
+	public int increment(K key, int value){
+		return increment(key, hash(key), value);
+	}
+
+	/**
+	 * Increment a key whose hash (see hash) is already known
+	 *
+	 * @param key
+	 * @param hash
+	 * @param value
+	 * @return the new count
+	 */
+	int increment(Object key, int hash, int value){
+		int slot = insert(key, hash);
+		counts[slot] += value;
+		return counts[slot];
+	}
+
+	/**
+	 * Add all of the counts of other to these
+	 *
+	 * @param other
+	 */
+	public void merge(ObjectIntCounter<? extends K> other){
+		for( int slot = 0; slot < other.keys.length; slot++ ){
+			if( other.keys[slot] != null ){
+				increment(other.keys[slot], other.hashes[slot], other.counts[slot]);
+			}
+		}
+	}
+
+	/**
+	 * Remove the entry associated with key
+	 *
+	 * @param key
+	 * @return the count it had, 0 if it wasn't there
+	 */
+	public int remove(Object key){
+		int slot = find(key, hash(key));
+
+		if( slot < 0 ){
+			return 0;
+		}
+
+		int count = counts[slot];
+		size--;
+
+		// move back any later entries of the run that could have used this
+		// slot, so lookups never stop early at the hole
+		int hole = slot;
+
+		for( int next = (hole + 1) & mask; keys[next] != null; next = (next + 1) & mask ){
+			int home = hashes[next] & mask;
+
+			// the entry can move to the hole if its home isn't between the
+			// hole (exclusive) and where it is now (inclusive), cyclically
+			if( ((next - home) & mask) >= ((next - hole) & mask) ){
+				keys[hole] = keys[next];
+				hashes[hole] = hashes[next];
+				counts[hole] = counts[next];
+				hole = next;
+			}
+		}
+
+		keys[hole] = null;
+		counts[hole] = 0;
+		return count;
+	}
+
+	/**
+	 * Remove everything
+	 */
+	public void clear(){
+		Arrays.fill(keys, null);
+		Arrays.fill(counts, 0);
+		size = 0;
+	}
+
+	/**
+	 * @return number of keys in this counter
+	 */
+	public int size(){
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	/**
+	 * @return the keys, in no particular order
+	 */
+	@SuppressWarnings("unchecked")
+	public ArrayList<K> keys(){
+		ArrayList<K> result = new ArrayList<K>(size);
+
+		for( Object key: keys ){
+			if( key != null ){
+				result.add((K)key);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Call visitor on every entry, in no particular order
+	 *
+	 * @param visitor
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(Visitor<? super K> visitor){
+		for( int slot = 0; slot < keys.length; slot++ ){
+			if( keys[slot] != null ){
+				visitor.visit((K)keys[slot], counts[slot]);
+			}
+		}
+	}
+
+	public String toString(){
+		StringBuilder buffer = new StringBuilder("{");
+
+		forEach((key, count) -> {
+			if( buffer.length() > 1 ){
+				buffer.append(", ");
+			}
+
+			buffer.append(key).append('=').append(count);
+		});
+
+		return buffer.append('}').toString();
+	}
+
+	/**
+	 * @param key
+	 * @param hash
+	 * @return the slot holding key or -1 if it isn't there
+	 */
+	private int find(Object key, int hash){
+		for( int slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask ){
+			if( hashes[slot] == hash && keys[slot].equals(key) ){
+				return slot;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @param key
+	 * @param hash
+	 * @return the slot holding key, adding it with count 0 if it isn't there
+	 */
+	private int insert(Object key, int hash){
+		if( key == null ){
+			throw new IllegalArgumentException("Counter keys can't be null");
+		}
+
+		int slot = hash & mask;
+
+		for( ; keys[slot] != null; slot = (slot + 1) & mask ){
+			if( hashes[slot] == hash && keys[slot].equals(key) ){
+				return slot;
+			}
+		}
+
+		if( (size + 1) * 2 > keys.length ){
+			grow();
+			return insert(key, hash);
+		}
+
+		keys[slot] = key;
+		hashes[slot] = hash;
+		size++;
+		return slot;
+	}
+
+	private void allocate(int capacity){
+		keys = new Object[capacity];
+		hashes = new int[capacity];
+		counts = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Double the capacity, reinserting everything (the hashes are kept, so
+	 * the keys' hashCode isn't called again)
+	 */
+	private void grow(){
+		Object[] oldKeys = keys;
+		int[] oldHashes = hashes;
+		int[] oldCounts = counts;
+		allocate(keys.length * 2);
+
+		for( int i = 0; i < oldKeys.length; i++ ){
+			if( oldKeys[i] != null ){
+				int slot = oldHashes[i] & mask;
+
+				while( keys[slot] != null ){
+					slot = (slot + 1) & mask;
+				}
+
+				keys[slot] = oldKeys[i];
+				hashes[slot] = oldHashes[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+
+	/**
+	 * Spread the bits of the key's hashCode so that similar hash codes (e.g.
+	 * of short strings) don't fill runs of slots
+	 *
+	 * @param key
+	 * @return the hash
+	 */
+	static int hash(Object key){
+		int h = (key == null ? 0 : key.hashCode()) * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+}
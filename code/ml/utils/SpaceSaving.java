@@ -0,0 +1,226 @@
+package ml.utils;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * Approximately counts the most frequent items of a stream using a fixed
+ * amount of memory (the Space-Saving algorithm of Metwally, Agrawal and El
+ * Abbadi).  At most capacity items are monitored; when a new item arrives and
+ * every slot is taken, it replaces the monitored item with the smallest count
+ * and inherits that count as its possible overestimate (error).
+ *
+ * The estimated count of a monitored item is never less than its true count
+ * and at most getError more.  Any item that makes up more than 1/capacity of
+ * the stream (i.e. occurs more than getTotal()/capacity times) is always
+ * monitored, so the heavy hitters of a vocabulary too large to count exactly
+ * can be found with, e.g., a few thousand slots.
+ *
+ * The monitored items are kept in a min-heap on their counts, so each offer
+ * takes O(log capacity) time.
+ *
+ * @param <K>
+ */
+public class SpaceSaving<K>{
+	private int capacity;
+	private int size = 0;
+	private long total = 0; // the sum of all of the counts offered
+
+	// the monitored items, their counts and errors, in heap order
+	private Object[] items;
+	private long[] counts;
+	private long[] errors;
+
+	// the position in the heap of each monitored item, plus one
+	private ObjectIntCounter<K> positions;
+
+	/**
+	 * @param capacity the number of items to monitor
+	 */
+	public SpaceSaving(int capacity){
+		if( capacity <= 0 ){
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+
+		this.capacity = capacity;
+		items = new Object[capacity];
+		counts = new long[capacity];
+		errors = new long[capacity];
+		positions = new ObjectIntCounter<K>(capacity);
+	}
+
+	/**
+	 * Count one occurrence of item
+	 *
+	 * @param item
+	 */
+	public void offer(K item){
+		offer(item, 1);
+	}
+
+	/**
+	 * Count count occurrences of item
+	 *
+	 * @param item
+	 * @param count must be positive
+	 */
+	public void offer(K item, long count){
+		if( count <= 0 ){
+			throw new IllegalArgumentException("Count must be positive: " + count);
+		}
+
+		total += count;
+		int position = positions.get(item) - 1;
+
+		if( position >= 0 ){
+			counts[position] += count;
+			siftDown(position);
+		}else if( size < capacity ){
+			set(size, item, count, 0);
+			size++;
+			siftUp(size - 1);
+		}else{
+			// replace the item with the smallest count, which is at the root
+			positions.remove(items[0]);
+			set(0, item, counts[0] + count, counts[0]);
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * @param item
+	 * @return the estimated count of item, 0 if it isn't monitored (in which
+	 * case it's at most the smallest monitored count)
+	 */
+	public long getCount(Object item){
+		int position = positions.get(item) - 1;
+		return position >= 0 ? counts[position] : 0;
+	}
+
+	/**
+	 * @param item
+	 * @return how much the estimated count of item may be more than its true
+	 * count
+	 */
+	public long getError(Object item){
+		int position = positions.get(item) - 1;
+		return position >= 0 ? errors[position] : 0;
+	}
+
+	/**
+	 * @param item
+	 * @return the smallest the true count of item can be
+	 */
+	public long getGuaranteedCount(Object item){
+		return getCount(item) - getError(item);
+	}
+
+	/**
+	 * @return the total of all of the counts offered
+	 */
+	public long getTotal(){
+		return total;
+	}
+
+	/**
+	 * @return the number of items that can be monitored
+	 */
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * @return the number of items monitored
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Get the k monitored items with the largest estimated counts, largest
+	 * first (see HashMapCounter.topK)
+	 *
+	 * @param k
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public ArrayList<Map.Entry<K, Long>> topK(int k){
+		Integer[] order = new Integer[size];
+
+		for( int i = 0; i < size; i++ ){
+			order[i] = i;
+		}
+
+		Arrays.sort(order, new Comparator<Integer>(){
+			public int compare(Integer i1, Integer i2){
+				return Long.compare(counts[i2], counts[i1]);
+			}
+		});
+
+		ArrayList<Map.Entry<K, Long>> list = new ArrayList<Map.Entry<K, Long>>();
+
+		for( int i = 0; i < Math.min(k, size); i++ ){
+			list.add(new AbstractMap.SimpleEntry<K, Long>((K)items[order[i]], counts[order[i]]));
+		}
+
+		return list;
+	}
+
+	/**
+	 * Put an item at a position in the heap
+	 */
+	@SuppressWarnings("unchecked")
+	private void set(int position, Object item, long count, long error){
+		items[position] = item;
+		counts[position] = count;
+		errors[position] = error;
+		positions.put((K)item, position + 1);
+	}
+
+	private void swap(int i, int j){
+		Object item = items[i];
+		long count = counts[i];
+		long error = errors[i];
+		set(i, items[j], counts[j], errors[j]);
+		set(j, item, count, error);
+	}
+
+	private void siftUp(int position){
+		while( position > 0 ){
+			int parent = (position - 1) / 2;
+
+			if( counts[parent] <= counts[position] ){
+				return;
+			}
+
+			swap(parent, position);
+			position = parent;
+		}
+	}
+
+	private void siftDown(int position){
+		while( true ){
+			int smallest = position;
+			int left = 2 * position + 1;
+			int right = left + 1;
+
+			if( left < size && counts[left] < counts[smallest] ){
+				smallest = left;
+			}
+
+			if( right < size && counts[right] < counts[smallest] ){
+				smallest = right;
+			}
+
+			if( smallest == position ){
+				return;
+			}
+
+			swap(smallest, position);
+			position = smallest;
+		}
+	}
+}
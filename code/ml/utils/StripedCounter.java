@@ -0,0 +1,172 @@
+package ml.utils;
+
+/**
+ * A counter that can be incremented from many threads at once.  The keys are
+ * split between a number of stripes by their hash, and each stripe is an
+ * ObjectIntCounter with its own lock, so threads only contend when they hit
+ * the same stripe at the same time.
+ *
+ * The cheapest way to count from many threads is usually for each thread to
+ * count into its own ObjectIntCounter and then addAll it, which sorts the
+ * entries by stripe and takes each stripe's lock once.  Since no key is in
+ * more than one stripe, toCounter combines the stripes without any of the
+ * counts needing to be added together.
+ *
+ * @param <K>
+ */
+public class StripedCounter<K>{
+	private ObjectIntCounter<K>[] stripes;
+	private int stripeShift; // the stripe is the top bits of the hash
+
+	/**
+	 * Use four stripes per processor
+	 */
+	public StripedCounter(){
+		this(4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param numStripes the number of stripes (rounded up to a power of two)
+	 */
+	@SuppressWarnings("unchecked")
+	public StripedCounter(int numStripes){
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, numStripes) - 1);
+		stripes = (ObjectIntCounter<K>[]) new ObjectIntCounter<?>[1 << bits];
+		stripeShift = 32 - bits;
+
+		for( int i = 0; i < stripes.length; i++ ){
+			stripes[i] = new ObjectIntCounter<K>();
+		}
+	}
+
+	/**
+	 * Get the count associated with this key
+	 *
+	 * @param key
+	 * @return the count, 0 if the key hasn't been counted
+	 */
+	public int get(Object key){
+		ObjectIntCounter<K> stripe = stripes[getStripe(ObjectIntCounter.hash(key))];
+
+		synchronized( stripe ){
+			return stripe.get(key);
+		}
+	}
+
+	/**
+	 * Increment the key by 1
+	 *
+	 * @param key
+	 * @return the new count
+	 */
+	public int increment(K key){
+		return increment(key, 1);
+	}
+
+	/**
+	 * Increment the key by value.  If it doesn't exist, associate the key
+	 * with the value.
+	 *
+	 * @param key
+	 * @param value
+	 * @return the new count
+	 */
+	public int increment(K key, int value){
+		int hash = ObjectIntCounter.hash(key);
+		ObjectIntCounter<K> stripe = stripes[getStripe(hash)];
+
+		synchronized( stripe ){
+			return stripe.increment(key, hash, value);
+		}
+	}
+
+	/**
+	 * Add all of the counts of counter (e.g. counted by one thread on its own)
+	 * to these, locking each stripe once
+	 *
+	 * @param counter
+	 */
+	public void addAll(ObjectIntCounter<? extends K> counter){
+		Object[] keys = counter.keys;
+		int[] hashes = counter.hashes;
+		int[] counts = counter.counts;
+
+		// sort the slots of counter by stripe (a counting sort)
+		int[] starts = new int[stripes.length + 1];
+
+		for( int slot = 0; slot < keys.length; slot++ ){
+			if( keys[slot] != null ){
+				starts[getStripe(hashes[slot]) + 1]++;
+			}
+		}
+
+		for( int i = 0; i < stripes.length; i++ ){
+			starts[i + 1] += starts[i];
+		}
+
+		int[] next = new int[stripes.length];
+		System.arraycopy(starts, 0, next, 0, next.length);
+		int[] slots = new int[starts[stripes.length]];
+
+		for( int slot = 0; slot < keys.length; slot++ ){
+			if( keys[slot] != null ){
+				slots[next[getStripe(hashes[slot])]++] = slot;
+			}
+		}
+
+		for( int i = 0; i < stripes.length; i++ ){
+			if( starts[i] == starts[i + 1] ){
+				continue;
+			}
+
+			ObjectIntCounter<K> stripe = stripes[i];
+
+			synchronized( stripe ){
+				for( int j = starts[i]; j < starts[i + 1]; j++ ){
+					int slot = slots[j];
+					stripe.increment(keys[slot], hashes[slot], counts[slot]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of keys counted
+	 */
+	public int size(){
+		int size = 0;
+
+		for( ObjectIntCounter<K> stripe: stripes ){
+			synchronized( stripe ){
+				size += stripe.size();
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * @return a counter with all of the counts (later increments don't
+	 * change it)
+	 */
+	public ObjectIntCounter<K> toCounter(){
+		ObjectIntCounter<K> result = new ObjectIntCounter<K>(size());
+
+		for( ObjectIntCounter<K> stripe: stripes ){
+			synchronized( stripe ){
+				result.merge(stripe);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @param hash the hash of a key (see ObjectIntCounter.hash)
+	 * @return the stripe the key belongs to
+	 */
+	private int getStripe(int hash){
+		// (a shift by 32 doesn't shift at all in Java)
+		return stripes.length == 1 ? 0 : hash >>> stripeShift;
+	}
+}
@@ -0,0 +1,229 @@
+package ml.utils;
+
+/**
+ * Kernels for the basic vector operations (dot products, distances, norms,
+ * axpy and scaling) over primitive arrays.  Vectors are given as an array, the
+ * offset where they start and their length, so rows of a row-major matrix
+ * can be used directly without copying.
+ *
+ * The dense loops are unrolled by four with independent accumulators.  This
+ * breaks the dependency between the additions, which lets the JIT compile
+ * them to SIMD instructions and keeps several additions in flight even when
+ * it doesn't.  Because the sums are accumulated in a different order, the
+ * results can differ from a simple loop in the last bits.
+ *
+ * The sparse kernels take a vector stored as sorted (index, value) arrays,
+ * like the features of an Example, and combine it with a dense vector.
+ */
+public class VectorMath{
+	private VectorMath(){
+	}
+
+	/**
+	 * @param x
+	 * @param xOffset
+	 * @param y
+	 * @param yOffset
+	 * @param length
+	 * @return the dot product of x and y
+	 */
+	public static double dot(double[] x, int xOffset, double[] y, int yOffset, int length){
+		double sum0 = 0.0;
+		double sum1 = 0.0;
+		double sum2 = 0.0;
+		double sum3 = 0.0;
+		int i = 0;
+
+		for( ; i + 3 < length; i += 4 ){
+			sum0 += x[xOffset + i] * y[yOffset + i];
+			sum1 += x[xOffset + i + 1] * y[yOffset + i + 1];
+			sum2 += x[xOffset + i + 2] * y[yOffset + i + 2];
+			sum3 += x[xOffset + i + 3] * y[yOffset + i + 3];
+		}
+
+		for( ; i < length; i++ ){
+			sum0 += x[xOffset + i] * y[yOffset + i];
+		}
+
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return the dot product of x and y, which must be the same length
+	 */
+	public static double dot(double[] x, double[] y){
+		return dot(x, 0, y, 0, x.length);
+	}
+
+	/**
+	 * @param x
+	 * @param xOffset
+	 * @param y
+	 * @param yOffset
+	 * @param length
+	 * @return the squared euclidean distance between x and y
+	 */
+	public static double squaredDistance(double[] x, int xOffset, double[] y, int yOffset, int length){
+		double sum0 = 0.0;
+		double sum1 = 0.0;
+		double sum2 = 0.0;
+		double sum3 = 0.0;
+		int i = 0;
+
+		for( ; i + 3 < length; i += 4 ){
+			double diff0 = x[xOffset + i] - y[yOffset + i];
+			double diff1 = x[xOffset + i + 1] - y[yOffset + i + 1];
+			double diff2 = x[xOffset + i + 2] - y[yOffset + i + 2];
+			double diff3 = x[xOffset + i + 3] - y[yOffset + i + 3];
+			sum0 += diff0 * diff0;
+			sum1 += diff1 * diff1;
+			sum2 += diff2 * diff2;
+			sum3 += diff3 * diff3;
+		}
+
+		for( ; i < length; i++ ){
+			double diff = x[xOffset + i] - y[yOffset + i];
+			sum0 += diff * diff;
+		}
+
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return the squared euclidean distance between x and y, which must be the
+	 * same length
+	 */
+	public static double squaredDistance(double[] x, double[] y){
+		return squaredDistance(x, 0, y, 0, x.length);
+	}
+
+	/**
+	 * @param x
+	 * @param offset
+	 * @param length
+	 * @return the squared L2 norm of x
+	 */
+	public static double squaredNorm(double[] x, int offset, int length){
+		return dot(x, offset, x, offset, length);
+	}
+
+	/**
+	 * @param x
+	 * @return the L2 norm of x
+	 */
+	public static double norm(double[] x){
+		return Math.sqrt(squaredNorm(x, 0, x.length));
+	}
+
+	/**
+	 * y += alpha*x
+	 *
+	 * @param alpha
+	 * @param x
+	 * @param xOffset
+	 * @param y
+	 * @param yOffset
+	 * @param length
+	 */
+	public static void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length){
+		int i = 0;
+
+		for( ; i + 3 < length; i += 4 ){
+			y[yOffset + i] += alpha * x[xOffset + i];
+			y[yOffset + i + 1] += alpha * x[xOffset + i + 1];
+			y[yOffset + i + 2] += alpha * x[xOffset + i + 2];
+			y[yOffset + i + 3] += alpha * x[xOffset + i + 3];
+		}
+
+		for( ; i < length; i++ ){
+			y[yOffset + i] += alpha * x[xOffset + i];
+		}
+	}
+
+	/**
+	 * y += alpha*x
+	 *
+	 * @param alpha
+	 * @param x
+	 * @param y must be the same length as x
+	 */
+	public static void axpy(double alpha, double[] x, double[] y){
+		axpy(alpha, x, 0, y, 0, x.length);
+	}
+
+	/**
+	 * x *= alpha
+	 *
+	 * @param alpha
+	 * @param x
+	 * @param offset
+	 * @param length
+	 */
+	public static void scale(double alpha, double[] x, int offset, int length){
+		int i = 0;
+
+		for( ; i + 3 < length; i += 4 ){
+			x[offset + i] *= alpha;
+			x[offset + i + 1] *= alpha;
+			x[offset + i + 2] *= alpha;
+			x[offset + i + 3] *= alpha;
+		}
+
+		for( ; i < length; i++ ){
+			x[offset + i] *= alpha;
+		}
+	}
+
+	/**
+	 * The dot product of a sparse vector and a dense vector.  All of the
+	 * indices must be less than the length of dense.
+	 *
+	 * @param indices the indices of the sparse vector
+	 * @param indexOffset where the sparse vector starts in indices
+	 * @param values the values of the sparse vector
+	 * @param valueOffset where the sparse vector starts in values
+	 * @param length the number of entries in the sparse vector
+	 * @param dense
+	 * @return the dot product
+	 */
+	public static double sparseDot(int[] indices, int indexOffset, double[] values, int valueOffset, int length,
+			double[] dense){
+		double sum0 = 0.0;
+		double sum1 = 0.0;
+		int i = 0;
+
+		for( ; i + 1 < length; i += 2 ){
+			sum0 += values[valueOffset + i] * dense[indices[indexOffset + i]];
+			sum1 += values[valueOffset + i + 1] * dense[indices[indexOffset + i + 1]];
+		}
+
+		if( i < length ){
+			sum0 += values[valueOffset + i] * dense[indices[indexOffset + i]];
+		}
+
+		return sum0 + sum1;
+	}
+
+	/**
+	 * dense += alpha*sparse.  All of the indices must be less than the length
+	 * of dense.
+	 *
+	 * @param alpha
+	 * @param indices the indices of the sparse vector
+	 * @param indexOffset where the sparse vector starts in indices
+	 * @param values the values of the sparse vector
+	 * @param valueOffset where the sparse vector starts in values
+	 * @param length the number of entries in the sparse vector
+	 * @param dense
+	 */
+	public static void sparseAxpy(double alpha, int[] indices, int indexOffset, double[] values, int valueOffset,
+			int length, double[] dense){
+		for( int i = 0; i < length; i++ ){
+			dense[indices[indexOffset + i]] += alpha * values[valueOffset + i];
+		}
+	}
+}